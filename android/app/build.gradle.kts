@@ -41,6 +41,8 @@ flutter {
 }
 
 dependencies {
+    // Parsing, matching, templating and dedupe; see core/build.gradle.kts
+    implementation("com.example.newton:core")
     // Add the core library desugaring dependency - Kotlin DSL syntax
     coreLibraryDesugaring("com.android.tools:desugar_jdk_libs:2.1.4") // <--- CORRECTED SYNTAX
 }
\ No newline at end of file
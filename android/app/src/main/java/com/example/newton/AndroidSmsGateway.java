@@ -0,0 +1,152 @@
+package com.example.newton;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
+import android.telephony.SubscriptionManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SmsGateway} over the platform {@link SmsManager}. Sent and delivered reports come back as
+ * broadcasts tagged with the message id and attempt, and reach the listener on the thread of the
+ * handler given at construction. Delivery outcomes are read from the status report PDU.
+ */
+public final class AndroidSmsGateway implements SmsGateway {
+    private static final String ACTION_SENT = "com.example.newton.SMS_SENT";
+    private static final String ACTION_DELIVERED = "com.example.newton.SMS_DELIVERED";
+    private static final String EXTRA_ID = "outboxId";
+    private static final String EXTRA_ATTEMPT = "outboxAttempt";
+    private static final String PREFS_NAME = "sms_gateway";
+    private static final String NEXT_REQUEST_CODE = "nextRequestCode";
+    // Request codes are reserved from preferences a block at a time
+    private static final int REQUEST_CODE_BLOCK = 1024;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    // Only touched by the thread that sends
+    private final Map<Integer, SmsManager> managers = new HashMap<>();
+    private int nextRequestCode;
+    private int reservedUntil;
+    private volatile ReportListener listener;
+
+    public AndroidSmsGateway(Context context, Handler reportHandler) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        IntentFilter filter = new IntentFilter(ACTION_SENT);
+        filter.addAction(ACTION_DELIVERED);
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                ReportListener l = listener;
+                if (l == null) return;
+                long id = intent.getLongExtra(EXTRA_ID, -1);
+                int attempt = intent.getIntExtra(EXTRA_ATTEMPT, -1);
+                if (ACTION_DELIVERED.equals(intent.getAction())) {
+                    l.onDelivered(id, attempt, deliveryStatus(intent, getResultCode()));
+                } else {
+                    l.onSent(id, attempt, getResultCode());
+                }
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            this.context.registerReceiver(receiver, filter, null, reportHandler, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            this.context.registerReceiver(receiver, filter, null, reportHandler);
+        }
+    }
+
+    @Override
+    public void setReportListener(ReportListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public List<String> divideMessage(int subscriptionId, String text) {
+        return managerFor(subscriptionId).divideMessage(text);
+    }
+
+    @Override
+    public void send(int subscriptionId, String recipient, List<String> parts, long messageId, int attempt) {
+        SmsManager manager = managerFor(subscriptionId);
+        if (parts.size() <= 1) {
+            manager.sendTextMessage(recipient, null, parts.isEmpty() ? "" : parts.get(0),
+                    pendingIntent(ACTION_SENT, messageId, attempt, 0),
+                    pendingIntent(ACTION_DELIVERED, messageId, attempt, 0));
+            return;
+        }
+        ArrayList<PendingIntent> sent = new ArrayList<>(parts.size());
+        ArrayList<PendingIntent> delivered = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            sent.add(pendingIntent(ACTION_SENT, messageId, attempt, i));
+            delivered.add(pendingIntent(ACTION_DELIVERED, messageId, attempt, i));
+        }
+        manager.sendMultipartTextMessage(recipient, null, new ArrayList<>(parts), sent, delivered);
+    }
+
+    private PendingIntent pendingIntent(String action, long messageId, int attempt, int part) {
+        Intent intent = new Intent(action).setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_ID, messageId);
+        intent.putExtra(EXTRA_ATTEMPT, attempt);
+        // A fresh request code per part, and the extras replaced should one ever be reused
+        return PendingIntent.getBroadcast(context, nextRequestCode(), intent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    // Persisted, so intents still pending from an earlier process are never handed out again
+    private int nextRequestCode() {
+        if (nextRequestCode == reservedUntil) {
+            nextRequestCode = prefs.getInt(NEXT_REQUEST_CODE, 0);
+            reservedUntil = nextRequestCode + REQUEST_CODE_BLOCK;
+            prefs.edit().putInt(NEXT_REQUEST_CODE, reservedUntil).commit();
+        }
+        return nextRequestCode++;
+    }
+
+    // The broadcast result only says a report arrived; the outcome is in its status PDU
+    @SuppressWarnings("deprecation")
+    private static int deliveryStatus(Intent intent, int resultCode) {
+        byte[] pdu = intent.getByteArrayExtra("pdu");
+        String format = intent.getStringExtra("format");
+        SmsMessage report = null;
+        if (pdu != null) {
+            report = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? SmsMessage.createFromPdu(pdu, format) : SmsMessage.createFromPdu(pdu);
+        }
+        if (report == null) return resultCode == RESULT_OK ? DELIVERY_OK : DELIVERY_FAILED;
+        int status = report.getStatus();
+        if ("3gpp2".equals(format)) {
+            // CDMA: error class in bits 24-25, 0 none, 2 temporary, 3 permanent
+            int errorClass = (status >> 24) & 0x03;
+            return errorClass == 0 ? DELIVERY_OK : errorClass == 2 ? DELIVERY_PENDING : DELIVERY_FAILED;
+        }
+        // GSM TP-Status: below 0x20 completed, below 0x40 still trying, anything else failed
+        return status < 0x20 ? DELIVERY_OK : status < 0x40 ? DELIVERY_PENDING : DELIVERY_FAILED;
+    }
+
+    @SuppressWarnings("deprecation")
+    private SmsManager managerFor(int subscriptionId) {
+        SmsManager manager = managers.get(subscriptionId);
+        if (manager != null) return manager;
+        if (subscriptionId == SimScheduler.ANY_SIM || subscriptionId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            manager = SmsManager.getDefault();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            manager = context.getSystemService(SmsManager.class).createForSubscriptionId(subscriptionId);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+            manager = SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+        } else {
+            manager = SmsManager.getDefault();
+        }
+        managers.put(subscriptionId, manager);
+        return manager;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link UssdGateway} and {@link SimDirectory} over {@link TelephonyManager} and
+ * {@link SubscriptionManager}. USSD callbacks arrive on the {@link PipelineThread}.
+ */
+public final class AndroidTelephony implements UssdGateway, SimDirectory {
+    private static final String TAG = "AndroidTelephony";
+
+    private static AndroidTelephony instance;
+
+    private final Context context;
+    private final Handler callbackHandler = PipelineThread.get();
+
+    public static synchronized AndroidTelephony get(Context context) {
+        if (instance == null) {
+            instance = new AndroidTelephony(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AndroidTelephony(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void sendUssdRequest(int subscriptionId, String ussdCode, UssdGateway.Callback callback) {
+        TelephonyManager baseManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        TelephonyManager tm = baseManager != null ? baseManager.createForSubscriptionId(subscriptionId) : null;
+        if (tm == null) {
+            throw new IllegalStateException("no TelephonyManager for SIM " + subscriptionId);
+        }
+        tm.sendUssdRequest(ussdCode, new TelephonyManager.UssdResponseCallback() {
+            @Override
+            public void onReceiveUssdResponse(TelephonyManager tm, String request, CharSequence response) {
+                callback.onResponse(response);
+            }
+
+            @Override
+            public void onReceiveUssdResponseFailed(TelephonyManager tm, String request, int failureCode) {
+                callback.onFailure(failureCode);
+            }
+        }, callbackHandler);
+    }
+
+    @Override
+    public List<Sim> activeSims() {
+        List<Sim> sims = new ArrayList<>();
+        if (ContextCompat.checkSelfPermission(context, android.Manifest.permission.READ_PHONE_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "READ_PHONE_STATE not granted");
+            return sims;
+        }
+        SubscriptionManager sm = (SubscriptionManager) context.getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        List<SubscriptionInfo> infos = sm != null ? sm.getActiveSubscriptionInfoList() : null;
+        if (infos != null) {
+            for (SubscriptionInfo info : infos) {
+                sims.add(new Sim(info.getSubscriptionId(), info.getSimSlotIndex(), info.getDisplayName().toString()));
+            }
+        }
+        return sims;
+    }
+}
@@ -1,85 +1,235 @@
 package com.example.newton;
 
 import android.app.Notification;
-import io.flutter.plugin.common.MethodChannel;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
-import android.provider.Telephony;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.core.app.NotificationCompat;
 import io.flutter.embedding.engine.FlutterEngine;
-import io.flutter.embedding.engine.dart.DartExecutor;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.MethodChannel;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BackgroundService extends Service {
     private static final String TAG = "BackgroundService";
     private static final String CHANNEL_ID = "bingwa_sokoni_background";
     private static final String CHANNEL_NAME = "Bingwa Sokoni Background Service";
+    private static final String BACKGROUND_SERVICE_CHANNEL = "com.example.newton/background_service";
     private static final int NOTIFICATION_ID = 888;
-    private static final long TASK_INTERVAL = 2 * 60 * 1000; // 2 minutes
+    private static final long TASK_INTERVAL = 2 * 60 * 1000; // 2 minutes, safety sweep only
+    private static final long COALESCE_WINDOW_MS = 150; // SMS arriving this close together go in one batch
+    private static final long DRAIN_RETRY_MS = 5000; // while no Dart handler takes the batch
     
-    private Handler handler;
+    private final IBinder binder = new LocalBinder();
+    private final AtomicBoolean loopScheduled = new AtomicBoolean(false);
+    private long createdAt;
+    // Counters reported through getStatus()
+    private final AtomicLong startCommands = new AtomicLong();
+    private final AtomicLong smsStored = new AtomicLong();
+    private final AtomicLong drains = new AtomicLong();
+    private final AtomicLong messagesForwarded = new AtomicLong();
+    private final AtomicLong batchesUnhandled = new AtomicLong();
+    private final AtomicLong loopRuns = new AtomicLong();
+    private volatile long lastDrainAt;
+
+    /** Takes journaled messages pulled by a client; called on the main thread. */
+    public interface StoredMessagesSink {
+        void onStoredMessages(SmsJournal.Batch batch);
+    }
+
+    /** Handed to in-process clients; they call the service directly instead of sending start intents. */
+    public class LocalBinder extends Binder {
+        public BackgroundService getService() {
+            return BackgroundService.this;
+        }
+    }
+
+    private HandlerThread intakeThread;
+    private Handler intakeHandler;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainInbox = this::drainInbox;
+    // Intake worker only: one journal batch out at a time, and clients' pulls wait their turn
+    private boolean batchOutstanding;
+    private final ArrayDeque<StoredMessagesSink> pulls = new ArrayDeque<>();
     private Runnable backgroundTask;
     private FlutterEngine flutterEngine;
     private MethodChannel methodChannel;
-    private SmsBroadcastReceiver smsReceiver;
-    private List<String> successKeywords = new ArrayList<>();
-    private List<String> failureKeywords = new ArrayList<>();
+    private BasicMessageChannel<ByteBuffer> smsBatchChannel;
+    private final SmsIngestionHub.Subscriber journalSubscriber = this::onSmsReceived;
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Background service created");
+        createdAt = SystemClock.elapsedRealtime();
         
         createNotificationChannel();
+        startIntakeWorker();
         initializeFlutterEngine();
-        registerSmsReceiver();
+        subscribeToSms();
         setupBackgroundTask();
+        
+        // Replay anything journaled before the process was last killed
+        intakeHandler.post(drainInbox);
     }
 
-    private void registerSmsReceiver() {
-        smsReceiver = new SmsBroadcastReceiver();
-        smsReceiver.setBackgroundMode(true);
-        IntentFilter filter = new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-            registerReceiver(smsReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+    private void subscribeToSms() {
+        SmsIngestionHub.get(this).subscribe(journalSubscriber, SmsDedupe.SCOPE_JOURNAL, true);
+        // Payments reach the app database even when no Dart isolate is listening
+        TransactionLedger.get(this);
+        // And are bought for from here, dialed before the journal drain reaches Dart
+        NativePipeline.get(this).startAutoBuy();
+        Log.d(TAG, "Subscribed to SMS for background processing");
+    }
+
+    // Runs on the pipeline thread; journaled first so a process kill before the drain loses nothing
+    private void onSmsReceived(List<SmsIngestionHub.Message> messages) {
+        SmsJournal journal = SmsJournal.get(this);
+        for (SmsIngestionHub.Message message : messages) {
+            journal.append(message.sender, message.body, message.timestamp);
+        }
+        Log.d(TAG, "SMS stored for background processing");
+        onSmsStored();
+    }
+    
+    private void startIntakeWorker() {
+        intakeThread = new HandlerThread("SmsIntake", Process.THREAD_PRIORITY_BACKGROUND);
+        intakeThread.start();
+        intakeHandler = new Handler(intakeThread.getLooper());
+    }
+
+    // The first SMS of a burst opens a short coalescing window
+    private void onSmsStored() {
+        smsStored.incrementAndGet();
+        if (intakeHandler != null && drainScheduled.compareAndSet(false, true)) {
+            intakeHandler.postDelayed(drainInbox, COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Hands the journal backlog to {@code sink}, in turn with the service's own drains, and
+     * acknowledges it once the sink returns.
+     */
+    public void takeStoredMessages(StoredMessagesSink sink) {
+        intakeHandler.post(() -> {
+            if (batchOutstanding) {
+                pulls.add(sink);
+            } else {
+                servePull(sink);
+            }
+        });
+    }
+
+    // Runs on the intake worker
+    private void servePull(StoredMessagesSink sink) {
+        SmsJournal.Batch batch = SmsBroadcastReceiver.readStoredMessages(this);
+        batchOutstanding = true;
+        PipelineThread.toMain(() -> {
+            boolean handed = false;
+            try {
+                sink.onStoredMessages(batch);
+                handed = true;
+            } finally {
+                boolean acknowledge = handed;
+                intakeHandler.post(() -> finishBatch(batch, acknowledge));
+            }
+        });
+    }
+
+    // Runs on the intake worker; settles the outstanding batch and serves whoever waited for it
+    private void finishBatch(SmsJournal.Batch batch, boolean handled) {
+        SmsJournal journal = SmsJournal.get(this);
+        if (handled) {
+            SmsBroadcastReceiver.acknowledgeStoredMessages(this, batch);
         } else {
-            registerReceiver(smsReceiver, filter);
+            journal.rewind();
+        }
+        batchOutstanding = false;
+        StoredMessagesSink next = pulls.poll();
+        if (next != null) {
+            servePull(next);
+        } else if (handled && journal.hasUnread()) {
+            drainInbox();
         }
-        Log.d(TAG, "SMS receiver registered for background processing");
+    }
+
+    // Runs on the intake worker
+    private void drainInbox() {
+        drainScheduled.set(false);
+        // finishBatch drains again once the batch in flight is settled
+        if (batchOutstanding) return;
+        SmsJournal.Batch batch = SmsBroadcastReceiver.readStoredMessages(this);
+        if (batch.isEmpty()) return;
+        batchOutstanding = true;
+        drains.incrementAndGet();
+        lastDrainAt = System.currentTimeMillis();
+
+        ByteBuffer encoded = SmsBatchCodec.encode(batch.records);
+        Log.d(TAG, "Draining " + batch.records.size() + " journaled messages (" + encoded.position() + " bytes)");
+        // Channel calls must happen on the main thread
+        PipelineThread.toMain(() -> {
+            if (smsBatchChannel == null || methodChannel == null) {
+                // Keep them journaled until Flutter can take them
+                intakeHandler.post(() -> finishBatch(batch, false));
+                return;
+            }
+            long sentAt = SystemClock.elapsedRealtime();
+            smsBatchChannel.send(encoded, reply -> {
+                PipelineMetrics.get().recordMillis(PipelineMetrics.JOURNAL_DRAIN, SystemClock.elapsedRealtime() - sentAt);
+                if (reply == null) {
+                    // No Dart handler yet (the isolate may still be starting): keep the batch and try again
+                    batchesUnhandled.incrementAndGet();
+                    Log.w(TAG, "Journal batch not taken by Dart, retrying in " + DRAIN_RETRY_MS + " ms");
+                    intakeHandler.post(() -> {
+                        finishBatch(batch, false);
+                        if (drainScheduled.compareAndSet(false, true)) {
+                            intakeHandler.postDelayed(drainInbox, DRAIN_RETRY_MS);
+                        }
+                    });
+                    return;
+                }
+                messagesForwarded.addAndGet(batch.records.size());
+                intakeHandler.post(() -> finishBatch(batch, true));
+            });
+        });
     }
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "Background service started");
+        startCommands.incrementAndGet();
         
         // Handle keyword updates
         if (intent != null && intent.hasExtra("successKeywords")) {
-            successKeywords = intent.getStringArrayListExtra("successKeywords");
-            failureKeywords = intent.getStringArrayListExtra("failureKeywords");
-            Log.d(TAG, "Keywords updated: " + successKeywords + ", " + failureKeywords);
+            updateKeywords(intent.getStringArrayListExtra("successKeywords"),
+                    intent.getStringArrayListExtra("failureKeywords"));
         }
         
         // Start foreground service
         startForeground(NOTIFICATION_ID, createNotification("Service is active"));
         
-        // Start background task
-        if (handler != null && backgroundTask != null) {
-            handler.post(backgroundTask);
+        // One loop however many start commands arrive
+        if (intakeHandler != null && backgroundTask != null && loopScheduled.compareAndSet(false, true)) {
+            intakeHandler.post(backgroundTask);
         }
         
         return START_STICKY;
@@ -91,26 +241,56 @@ public class BackgroundService extends Service {
         Log.d(TAG, "Background service destroyed");
         
         // Clean up resources
-        if (handler != null && backgroundTask != null) {
-            handler.removeCallbacks(backgroundTask);
+        if (intakeHandler != null && backgroundTask != null) {
+            intakeHandler.removeCallbacks(backgroundTask);
+            loopScheduled.set(false);
         }
         
+        // The engine is shared with the UI and stays cached; only let go of our handler
         if (flutterEngine != null) {
-            flutterEngine.destroy();
+            SharedEngine.setServiceHandler(flutterEngine, BACKGROUND_SERVICE_CHANNEL, null);
         }
         
-        if (smsReceiver != null) {
-            try {
-                unregisterReceiver(smsReceiver);
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Receiver was not registered: " + e.getMessage());
-            }
+        SmsIngestionHub.get(this).unsubscribe(journalSubscriber);
+        NativePipeline.get(this).stopAutoBuy();
+        
+        if (intakeThread != null) {
+            intakeThread.quitSafely();
         }
     }
     
     @Override
     public IBinder onBind(Intent intent) {
-        return null; // We don't provide binding
+        return binder;
+    }
+
+    /** Persists and applies new reply keywords through the pipeline; a null list is kept as it is. */
+    public void updateKeywords(List<String> success, List<String> failure) {
+        NativePipeline pipeline = NativePipeline.get(this);
+        pipeline.updateKeywords(success, failure);
+        Log.d(TAG, "Keywords updated: " + pipeline.successKeywords() + ", " + pipeline.failureKeywords());
+    }
+
+    /** Health snapshot for the UI. */
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", true);
+        status.put("uptimeMs", SystemClock.elapsedRealtime() - createdAt);
+        status.put("engineReady", methodChannel != null);
+        status.put("startCommands", startCommands.get());
+        status.put("loopRuns", loopRuns.get());
+        status.put("smsStored", smsStored.get());
+        status.put("drains", drains.get());
+        status.put("messagesForwarded", messagesForwarded.get());
+        status.put("batchesUnhandled", batchesUnhandled.get());
+        status.put("lastDrainAt", lastDrainAt);
+        status.put("intake", SmsIngestionHub.get(this).metrics());
+        status.put("journalPending", SmsJournal.get(this).hasUnread());
+        NativePipeline pipeline = NativePipeline.get(this);
+        status.put("outboxPending", pipeline.outbox().pendingCount());
+        status.put("successKeywords", new ArrayList<>(pipeline.successKeywords()));
+        status.put("failureKeywords", new ArrayList<>(pipeline.failureKeywords()));
+        return status;
     }
     
     private void createNotificationChannel() {
@@ -154,19 +334,23 @@ public class BackgroundService extends Service {
     
     private void initializeFlutterEngine() {
         try {
-            flutterEngine = new FlutterEngine(this);
-            flutterEngine.getDartExecutor().executeDartEntrypoint(
-                DartExecutor.DartEntrypoint.createDefault()
-            );
+            // Shared with MainActivity; boots the lightweight background entrypoint if it is not running yet
+            flutterEngine = SharedEngine.obtain(this);
             
             // Initialize method channel
             methodChannel = new MethodChannel(
                 flutterEngine.getDartExecutor().getBinaryMessenger(),
-                "com.example.newton/background_service"
+                BACKGROUND_SERVICE_CHANNEL
             );
             
-            // Set up method call handler
-            methodChannel.setMethodCallHandler((call, result) -> {
+            smsBatchChannel = new BasicMessageChannel<>(
+                flutterEngine.getDartExecutor().getBinaryMessenger(),
+                "com.example.newton/sms_batch",
+                BinaryCodec.INSTANCE_DIRECT
+            );
+            
+            // Set up method call handler (MainActivity takes this channel over while it is attached)
+            SharedEngine.setServiceHandler(flutterEngine, BACKGROUND_SERVICE_CHANNEL, (call, result) -> {
                 switch (call.method) {
                     case "performBackgroundTask":
                         performBackgroundTask();
@@ -176,11 +360,28 @@ public class BackgroundService extends Service {
                         stopSelf();
                         result.success("Service stopped");
                         break;
+                    case "getServiceStatus":
+                        result.success(getStatus());
+                        break;
+                    case "getMetrics":
+                        result.success(PipelineMetrics.get().snapshot());
+                        break;
+                    case "getStats":
+                        result.success(BusinessStatsStore.get(BackgroundService.this).snapshot());
+                        break;
+                    case "getRateLimits":
+                        result.success(CarrierRateLimits.get(BackgroundService.this).snapshot());
+                        break;
+                    case "setRateLimits": {
+                        CarrierRateLimits limits = CarrierRateLimits.get(BackgroundService.this);
+                        limits.update((Map<String, Object>) call.arguments);
+                        result.success(limits.snapshot());
+                        break;
+                    }
                     case "updateKeywords":
                         Map<String, List<String>> keywords = call.argument("keywords");
                         if (keywords != null) {
-                            successKeywords = keywords.get("successKeywords");
-                            failureKeywords = keywords.get("failureKeywords");
+                            updateKeywords(keywords.get("successKeywords"), keywords.get("failureKeywords"));
                             result.success("Keywords updated");
                         } else {
                             result.error("INVALID_ARGUMENTS", "Missing keywords", null);
@@ -198,11 +399,12 @@ public class BackgroundService extends Service {
         }
     }
     
+    // The periodic loop shares the intake worker with the drain, off the main thread
     private void setupBackgroundTask() {
-        handler = new Handler(Looper.getMainLooper());
         backgroundTask = new Runnable() {
             @Override
             public void run() {
+                loopRuns.incrementAndGet();
                 try {
                     // Update notification
                     updateNotification("Running in background ...");
@@ -211,12 +413,12 @@ public class BackgroundService extends Service {
                     performBackgroundTask();
                     
                     // Schedule next execution
-                    handler.postDelayed(this, TASK_INTERVAL);
+                    intakeHandler.postDelayed(this, TASK_INTERVAL);
                     
                 } catch (Exception e) {
                     Log.e(TAG, "Background task error: " + e.getMessage());
                     // Continue running even if there's an error
-                    handler.postDelayed(this, TASK_INTERVAL);
+                    intakeHandler.postDelayed(this, TASK_INTERVAL);
                 }
             }
         };
@@ -233,10 +435,8 @@ public class BackgroundService extends Service {
         Log.d(TAG, "Performing background task");
         
         try {
-            // Check for new SMS in receiver
-            if (smsReceiver != null) {
-                smsReceiver.processStoredMessages(BackgroundService.this);
-            }
+            // Safety sweep for anything the event-driven drain missed; the channel calls this on main
+            intakeHandler.post(drainInbox);
             
             // Send status update
             sendStatusUpdate();
@@ -250,15 +450,13 @@ public class BackgroundService extends Service {
         Log.d(TAG, "Status update sent at: " + System.currentTimeMillis());
     }
     
-    public void handleSmsInBackground(String sender, String body, long timestamp) {
-        Log.d(TAG, "Processing SMS in background: " + sender + " - " + body);
+    public void handleSmsInBackground(Map<String, Object> message) {
+        Log.d(TAG, "Processing SMS in background: " + message.get("sender") + " - " + message.get("body"));
         
         try {
             if (methodChannel != null) {
-                Map<String, Object> smsData = new HashMap<>();
-                smsData.put("sender", sender);
-                smsData.put("body", body);
-                smsData.put("timestamp", timestamp);
+                // Carries sender, body, timestamp and, for payments, the natively parsed fields
+                Map<String, Object> smsData = new HashMap<>(message);
                 
                 methodChannel.invokeMethod("handleBackgroundSms", smsData);
             }
@@ -272,7 +470,15 @@ public class BackgroundService extends Service {
         Intent serviceIntent = new Intent(context, BackgroundService.class);
         serviceIntent.putStringArrayListExtra("successKeywords", new ArrayList<>(successKeywords));
         serviceIntent.putStringArrayListExtra("failureKeywords", new ArrayList<>(failureKeywords));
-        
+        startBackgroundService(context, serviceIntent);
+    }
+
+    /** Starts the service with the keywords {@link NativePipeline} already has. */
+    public static void startBackgroundService(Context context) {
+        startBackgroundService(context, new Intent(context, BackgroundService.class));
+    }
+
+    private static void startBackgroundService(Context context, Intent serviceIntent) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             context.startForegroundService(serviceIntent);
         } else {
@@ -0,0 +1,79 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Process-wide {@link BusinessStats}, memory-mapped so the dashboard totals survive restarts.
+ *
+ * Every classified USSD purchase is recorded as it happens; {@code getStats} returns a snapshot in
+ * constant time instead of Dart loading every transaction row. Days and hours are local time.
+ */
+public final class BusinessStatsStore {
+    private static final String TAG = "BusinessStatsStore";
+    private static final String FILE_NAME = "business_stats.bin";
+
+    private static BusinessStatsStore instance;
+
+    private final Context context;
+    private final BusinessStats stats;
+
+    public static synchronized BusinessStatsStore get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            File file = new File(app.getNoBackupFilesDir(), FILE_NAME);
+            ByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, BusinessStats.BUFFER_SIZE);
+            } catch (IOException e) {
+                // Still counts for this process, just not across restarts
+                Log.e(TAG, "Cannot map business stats, keeping them in memory: " + e.getMessage());
+                buffer = ByteBuffer.allocate(BusinessStats.BUFFER_SIZE);
+            }
+            instance = new BusinessStatsStore(app, new BusinessStats(buffer));
+        }
+        return instance;
+    }
+
+    private BusinessStatsStore(Context context, BusinessStats stats) {
+        this.context = context;
+        this.stats = stats;
+    }
+
+    /** Counts one purchase; {@code outcome} is one of the {@link BusinessStats} outcomes. */
+    public synchronized void record(int outcome, int subscriptionId, long amountCents) {
+        stats.record(outcome, subscriptionId, amountCents, localMillis(System.currentTimeMillis()));
+    }
+
+    /** Moves a purchase recorded at wall-clock {@code recordedAt} from one outcome to another. */
+    public synchronized void revise(int from, int to, int subscriptionId, long amountCents, long recordedAt) {
+        stats.revise(from, to, subscriptionId, amountCents, localMillis(recordedAt));
+    }
+
+    /** {@link BusinessStats#snapshot}, with each offer's plan name when the offer table knows its price. */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot;
+        synchronized (this) {
+            snapshot = stats.snapshot(localMillis(System.currentTimeMillis()));
+        }
+        OfferTable offers = OfferTable.get(context);
+        for (Map<String, Object> offer : (List<Map<String, Object>>) snapshot.get("offers")) {
+            OfferTable.Offer plan = offers.lookup((Long) offer.get("amountCents"));
+            offer.put("planName", plan != null ? plan.planName : null);
+        }
+        return snapshot;
+    }
+
+    private static long localMillis(long millis) {
+        return millis + TimeZone.getDefault().getOffset(millis);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-SIM pacing of USSD sessions and SMS parts, so a burst of payments does not trip the
+ * carrier's throttling.
+ *
+ * One {@link RateLimiter} for USSD and one for SMS, both keyed by subscription id. Dispatchers ask
+ * how long to hold each request and post it after that delay, so work queues rather than fails.
+ * Limits are set from Flutter ({@code setRateLimits}) and kept in private preferences for a
+ * cold-started service; a rate of 0 turns that limiter off.
+ */
+public final class CarrierRateLimits implements CarrierPacer {
+    private static final String TAG = "CarrierRateLimits";
+    private static final String PREFS_NAME = "native_rate_limits";
+    private static final String USSD_PER_MINUTE = "ussdPerMinute";
+    private static final String USSD_BURST = "ussdBurst";
+    private static final String SMS_PER_MINUTE = "smsPerMinute";
+    private static final String SMS_BURST = "smsBurst";
+
+    // A session takes 2-4 s, so this only bites on sustained bursts
+    private static final float DEFAULT_USSD_PER_MINUTE = 10;
+    private static final int DEFAULT_USSD_BURST = 3;
+    private static final float DEFAULT_SMS_PER_MINUTE = 20;
+    private static final int DEFAULT_SMS_BURST = 5;
+
+    private static CarrierRateLimits instance;
+
+    private final SharedPreferences prefs;
+    private final RateLimiter ussd;
+    private final RateLimiter sms;
+
+    public static synchronized CarrierRateLimits get(Context context) {
+        if (instance == null) {
+            instance = new CarrierRateLimits(context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    private CarrierRateLimits(SharedPreferences prefs) {
+        this.prefs = prefs;
+        this.ussd = new RateLimiter(prefs.getFloat(USSD_PER_MINUTE, DEFAULT_USSD_PER_MINUTE),
+                prefs.getInt(USSD_BURST, DEFAULT_USSD_BURST));
+        this.sms = new RateLimiter(prefs.getFloat(SMS_PER_MINUTE, DEFAULT_SMS_PER_MINUTE),
+                prefs.getInt(SMS_BURST, DEFAULT_SMS_BURST));
+    }
+
+    @Override
+    public long reserveUssd(int subscriptionId) {
+        return CarrierPacer.toMillis(ussd.reserve(subscriptionId, 1, SystemClock.elapsedRealtimeNanos()));
+    }
+
+    @Override
+    public long reserveSms(int subscriptionId, int parts) {
+        return CarrierPacer.toMillis(sms.reserve(subscriptionId, parts, SystemClock.elapsedRealtimeNanos()));
+    }
+
+    @Override
+    public void onUssdRejected(int subscriptionId) {
+        ussd.backOff(subscriptionId, SystemClock.elapsedRealtimeNanos());
+    }
+
+    @Override
+    public void onSmsRejected(int subscriptionId) {
+        sms.backOff(subscriptionId, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Applies and persists the limits in {@code config}: {@code ussdPerMinute}, {@code ussdBurst},
+     * {@code smsPerMinute} and {@code smsBurst}; missing keys keep their current value.
+     */
+    public void update(Map<String, Object> config) {
+        if (config == null) config = Collections.emptyMap();
+        float ussdPerMinute = floatOf(config.get(USSD_PER_MINUTE), (float) ussd.perMinute());
+        int ussdBurst = intOf(config.get(USSD_BURST), ussd.burst());
+        float smsPerMinute = floatOf(config.get(SMS_PER_MINUTE), (float) sms.perMinute());
+        int smsBurst = intOf(config.get(SMS_BURST), sms.burst());
+        ussd.configure(ussdPerMinute, ussdBurst);
+        sms.configure(smsPerMinute, smsBurst);
+        prefs.edit()
+                .putFloat(USSD_PER_MINUTE, ussdPerMinute)
+                .putInt(USSD_BURST, ussdBurst)
+                .putFloat(SMS_PER_MINUTE, smsPerMinute)
+                .putInt(SMS_BURST, smsBurst)
+                .apply();
+        Log.d(TAG, "Rate limits: USSD " + ussdPerMinute + "/min burst " + ussdBurst
+                + ", SMS " + smsPerMinute + "/min burst " + smsBurst);
+    }
+
+    /** Limits per channel, with each SIM's current allowance, queued permits and wait. */
+    public Map<String, Object> snapshot() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("ussd", snapshot(ussd, now));
+        snapshot.put("sms", snapshot(sms, now));
+        return snapshot;
+    }
+
+    private static Map<String, Object> snapshot(RateLimiter limiter, long now) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("perMinute", limiter.perMinute());
+        map.put("burst", limiter.burst());
+        map.put("sims", limiter.snapshot(now));
+        return map;
+    }
+
+    private static float floatOf(Object value, float fallback) {
+        return value instanceof Number ? ((Number) value).floatValue() : fallback;
+    }
+
+    private static int intOf(Object value, int fallback) {
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+}
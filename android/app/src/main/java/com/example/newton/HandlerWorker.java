@@ -0,0 +1,43 @@
+package com.example.newton;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/** {@link Worker} over a {@link Handler}, so the core pipeline classes run on the app's looper threads. */
+public final class HandlerWorker implements Worker {
+    private final Handler handler;
+
+    public HandlerWorker(Handler handler) {
+        this.handler = handler;
+    }
+
+    public Handler handler() {
+        return handler;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void remove(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return handler.getLooper() == Looper.myLooper();
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
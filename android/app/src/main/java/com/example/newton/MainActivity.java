@@ -1,24 +1,14 @@
 package com.example.newton;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
-import android.content.pm.PackageManager;
+import android.content.ServiceConnection;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
-import android.preference.PreferenceManager;
-import android.provider.Telephony;
-import android.telephony.SmsManager;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
+import android.os.IBinder;
 import android.util.Log;
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -40,12 +30,6 @@ public class MainActivity extends FlutterActivity {
     private static final String BACKGROUND_SERVICE_CHANNEL = "com.example.newton/background_service";
 
 
-    // Default template messages
-    private static final String DEFAULT_SUCCESS_TEMPLATE = "Thank you [first_name] for choosing and entrusting Nexora Bingwa Sokoni and purchasing [offer] for [amount]. Have a nice time.";
-    private static final String DEFAULT_FAILURE_TEMPLATE = "Dear [first_name], there was a delay while processing your purchase of [offer] for [amount]. Please wait a little bit for it to be loaded.";
-    private static final String DEFAULT_NO_OFFER_TEMPLATE = "Sorry [first_name], the amount [amount] sent does not match any of our offers.\nWhatsapp 0115332870 to get list of our offers.";
-    private static final String DEFAULT_ALREADY_TEMPLATE = "Hey [first_name], Your number [phone] has already been recommended bingwa bundles today\nReply with\n1. Recommend tomorrow\n2. Recommend to this \"number\" (new)";
-
     // Method channels
     private MethodChannel ussdMethodChannel;
     private MethodChannel simMethodChannel;
@@ -57,26 +41,67 @@ public class MainActivity extends FlutterActivity {
     private EventChannel smsEventChannel;
     private SmsStreamHandler smsStreamHandler;
     
-    // Broadcast receiver for in-app SMS handling
-    private SmsBroadcastReceiver smsBroadcastReceiver;
+    // In-app SMS delivery over the sms_sender channel
+    private final SmsIngestionHub.Subscriber smsChannelSubscriber = this::forwardSmsToChannel;
     
     // Keyword lists for USSD response checking
-    private List<String> successKeywords = new ArrayList<>();
-    private List<String> failureKeywords = new ArrayList<>();
-    private SharedPreferences sharedPreferences;
+    // USSD purchases and confirmation SMS, shared with the background service
+    private NativePipeline pipeline;
+    private TransactionLedger ledger;
+    private BusinessStatsStore businessStats;
+    private CarrierRateLimits rateLimits;
+    private SimDirectory simDirectory;
     
-    // Current transaction being processed
-    private Map<String, Object> _currentAutoBuyMpesaTransaction = null;
+    // Set while bound to a running BackgroundService
+    private BackgroundService backgroundService;
+    private boolean serviceBound;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            backgroundService = ((BackgroundService.LocalBinder) binder).getService();
+            Log.d(TAG, "Bound to background service");
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            backgroundService = null;
+        }
+    };
+
+    @Override
+    public FlutterEngine provideFlutterEngine(@NonNull Context context) {
+        // Same engine the background service runs; it outlives this activity
+        return SharedEngine.obtain(context);
+    }
+
+    @Override
+    public boolean shouldDestroyEngineWithHost() {
+        return false;
+    }
 
     @Override
     public void configureFlutterEngine(@NonNull FlutterEngine flutterEngine) {
         super.configureFlutterEngine(flutterEngine);
+        SharedEngine.attachUi(flutterEngine);
 
-        // Initialize SharedPreferences
-        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        
-        // Start background service
-        startSmsBackgroundService();
+        // Outbound SMS are sent off the UI thread; status comes back as onSmsStatus. The pipeline keeps
+        // the keywords it last persisted until Flutter sends its own
+        pipeline = NativePipeline.get(this);
+        // Records incoming payments and USSD outcomes straight to the app database
+        ledger = TransactionLedger.get(this);
+        businessStats = BusinessStatsStore.get(this);
+        rateLimits = CarrierRateLimits.get(this);
+        ledger.setCommitListener(rows -> {
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("rows", rows);
+            invokeUssdChannel("onLedgerCommitted", arguments);
+        });
+        simDirectory = AndroidTelephony.get(this);
+        pipeline.outbox().setStatusListener((sms, status, resultCode) -> PipelineThread.toMain(() -> {
+            if (smsSenderMethodChannel != null) {
+                smsSenderMethodChannel.invokeMethod("onSmsStatus", sms.toMap(status, resultCode));
+            }
+        }));
         
         // SMS Event Channel for real-time SMS in app
         smsEventChannel = new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), SMS_EVENT_CHANNEL);
@@ -85,15 +110,34 @@ public class MainActivity extends FlutterActivity {
         
         // USSD Method Channel
         ussdMethodChannel = new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), USSD_CHANNEL);
+        pipeline.setUssdChannel(ussdMethodChannel);
         ussdMethodChannel.setMethodCallHandler((call, result) -> {
             if (call.method.equals("triggerUssd")) {
                 String ussdCode = call.argument("ussdCode");
                 Integer simSubscriptionId = call.argument("simSubscriptionId");
                 Map<String, Object> transaction = call.argument("transaction");
+                if (simSubscriptionId == null && Boolean.TRUE.equals(call.argument("anySim"))) {
+                    simSubscriptionId = SimScheduler.ANY_SIM;
+                }
+                if (ussdCode == null && transaction != null) {
+                    // No code given: build it from the native offer table
+                    OfferTable.Offer offer = OfferTable.get(this).lookup(NativePipeline.amountCentsOf(transaction));
+                    if (offer == null || !offer.isValid()) {
+                        result.error("NO_OFFER", "No offer matches the payment amount", null);
+                        return;
+                    }
+                    ussdCode = offer.buildUssdCode((String) transaction.get("extractedPhoneNumber"));
+                    if (!transaction.containsKey("purchasedOffer")) {
+                        transaction = new HashMap<>(transaction);
+                        transaction.put("purchasedOffer", offer.planName);
+                    }
+                }
+                
+                // Opt-in: a session the carrier fails outright is tried once more on another SIM
+                int retries = Boolean.TRUE.equals(call.argument("retryOnFailure")) ? 1 : 0;
                 
                 if (ussdCode != null && simSubscriptionId != null) {
-                    _currentAutoBuyMpesaTransaction = transaction;
-                    triggerUssdCode(ussdCode, simSubscriptionId, result);
+                    triggerUssdCode(ussdCode, simSubscriptionId, transaction, retries, result);
                 } else {
                     result.error("INVALID_ARGUMENTS", "USSD code or SIM ID is missing", null);
                 }
@@ -107,6 +151,12 @@ public class MainActivity extends FlutterActivity {
         simMethodChannel.setMethodCallHandler((call, result) -> {
             if (call.method.equals("getSimCards")) {
                 result.success(getAvailableSimCards());
+            } else if (call.method.equals("getSimStats")) {
+                List<Map<String, Object>> simStats = new ArrayList<>();
+                for (int subscriptionId : getActiveSubscriptionIds()) {
+                    simStats.add(pipeline.purchases().simSnapshot(subscriptionId));
+                }
+                result.success(simStats);
             } else {
                 result.notImplemented();
             }
@@ -118,31 +168,49 @@ public class MainActivity extends FlutterActivity {
             if (call.method.equals("sendSms")) {
                 String recipientAddress = call.argument("recipientAddress");
                 String messageBody = call.argument("messageBody");
+                Integer simSubscriptionId = call.argument("simSubscriptionId");
                 if (recipientAddress != null && messageBody != null) {
-                    sendSms(recipientAddress, messageBody);
+                    sendSms(recipientAddress, messageBody,
+                            simSubscriptionId != null ? simSubscriptionId : SimScheduler.ANY_SIM, null);
                     result.success(true);
                 } else {
                     result.error("INVALID_ARGUMENTS", "Recipient address or message body is null", null);
                 }
+            } else if (call.method.equals("getTemplateInfo")) {
+                // Size of a rendered template, so the UI can warn when it spans several SMS
+                String template = call.argument("template");
+                String type = call.argument("type");
+                Map<String, Object> transaction = call.argument("transaction");
+                SmsTemplate compiled = template != null ? SmsTemplate.compile(template)
+                        : pipeline.templates().template(type != null ? type : "USSD_SUCCESS");
+                SmsTemplate.Rendered rendered = compiled.render(transaction);
+                Map<String, Object> info = new HashMap<>();
+                info.put("text", rendered.text);
+                info.put("length", rendered.encodedLength);
+                info.put("smsParts", rendered.smsParts);
+                info.put("segmentCount", rendered.templateSegments);
+                info.put("unicode", rendered.unicode);
+                result.success(info);
+            } else if (call.method.equals("setSmsCoalescing")) {
+                // Confirmations to one customer within windowMs go out as one SMS, held at most maxDelayMs
+                Number windowMs = call.argument("windowMs");
+                Number maxDelayMs = call.argument("maxDelayMs");
+                long window = windowMs != null ? windowMs.longValue() : 0;
+                long maxDelay = maxDelayMs != null ? maxDelayMs.longValue() : PurchasePipeline.DEFAULT_COALESCE_MAX_DELAY_MS;
+                pipeline.setCoalescing(window, maxDelay);
+                result.success(true);
             } else if (call.method.equals("getStoredMessages")) {
-                List<Map<String, Object>> storedMessages = SmsBroadcastReceiver.getStoredMessages(this);
-                result.success(storedMessages);
-                SmsBroadcastReceiver.clearStoredMessages(this);
+                takeStoredMessages(batch -> result.success(SmsBroadcastReceiver.toMessages(batch)));
             } else {
                 result.notImplemented();
             }
         });
-        
+
         // Service Control Method Channel
         serviceControlMethodChannel = new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), SERVICE_CONTROL_CHANNEL);
         serviceControlMethodChannel.setMethodCallHandler((call, result) -> {
             if (call.method.equals("updateKeywords")) {
-                Map<String, List<String>> keywords = (Map<String, List<String>>) call.arguments;
-                successKeywords = keywords.get("successKeywords");
-                failureKeywords = keywords.get("failureKeywords");
-                
-                // Update the background service with new keywords
-                updateServiceKeywords();
+                applyKeywords((Map<String, List<String>>) call.arguments);
                 result.success(true);
             } else if (call.method.equals("startService")) {
                 startSmsBackgroundService();
@@ -150,6 +218,15 @@ public class MainActivity extends FlutterActivity {
             } else if (call.method.equals("stopService")) {
                 stopSmsBackgroundService();
                 result.success("Background service stopped");
+            } else if (call.method.equals("getServiceStatus")) {
+                result.success(getSmsBackgroundServiceStatus());
+            } else if (call.method.equals("updateOffers")) {
+                List<Map<String, Object>> plans = call.argument("plans");
+                if (plans != null) {
+                    result.success(OfferTable.update(this, plans).size());
+                } else {
+                    result.error("INVALID_ARGUMENTS", "Missing plans", null);
+                }
             } else {
                 result.notImplemented();
             }
@@ -173,6 +250,27 @@ public class MainActivity extends FlutterActivity {
                     boolean isRunning = isSmsBackgroundServiceRunning();
                     result.success(isRunning);
                     break;
+
+                case "getServiceStatus":
+                    result.success(getSmsBackgroundServiceStatus());
+                    break;
+
+                case "getMetrics":
+                    result.success(PipelineMetrics.get().snapshot());
+                    break;
+
+                case "getStats":
+                    result.success(businessStats.snapshot());
+                    break;
+
+                case "getRateLimits":
+                    result.success(rateLimits.snapshot());
+                    break;
+
+                case "setRateLimits":
+                    rateLimits.update((Map<String, Object>) call.arguments);
+                    result.success(rateLimits.snapshot());
+                    break;
                     
                 case "handleBackgroundSms":
                     // Handle background SMS processing from service
@@ -186,16 +284,13 @@ public class MainActivity extends FlutterActivity {
                     Map<String, Object> status = new HashMap<>();
                     status.put("isActive", true);
                     status.put("timestamp", System.currentTimeMillis());
-                    status.put("successKeywords", successKeywords);
-                    status.put("failureKeywords", failureKeywords);
+                    status.put("successKeywords", pipeline.successKeywords());
+                    status.put("failureKeywords", pipeline.failureKeywords());
                     result.success(status);
                     break;
                     
                 case "updateKeywords":
-                    Map<String, List<String>> keywordUpdate = (Map<String, List<String>>) call.arguments;
-                    successKeywords = keywordUpdate.get("successKeywords");
-                    failureKeywords = keywordUpdate.get("failureKeywords");
-                    updateServiceKeywords();
+                    applyKeywords((Map<String, List<String>>) call.arguments);
                     result.success("Keywords updated");
                     break;
                     
@@ -205,15 +300,20 @@ public class MainActivity extends FlutterActivity {
             }
         });
         
-        // Register the SMS BroadcastReceiver for in-app use (different from background service)
-        smsBroadcastReceiver = new SmsBroadcastReceiver();
-        smsBroadcastReceiver.setMethodChannel(smsSenderMethodChannel);
-        IntentFilter filter = new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-            registerReceiver(smsBroadcastReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-        } else {
-            registerReceiver(smsBroadcastReceiver, filter);
+        // In-app SMS delivery (the background service journals the same messages separately)
+        SmsIngestionHub.get(this).subscribe(smsChannelSubscriber, SmsDedupe.SCOPE_CHANNEL, true);
+    }
+
+    // Pipeline thread; only the channel call goes to the main thread
+    private void forwardSmsToChannel(List<SmsIngestionHub.Message> messages) {
+        if (smsSenderMethodChannel == null) return;
+        List<Map<String, Object>> maps = new ArrayList<>(messages.size());
+        for (SmsIngestionHub.Message message : messages) {
+            maps.add(message.toMap());
         }
+        PipelineThread.toMain(() -> {
+            if (smsSenderMethodChannel != null) smsSenderMethodChannel.invokeMethod("onNewSms", maps);
+        });
     }
 
     @Override
@@ -224,63 +324,54 @@ public class MainActivity extends FlutterActivity {
         startSmsBackgroundService();
     }
 
-    /**
-     * Formats a name to have proper capitalization (first letter uppercase, rest lowercase)
-     */
-    private String formatName(String name) {
-        if (name == null || name.isEmpty()) {
-            return name;
-        }
-        
-        String[] words = name.trim().split("\\s+");
-        StringBuilder formatted = new StringBuilder();
-        
-        for (int i = 0; i < words.length; i++) {
-            String word = words[i];
-            if (!word.isEmpty()) {
-                // Capitalize first character, lowercase the rest
-                String formattedWord = word.substring(0, 1).toUpperCase() + 
-                                     word.substring(1).toLowerCase();
-                formatted.append(formattedWord);
-                
-                // Add space between words (except for the last word)
-                if (i < words.length - 1) {
-                    formatted.append(" ");
-                }
-            }
+    // Background Service Management Methods
+    private void startSmsBackgroundService() {
+        // Keywords live in NativePipeline, which the service shares, so there is nothing to hand over
+        if (backgroundService != null) return;
+        BackgroundService.startBackgroundService(this);
+        bindSmsBackgroundService();
+    }
+
+    // Flags 0: attach to the started service without keeping it alive on our own
+    private void bindSmsBackgroundService() {
+        if (!serviceBound) {
+            serviceBound = bindService(new Intent(this, BackgroundService.class), serviceConnection, 0);
         }
-        
-        return formatted.toString();
     }
 
-    // Background Service Management Methods
-    private void startSmsBackgroundService() {
-        BackgroundService.startBackgroundService(this, successKeywords, failureKeywords);
+    private void unbindSmsBackgroundService() {
+        if (serviceBound) {
+            unbindService(serviceConnection);
+            serviceBound = false;
+            backgroundService = null;
+        }
     }
 
     private void stopSmsBackgroundService() {
+        unbindSmsBackgroundService();
         BackgroundService.stopBackgroundService(this);
     }
 
     private boolean isSmsBackgroundServiceRunning() {
-        // Check if service is running - you can implement this check if needed
-        return true; // Placeholder
+        return backgroundService != null;
     }
 
-    private void updateServiceKeywords() {
-        // Send keywords update to background service
-        Intent updateIntent = new Intent(this, BackgroundService.class);
-        updateIntent.setAction("UPDATE_KEYWORDS");
-        updateIntent.putStringArrayListExtra("successKeywords", new ArrayList<>(successKeywords));
-        updateIntent.putStringArrayListExtra("failureKeywords", new ArrayList<>(failureKeywords));
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(updateIntent);
+    private Map<String, Object> getSmsBackgroundServiceStatus() {
+        BackgroundService service = backgroundService;
+        if (service != null) return service.getStatus();
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", false);
+        return status;
+    }
+
+    // The service is the journal's only reader; while it is not bound the backlog waits for its next drain
+    private void takeStoredMessages(BackgroundService.StoredMessagesSink sink) {
+        BackgroundService service = backgroundService;
+        if (service != null) {
+            service.takeStoredMessages(sink);
         } else {
-            startService(updateIntent);
+            sink.onStoredMessages(SmsJournal.Batch.EMPTY);
         }
-        
-        Log.d(TAG, "Keywords updated in background service");
     }
 
     private void handleBackgroundSmsFromService(Map<String, Object> smsData) {
@@ -302,242 +393,65 @@ public class MainActivity extends FlutterActivity {
         }
     }
 
-    private void triggerUssdCode(String ussdCode, Integer simSubscriptionId, MethodChannel.Result result) {
+    private void triggerUssdCode(String ussdCode, Integer simSubscriptionId, Map<String, Object> transaction, int retries, MethodChannel.Result result) {
         Log.d(TAG, "Triggering USSD: " + ussdCode + ", SIM ID: " + simSubscriptionId);
-        if (ContextCompat.checkSelfPermission(this, android.Manifest.permission.CALL_PHONE) != PackageManager.PERMISSION_GRANTED) {
-            result.error("PERMISSION_DENIED", "CALL_PHONE permission required", null);
-            return;
-        }
-        
-        TelephonyManager baseManager = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        TelephonyManager simTelephonyManager = baseManager.createForSubscriptionId(simSubscriptionId);
-        if (simTelephonyManager == null) {
-            result.error("TELEPHONY_MANAGER_NULL", "No TelephonyManager for SIM ID", null);
-            return;
-        }
-        
-        sendUssdRequestAtOnce(simTelephonyManager, ussdCode, result);
-    }
-
-   // Updated sendUssdRequestAtOnce method in MainActivity.java
-private void sendUssdRequestAtOnce(TelephonyManager tm, String ussdCode, MethodChannel.Result result) {
-    tm.sendUssdRequest(
-        ussdCode,
-        new TelephonyManager.UssdResponseCallback() {
-            @Override
-            public void onReceiveUssdResponse(TelephonyManager tm, String request, CharSequence response) {
-                new Handler(Looper.getMainLooper()).post(() -> {
-                    String responseStr = response.toString().toLowerCase();
-                    boolean isSuccess = checkKeywords(responseStr, successKeywords);
-                    boolean isFailure = checkKeywords(responseStr, failureKeywords);
-                    boolean isAlready = responseStr.contains("already");
-                    
-                    // Log keywords for debugging
-                    Log.d(TAG, "Success keywords: " + successKeywords);
-                    Log.d(TAG, "Failure keywords: " + failureKeywords);
-                    Log.d(TAG, "Response: " + responseStr);
-                    Log.d(TAG, "isSuccess: " + isSuccess + ", isFailure: " + isFailure);
-                    
-                    // Send SMS based on USSD result
-                    if (isAlready) {
-                        sendDirectSms("USSD_ALREADY", responseStr);
-                    }
-                    else if (isSuccess) {
-                        sendDirectSms("USSD_SUCCESS", responseStr);
-                    } else if (isFailure) {
-                        sendDirectSms("USSD_FAILURE", responseStr);
-                    }
-                    
-                    // Prepare response for Flutter
-                    Map<String, Object> responseMap = new HashMap<>();
-                    responseMap.put("response", responseStr);
-                    responseMap.put("isSuccess", isSuccess);
-                    responseMap.put("isFailure", isFailure);
-                    responseMap.put("isAlready", isAlready);
-                    
-                    // Send response back to Flutter - this triggers token deduction
-                    ussdMethodChannel.invokeMethod("onUssdResponse", responseMap);
-                    
-                    // Clear current transaction
-                    _currentAutoBuyMpesaTransaction = null;
-                });
-            }
-            
-            @Override
-            public void onReceiveUssdResponseFailed(TelephonyManager tm, String request, int failureCode) {
-                new Handler(Looper.getMainLooper()).post(() -> {
-                    String error = "USSD failed (code " + failureCode + ")";
-                    Log.e(TAG, error);
-                    
-                    // Send failure SMS if we have transaction details
-                    sendDirectSms("USSD_ERROR", error);
-                    
-                    // Prepare error response for Flutter
-                    Map<String, Object> errorMap = new HashMap<>();
-                    errorMap.put("error", error);
-                    errorMap.put("isFailure", true);
-                    errorMap.put("response", error);
-                    
-                    // Send error back to Flutter - no token deduction
-                    ussdMethodChannel.invokeMethod("onUssdError", errorMap);
-                    
-                    // Clear current transaction
-                    _currentAutoBuyMpesaTransaction = null;
-                });
-            }
-        },
-        new Handler(Looper.getMainLooper())
-    );
-    result.success("USSD sent in background");
-}
-
-// Enhanced sendDirectSms method with better logging
-private void sendDirectSms(String type, String ussdResponse) {
-    try {
-        // Get phone number from current transaction
-        String phoneNumber = null;
-        if (_currentAutoBuyMpesaTransaction != null) {
-            phoneNumber = (String) _currentAutoBuyMpesaTransaction.get("extractedPhoneNumber");
-        }
-        
-        if (phoneNumber == null || phoneNumber.isEmpty()) {
-            Log.w(TAG, "No phone number available for direct SMS");
-            return;
-        }
-        
-        String message = getTemplateMessage(type);
-        message = replacePlaceholders(message, _currentAutoBuyMpesaTransaction);
-        
-        // Send SMS
-        sendSms(phoneNumber, message);
-        Log.i(TAG, "Direct SMS sent to " + phoneNumber + " (Type: " + type + "): " + message);
-        
-        // Log transaction completion
-        if ("USSD_SUCCESS".equals(type)) {
-            Log.i(TAG, "✅ USSD SUCCESS - SMS sent, Flutter will deduct token");
-        } else if ("USSD_FAILURE".equals(type) || "USSD_ERROR".equals(type)) {
-            Log.i(TAG, "❌ USSD FAILED - SMS sent, no token deduction");
-        }
-        
-    } catch (Exception e) {
-        Log.e(TAG, "Failed to send direct SMS: " + e.getMessage());
-    }
-}
-
-     // Updated method to load templates from SharedPreferences
-    private String getTemplateMessage(String type) {
-        String message;
-        switch (type) {
-            case "USSD_SUCCESS":
-                message = sharedPreferences.getString("sms_success", DEFAULT_SUCCESS_TEMPLATE);
+        switch (pipeline.purchases().purchase(ussdCode, simSubscriptionId, transaction, retries)) {
+            case PurchasePipeline.QUEUED:
+                result.success("USSD sent in background");
+                break;
+            case PurchasePipeline.ALREADY_SERVED:
+                result.success("Number already served today");
                 break;
-            case "USSD_FAILURE":
-            case "USSD_ERROR":
-                message = sharedPreferences.getString("sms_failure", DEFAULT_FAILURE_TEMPLATE);
+            case PurchasePipeline.DUPLICATE:
+                result.error("DUPLICATE_TRANSACTION", "USSD already dialed for this payment", null);
                 break;
-            case "USSD_ALREADY":
-                message = sharedPreferences.getString("sms_already", DEFAULT_ALREADY_TEMPLATE);
+            case PurchasePipeline.NO_ACTIVE_SIM:
+                result.error("NO_ACTIVE_SIM", "No active SIM available for USSD", null);
                 break;
-            case "NO_OFFER":
-                message = sharedPreferences.getString("sms_no_offer", DEFAULT_NO_OFFER_TEMPLATE);
-                break;    
             default:
-                message = "USSD operation completed: Unknown type";
+                result.error("PERMISSION_DENIED", "CALL_PHONE permission required", null);
+                break;
         }
-        return message;
     }
-    
-    private String replacePlaceholders(String message, Map<String, Object> transaction) {
-        // Name splitting logic with proper formatting
-        String name = (String) transaction.get("extractedName");
-        if (name != null) {
-            // Format the full name first
-            String formattedName = formatName(name);
-            String[] nameParts = formattedName.trim().split("\\s+");
-            
-            String firstName = nameParts.length > 0 ? nameParts[0] : "";
-            String lastName = nameParts.length > 1 ? nameParts[nameParts.length - 1] : "";
-            String secondName = nameParts.length > 2 ? nameParts[1] : "";
-
-            message = message.replace("[first_name]", firstName);
-            message = message.replace("[second_name]", secondName);
-            message = message.replace("[last_name]", lastName);
-            message = message.replace("[name]", formattedName);
-        }
-        
-        // Amount
-        if (message.contains("[amount]")) {
-            Object amountObj = transaction.get("extractedAmount");
-            if (amountObj != null) {
-                String amount = amountObj.toString();
-                if (amountObj instanceof Double) {
-                    amount = String.format("Ksh %.2f", (Double) amountObj);
-                }
-                message = message.replace("[amount]", amount);
-            }
-        }
-        
-        // Phone
-        if (message.contains("[phone]")) {
-            String phone = (String) transaction.get("extractedPhoneNumber");
-            if (phone != null) {
-                message = message.replace("[phone]", phone);
-            }
-        }
-        
-        // Offer (plan name)
-        if (message.contains("[offer]")) {
-            String offer = (String) transaction.get("purchasedOffer");
-            if (offer != null) {
-                message = message.replace("[offer]", offer);
-            }
-        }
-        
-        return message;
+
+    // Channel calls have to run on the main thread
+    private void invokeUssdChannel(String method, Map<String, Object> arguments) {
+        PipelineThread.toMain(() -> {
+            if (ussdMethodChannel != null) ussdMethodChannel.invokeMethod(method, arguments);
+        });
     }
 
-    private void sendSms(String recipient, String message) {
-        try {
-            SmsManager smsManager = SmsManager.getDefault();
-            smsManager.sendTextMessage(recipient, null, message, null, null);
-            Log.d(TAG, "SMS sent to " + recipient + ": " + message);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to send SMS: " + e.getMessage());
-        }
+    private void sendSms(String recipient, String message, int subscriptionId, Map<String, Object> transaction) {
+        SmsOutbox.OutboundSms sms = pipeline.outbox().enqueue(recipient, message, subscriptionId, transaction);
+        Log.d(TAG, "SMS " + sms.id + " queued to " + recipient + ": " + message);
     }
 
     private List<Map<String, Object>> getAvailableSimCards() {
         List<Map<String, Object>> simList = new ArrayList<>();
-        if (ContextCompat.checkSelfPermission(this, android.Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED) {
-            SubscriptionManager sm = (SubscriptionManager) getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-            if (sm != null) {
-                List<SubscriptionInfo> infos = sm.getActiveSubscriptionInfoList();
-                if (infos != null) {
-                    for (SubscriptionInfo info : infos) {
-                        Map<String, Object> sim = new HashMap<>();
-                        sim.put("subscriptionId", info.getSubscriptionId());
-                        sim.put("displayName", info.getDisplayName().toString());
-                        sim.put("simSlotIndex", info.getSimSlotIndex());
-                        simList.add(sim);
-                    }
-                }
-            }
-        } else {
-            Log.w(TAG, "READ_PHONE_STATE not granted");
+        for (SimDirectory.Sim info : simDirectory.activeSims()) {
+            Map<String, Object> sim = new HashMap<>();
+            sim.put("subscriptionId", info.subscriptionId);
+            sim.put("displayName", info.displayName);
+            sim.put("simSlotIndex", info.slotIndex);
+            simList.add(sim);
         }
         return simList;
     }
 
-    private boolean checkKeywords(String response, List<String> keywords) {
-        if (response == null || keywords == null) return false;
-        response = response.toLowerCase();
-        for (String keyword : keywords) {
-            if (keyword != null && !keyword.isEmpty() && 
-                response.contains(keyword.toLowerCase())) {
-                return true;
-            }
+    private int[] getActiveSubscriptionIds() {
+        List<SimDirectory.Sim> sims = simDirectory.activeSims();
+        int[] ids = new int[sims.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sims.get(i).subscriptionId;
         }
-        return false;
+        return ids;
+    }
+
+    // Persisted and applied once for this activity and the service, which then only needs to be running
+    private void applyKeywords(Map<String, List<String>> keywords) {
+        pipeline.setKeywords(keywords.get("successKeywords"), keywords.get("failureKeywords"),
+                keywords.get("alreadyKeywords"));
+        startSmsBackgroundService();
     }
 
     @Override
@@ -547,23 +461,25 @@ private void sendDirectSms(String type, String ussdResponse) {
         if (simMethodChannel != null) simMethodChannel.setMethodCallHandler(null);
         if (smsSenderMethodChannel != null) smsSenderMethodChannel.setMethodCallHandler(null);
         if (serviceControlMethodChannel != null) serviceControlMethodChannel.setMethodCallHandler(null);
-        if (backgroundServiceMethodChannel != null) backgroundServiceMethodChannel.setMethodCallHandler(null);
+        if (backgroundServiceMethodChannel != null) SharedEngine.restoreServiceHandler(flutterEngine, BACKGROUND_SERVICE_CHANNEL);
+        
+        if (pipeline != null) {
+            pipeline.outbox().setStatusListener(null);
+            pipeline.setUssdChannel(null);
+        }
         
         // Clean up event channel
         if (smsEventChannel != null) {
             smsEventChannel.setStreamHandler(null);
+        }
+        if (smsStreamHandler != null) {
+            smsStreamHandler.onCancel(null);
             smsStreamHandler = null;
         }
         
-        // Disconnect receiver from Flutter but don't unregister - background service handles it
-        if (smsBroadcastReceiver != null) {
-            smsBroadcastReceiver.setMethodChannel(null);
-            try {
-                unregisterReceiver(smsBroadcastReceiver);
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Receiver was not registered: " + e.getMessage());
-            }
-        }
+        // Stop in-app delivery; the hub keeps feeding the background service's journal
+        SmsIngestionHub.get(this).unsubscribe(smsChannelSubscriber);
+        if (ledger != null) ledger.setCommitListener(null);
         
         // Note: Don't stop background service here - let it continue running
         super.cleanUpFlutterEngine(flutterEngine);
@@ -573,57 +489,48 @@ private void sendDirectSms(String type, String ussdResponse) {
     protected void onDestroy() {
         // Only stop service when activity is truly destroyed
         Log.d(TAG, "MainActivity onDestroy called");
+        unbindSmsBackgroundService();
         // Note: Don't stop the background service here if you want it to continue running
         // when the app is closed. Only stop it when explicitly requested.
         super.onDestroy();
     }
 
-    private static class SmsStreamHandler implements EventChannel.StreamHandler {
-        private final Context appContext;
-        private android.content.BroadcastReceiver receiver;
-        private EventChannel.EventSink eventSink;
+    // Events for the UI's SMS stream, taken from the shared ingestion hub
+    private static class SmsStreamHandler implements EventChannel.StreamHandler, SmsIngestionHub.Subscriber {
+        private final SmsIngestionHub hub;
+        private volatile EventChannel.EventSink eventSink;
 
         SmsStreamHandler(Context context) {
-            appContext = context.getApplicationContext();
+            hub = SmsIngestionHub.get(context);
         }
 
         @Override
         public void onListen(Object args, EventChannel.EventSink sink) {
             this.eventSink = sink;
-            receiver = new android.content.BroadcastReceiver() {
-                @Override
-                public void onReceive(Context context, Intent intent) {
-                    if (Telephony.Sms.Intents.SMS_RECEIVED_ACTION.equals(intent.getAction())) {
-                        android.telephony.SmsMessage[] msgs = Telephony.Sms.Intents.getMessagesFromIntent(intent);
-                        for (android.telephony.SmsMessage msg : msgs) {
-                            Map<String, Object> sms = new HashMap<>();
-                            sms.put("sender", msg.getDisplayOriginatingAddress());
-                            sms.put("body", msg.getDisplayMessageBody());
-                            sms.put("timestamp", msg.getTimestampMillis());
-                            new Handler(Looper.getMainLooper()).post(() -> {
-                                if (eventSink != null) eventSink.success(sms);
-                            });
-                        }
-                    }
-                }
-            };
-            
-            IntentFilter filter = new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-                appContext.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
-            } else {
-                appContext.registerReceiver(receiver, filter);
-            }
+            hub.subscribe(this, SmsDedupe.SCOPE_STREAM, false);
         }
 
         @Override
         public void onCancel(Object arguments) {
-            if (receiver != null) {
-                try {
-                    appContext.unregisterReceiver(receiver);
-                } catch (IllegalArgumentException ignored) {}
-            }
+            hub.unsubscribe(this);
             eventSink = null;
         }
+
+        @Override
+        public void onMessages(List<SmsIngestionHub.Message> messages) {
+            if (eventSink == null) return;
+            List<Map<String, Object>> maps = new ArrayList<>(messages.size());
+            for (SmsIngestionHub.Message message : messages) {
+                maps.add(message.toMap());
+            }
+            // Built here, emitted on the main thread in one hop per broadcast
+            PipelineThread.toMain(() -> {
+                EventChannel.EventSink sink = eventSink;
+                if (sink == null) return;
+                for (Map<String, Object> map : maps) {
+                    sink.success(map);
+                }
+            });
+        }
     }
-}
\ No newline at end of file
+}
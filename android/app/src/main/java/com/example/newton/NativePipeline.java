@@ -0,0 +1,307 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import io.flutter.plugin.common.MethodChannel;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * The process-wide {@link PurchasePipeline} and {@link SmsOutbox}, wired to the device.
+ *
+ * The core classes get Android telephony, the looper threads, the dial dedupe, the served-number
+ * index and the operator's templates from here, so the activity and the background service share
+ * one set of SIM lanes. Outcomes are written to the ledger and stats here, and forwarded to Flutter
+ * while an engine has attached its USSD channel. While auto-buy is on, payments are matched against
+ * the {@link OfferTable} and dialed straight from the ingestion hub, with no Dart code in the way.
+ */
+public final class NativePipeline implements PurchasePipeline.Host {
+    private static final String TAG = "NativePipeline";
+    private static final String PREF_COALESCE_WINDOW_MS = "sms_coalesce_window_ms";
+    private static final String PREF_COALESCE_MAX_DELAY_MS = "sms_coalesce_max_delay_ms";
+    private static final String PREF_SUCCESS_KEYWORDS = "ussd_success_keywords";
+    private static final String PREF_FAILURE_KEYWORDS = "ussd_failure_keywords";
+    private static final String PREF_ALREADY_KEYWORDS = "ussd_already_keywords";
+    // Written by Dart's shared_preferences plugin, which stores ints as longs under a "flutter." prefix
+    private static final String FLUTTER_PREFS_NAME = "FlutterSharedPreferences";
+    private static final String FLUTTER_TOKEN_BALANCE = "flutter.tokenBalance";
+    private static final String FLUTTER_SELECTED_SIM = "flutter.selectedSimSubscriptionId";
+
+    private static NativePipeline instance;
+    private static DeadlineWheel deadlines;
+
+    static {
+        // Core logs through android.util.Log from here on
+        PipelineLog.setSink((level, tag, message, error) ->
+                Log.println(level, tag, error != null ? message + '\n' + Log.getStackTraceString(error) : message));
+    }
+
+    private final Context context;
+    private final SharedPreferences sharedPreferences;
+    private final SmsDedupe dedupe;
+    private final ServedNumberIndex servedNumbers;
+    private final SmsTemplateEngine templates;
+    private final TransactionLedger ledger;
+    private final BusinessStatsStore businessStats;
+    private final SmsOutbox outbox;
+    private final PurchasePipeline purchases;
+    private final SmsIngestionHub.Subscriber paymentSubscriber = this::onPayments;
+    private volatile MethodChannel ussdChannel;
+    // False until Flutter has sent keywords once; an unclassifiable reply would strand the payment
+    private volatile boolean hasKeywords;
+    // The lists last applied, reported back to the UI
+    private volatile List<String> successKeywords = Collections.emptyList();
+    private volatile List<String> failureKeywords = Collections.emptyList();
+    private volatile List<String> alreadyKeywords;
+
+    public static synchronized NativePipeline get(Context context) {
+        if (instance == null) {
+            instance = new NativePipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /** The wheel for every USSD and SMS deadline in the process, on its own thread. */
+    public static synchronized DeadlineWheel deadlines() {
+        if (deadlines == null) {
+            HandlerThread thread = new HandlerThread("Deadlines", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            deadlines = new DeadlineWheel(new HandlerWorker(new Handler(thread.getLooper())));
+        }
+        return deadlines;
+    }
+
+    private NativePipeline(Context context) {
+        this.context = context;
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        dedupe = SmsDedupe.get(context);
+        servedNumbers = ServedNumberIndex.get(context);
+        templates = new SmsTemplateEngine(sharedPreferences);
+        ledger = TransactionLedger.get(context);
+        businessStats = BusinessStatsStore.get(context);
+        CarrierRateLimits rateLimits = CarrierRateLimits.get(context);
+
+        // Outbound SMS get their own thread; the gateway reports on it too
+        HandlerThread thread = new HandlerThread("SmsOutbox", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        Handler outboxHandler = new Handler(thread.getLooper());
+        outbox = new SmsOutbox(new HandlerWorker(outboxHandler), new AndroidSmsGateway(context, outboxHandler),
+                deadlines(), rateLimits);
+
+        AndroidTelephony telephony = AndroidTelephony.get(context);
+        purchases = new PurchasePipeline(PipelineThread.worker(), telephony, telephony, outbox, deadlines(),
+                rateLimits, this);
+        purchases.configureCoalescing(sharedPreferences.getLong(PREF_COALESCE_WINDOW_MS, 0),
+                sharedPreferences.getLong(PREF_COALESCE_MAX_DELAY_MS, PurchasePipeline.DEFAULT_COALESCE_MAX_DELAY_MS));
+        List<String> success = loadKeywords(PREF_SUCCESS_KEYWORDS);
+        if (success != null) {
+            List<String> failure = loadKeywords(PREF_FAILURE_KEYWORDS);
+            applyKeywords(success, failure != null ? failure : Collections.<String>emptyList(),
+                    loadKeywords(PREF_ALREADY_KEYWORDS));
+        }
+    }
+
+    public PurchasePipeline purchases() {
+        return purchases;
+    }
+
+    public SmsOutbox outbox() {
+        return outbox;
+    }
+
+    public SmsTemplateEngine templates() {
+        return templates;
+    }
+
+    /** Flutter's USSD channel for outcomes; null while no engine listens. */
+    public void setUssdChannel(MethodChannel channel) {
+        ussdChannel = channel;
+    }
+
+    /** Persists and applies the USSD reply keywords, so a cold-started service classifies the same way. */
+    public synchronized void setKeywords(List<String> success, List<String> failure, List<String> already) {
+        if (success == null) success = Collections.emptyList();
+        if (failure == null) failure = Collections.emptyList();
+        SharedPreferences.Editor editor = sharedPreferences.edit()
+                .putString(PREF_SUCCESS_KEYWORDS, new JSONArray(success).toString())
+                .putString(PREF_FAILURE_KEYWORDS, new JSONArray(failure).toString());
+        if (already != null) {
+            editor.putString(PREF_ALREADY_KEYWORDS, new JSONArray(already).toString());
+        } else {
+            editor.remove(PREF_ALREADY_KEYWORDS);
+        }
+        editor.apply();
+        applyKeywords(success, failure, already);
+    }
+
+    /** As {@link #setKeywords}, keeping whichever of the lists is null and the "already" keywords. */
+    public synchronized void updateKeywords(List<String> success, List<String> failure) {
+        setKeywords(success != null ? success : successKeywords, failure != null ? failure : failureKeywords,
+                alreadyKeywords);
+    }
+
+    public List<String> successKeywords() {
+        return successKeywords;
+    }
+
+    public List<String> failureKeywords() {
+        return failureKeywords;
+    }
+
+    /** Starts buying for payments as the hub receives them; the background service keeps this on. */
+    public void startAutoBuy() {
+        // Scope 0: the purchase's own dial claim is what keeps a payment to one session
+        SmsIngestionHub.get(context).subscribe(paymentSubscriber, 0, true);
+    }
+
+    public void stopAutoBuy() {
+        SmsIngestionHub.get(context).unsubscribe(paymentSubscriber);
+    }
+
+    /** Persists the coalescing window, so a cold-started service batches the same way. */
+    public void setCoalescing(long windowMs, long maxDelayMs) {
+        sharedPreferences.edit()
+                .putLong(PREF_COALESCE_WINDOW_MS, windowMs)
+                .putLong(PREF_COALESCE_MAX_DELAY_MS, maxDelayMs)
+                .apply();
+        purchases.configureCoalescing(windowMs, maxDelayMs);
+    }
+
+    // Natively parsed amountCents when present, else the amount Dart extracted in shillings
+    static long amountCentsOf(Map<String, Object> transaction) {
+        Object cents = transaction.get("amountCents");
+        if (cents instanceof Number) return ((Number) cents).longValue();
+        Object amount = transaction.get("extractedAmount");
+        if (amount instanceof Number) return Math.round(((Number) amount).doubleValue() * 100);
+        return -1;
+    }
+
+    // Pipeline thread. Gated like Dart's auto-buy: a plan at the paid price, tokens left, the call permission
+    private void onPayments(List<SmsIngestionHub.Message> messages) {
+        for (SmsIngestionHub.Message message : messages) {
+            MpesaPayment payment = message.payment;
+            if (payment == null || payment.phoneNumber == null) continue;
+            // No plan at this price: Dart answers with the "no offer" SMS
+            OfferTable.Offer offer = OfferTable.get(context).lookup(payment.amountCents);
+            String ussdCode = offer != null ? offer.buildUssdCode(payment.phoneNumber) : null;
+            if (ussdCode == null) continue;
+            if (!hasKeywords) {
+                Log.w(TAG, "No USSD keywords yet, leaving " + payment.transactionCode + " to Flutter");
+                continue;
+            }
+            if (flutterLong(FLUTTER_TOKEN_BALANCE, 0) <= 0) {
+                Log.w(TAG, "No tokens left, not buying for " + payment.transactionCode);
+                continue;
+            }
+            Map<String, Object> transaction = message.toMap();
+            transaction.put("purchasedOffer", offer.planName);
+            int subscriptionId = (int) flutterLong(FLUTTER_SELECTED_SIM, SimScheduler.ANY_SIM);
+            int result = purchases.purchase(ussdCode, subscriptionId, transaction, 0);
+            Log.d(TAG, "Auto-buy of " + offer.planName + " for " + payment.transactionCode + ": " + result);
+        }
+    }
+
+    private void applyKeywords(List<String> success, List<String> failure, List<String> already) {
+        purchases.setKeywords(success, failure, already);
+        successKeywords = Collections.unmodifiableList(new ArrayList<>(success));
+        failureKeywords = Collections.unmodifiableList(new ArrayList<>(failure));
+        alreadyKeywords = already != null ? Collections.unmodifiableList(new ArrayList<>(already)) : null;
+        hasKeywords = !success.isEmpty();
+    }
+
+    // Read on each payment, so a balance or SIM Dart changed a moment ago counts
+    private long flutterLong(String key, long fallback) {
+        Object value = context.getSharedPreferences(FLUTTER_PREFS_NAME, Context.MODE_PRIVATE).getAll().get(key);
+        return value instanceof Number ? ((Number) value).longValue() : fallback;
+    }
+
+    private List<String> loadKeywords(String key) {
+        String json = sharedPreferences.getString(key, null);
+        if (json == null) return null;
+        try {
+            JSONArray array = new JSONArray(json);
+            List<String> keywords = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) keywords.add(array.getString(i));
+            return keywords;
+        } catch (JSONException e) {
+            Log.e(TAG, "Stored keywords are corrupt, ignoring " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // One purchase per payment, however many receivers or redeliveries led here
+    @Override
+    public boolean claimPayment(Map<String, Object> transaction) {
+        long paymentKey = SmsDedupe.keyOf(transaction);
+        if (paymentKey != 0 && !dedupe.claim(SmsDedupe.SCOPE_DIAL, paymentKey)) {
+            Log.d(TAG, "USSD already dialed for this payment, ignoring");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void releasePayment(Map<String, Object> transaction) {
+        long paymentKey = SmsDedupe.keyOf(transaction);
+        if (paymentKey != 0 && dedupe.release(SmsDedupe.SCOPE_DIAL, paymentKey)) {
+            Log.d(TAG, "Dial claim released for " + transaction.get("extractedPhoneNumber"));
+        }
+    }
+
+    @Override
+    public boolean isServed(String phoneNumber) {
+        return servedNumbers.isServed(phoneNumber);
+    }
+
+    @Override
+    public void markServed(String phoneNumber) {
+        servedNumbers.markServed(phoneNumber);
+    }
+
+    @Override
+    public boolean canDial() {
+        return ContextCompat.checkSelfPermission(context, android.Manifest.permission.CALL_PHONE)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public SmsTemplate.Rendered render(String type, Map<String, Object> transaction) {
+        return templates.render(type, transaction);
+    }
+
+    // Pipeline thread; only the channel call goes to the main thread
+    @Override
+    public void onOutcome(int outcome, Map<String, Object> transaction, int subscriptionId, Map<String, Object> report) {
+        ledger.recordOutcome(transaction, outcome == BusinessStats.SUCCESS);
+        businessStats.record(outcome, subscriptionId, transaction != null ? amountCentsOf(transaction) : -1);
+        notifyFlutter(outcome == BusinessStats.ERROR ? "onUssdError" : "onUssdResponse", report);
+    }
+
+    // The timeout was written as a failed row and an error; those are corrected rather than added to
+    @Override
+    public void onLateOutcome(int outcome, Map<String, Object> transaction, int subscriptionId,
+                              Map<String, Object> report, long timedOutAt) {
+        if (outcome == BusinessStats.SUCCESS) ledger.reviseToSuccess(transaction, timedOutAt);
+        businessStats.revise(BusinessStats.ERROR, outcome, subscriptionId,
+                transaction != null ? amountCentsOf(transaction) : -1, timedOutAt);
+        notifyFlutter("onUssdResponse", report);
+    }
+
+    private void notifyFlutter(String method, Map<String, Object> report) {
+        PipelineThread.toMain(() -> {
+            MethodChannel channel = ussdChannel;
+            if (channel != null) channel.invokeMethod(method, report);
+        });
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The operator's data plans, keyed by price in cents, with their USSD templates compiled.
+ *
+ * Flutter pushes the plan list whenever it changes; the table is kept as JSON in private
+ * preferences so a cold-started service can match payments before any Dart code runs. Lookups are
+ * a binary search over a sorted {@code long[]}. Tables are immutable; {@link #update} swaps in a
+ * new one atomically.
+ */
+public final class OfferTable {
+    private static final String TAG = "OfferTable";
+    private static final String PREFS_NAME = "native_offers";
+    private static final String KEY_PLANS = "plans";
+    private static final String DEFAULT_PLACEHOLDER = "PN";
+
+    private static volatile OfferTable current;
+
+    /** One plan, with its USSD template split around the phone number placeholder. */
+    public static final class Offer {
+        public final String planName;
+        public final long amountCents;
+        public final String ussdCodeTemplate;
+        public final String placeholder;
+        // Literal pieces; the phone number goes between each pair
+        private final String[] literals;
+
+        Offer(String planName, long amountCents, String ussdCodeTemplate, String placeholder) {
+            this.planName = planName;
+            this.amountCents = amountCents;
+            this.ussdCodeTemplate = ussdCodeTemplate;
+            this.placeholder = placeholder;
+            this.literals = split(ussdCodeTemplate, placeholder);
+        }
+
+        /** False when the template has no placeholder, which Dart's prepareUssdCode also rejects. */
+        public boolean isValid() {
+            return literals.length > 1;
+        }
+
+        /** The code to dial for {@code phoneNumber}, or null when the template is invalid. */
+        public String buildUssdCode(String phoneNumber) {
+            if (!isValid() || phoneNumber == null) return null;
+            String local = localPhoneNumber(phoneNumber);
+            StringBuilder code = new StringBuilder(ussdCodeTemplate.length() + local.length());
+            code.append(literals[0]);
+            for (int i = 1; i < literals.length; i++) {
+                code.append(local).append(literals[i]);
+            }
+            return code.toString();
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("planName", planName);
+            json.put("amountCents", amountCents);
+            json.put("ussdCodeTemplate", ussdCodeTemplate);
+            json.put("placeholder", placeholder);
+            return json;
+        }
+
+        private static String[] split(String template, String placeholder) {
+            if (template == null || placeholder == null || placeholder.isEmpty()) return new String[] {template};
+            List<String> parts = new ArrayList<>();
+            int from = 0;
+            for (int at = template.indexOf(placeholder); at >= 0; at = template.indexOf(placeholder, from)) {
+                parts.add(template.substring(from, at));
+                from = at + placeholder.length();
+            }
+            parts.add(template.substring(from));
+            return parts.toArray(new String[0]);
+        }
+    }
+
+    private final long[] amounts;
+    private final Offer[] offers;
+
+    private OfferTable(List<Offer> list) {
+        // Stable sort keeps the first plan of a price, like the Dart lookups
+        Offer[] sorted = list.toArray(new Offer[0]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.amountCents, b.amountCents));
+        List<Offer> unique = new ArrayList<>(sorted.length);
+        for (Offer offer : sorted) {
+            if (unique.isEmpty() || unique.get(unique.size() - 1).amountCents != offer.amountCents) {
+                unique.add(offer);
+            }
+        }
+        offers = unique.toArray(new Offer[0]);
+        amounts = new long[offers.length];
+        for (int i = 0; i < offers.length; i++) amounts[i] = offers[i].amountCents;
+    }
+
+    /** The table in use, loaded from preferences on first call. */
+    public static OfferTable get(Context context) {
+        OfferTable table = current;
+        if (table == null) {
+            synchronized (OfferTable.class) {
+                table = current;
+                if (table == null) {
+                    table = load(prefs(context));
+                    current = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Replaces the table with {@code plans} as sent by Flutter: maps with {@code planName},
+     * {@code ussdCodeTemplate}, {@code amount} (shillings) and {@code placeholder}.
+     */
+    public static OfferTable update(Context context, List<Map<String, Object>> plans) {
+        List<Offer> list = new ArrayList<>(plans.size());
+        for (Map<String, Object> plan : plans) {
+            Object amount = plan.get("amount");
+            Object template = plan.get("ussdCodeTemplate");
+            if (!(amount instanceof Number) || !(template instanceof String)) continue;
+            Object placeholder = plan.get("placeholder");
+            list.add(new Offer((String) plan.get("planName"), Math.round(((Number) amount).doubleValue() * 100),
+                    (String) template, placeholder instanceof String ? (String) placeholder : DEFAULT_PLACEHOLDER));
+        }
+        OfferTable table = new OfferTable(list);
+        synchronized (OfferTable.class) {
+            current = table;
+        }
+        table.save(prefs(context));
+        Log.d(TAG, "Offer table updated: " + table.size() + " offers");
+        return table;
+    }
+
+    /** Offer priced at exactly {@code amountCents}, or null. */
+    public Offer lookup(long amountCents) {
+        int i = Arrays.binarySearch(amounts, amountCents);
+        return i >= 0 ? offers[i] : null;
+    }
+
+    public int size() {
+        return offers.length;
+    }
+
+    /** 2547XXXXXXXX and +2547XXXXXXXX become 07XXXXXXXX; anything else is used as is. */
+    static String localPhoneNumber(String phoneNumber) {
+        if (phoneNumber.startsWith("254") && phoneNumber.length() == 12) {
+            return "0" + phoneNumber.substring(3);
+        }
+        if (phoneNumber.startsWith("+254") && phoneNumber.length() == 13) {
+            return "0" + phoneNumber.substring(4);
+        }
+        return phoneNumber;
+    }
+
+    private void save(SharedPreferences prefs) {
+        try {
+            JSONArray array = new JSONArray();
+            for (Offer offer : offers) array.put(offer.toJson());
+            prefs.edit().putString(KEY_PLANS, array.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot persist offer table: " + e.getMessage());
+        }
+    }
+
+    private static OfferTable load(SharedPreferences prefs) {
+        List<Offer> list = new ArrayList<>();
+        String json = prefs.getString(KEY_PLANS, null);
+        if (json != null) {
+            try {
+                JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject o = array.getJSONObject(i);
+                    list.add(new Offer(o.optString("planName", null), o.getLong("amountCents"),
+                            o.getString("ussdCodeTemplate"), o.optString("placeholder", DEFAULT_PLACEHOLDER)));
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Stored offer table is corrupt, starting empty: " + e.getMessage());
+                list.clear();
+            }
+        }
+        return new OfferTable(list);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.newton;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * The thread incoming SMS, USSD results and confirmation rendering run on.
+ *
+ * Telephony callbacks land here, so keyword matching, template rendering and queueing never block
+ * the UI and stay single-threaded per request. Only calls into Flutter ({@code invokeMethod}, event
+ * sinks, message channels) go back to the main thread, through {@link #toMain}.
+ */
+public final class PipelineThread {
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private static Handler handler;
+    private static Worker worker;
+
+    private PipelineThread() {}
+
+    public static synchronized Handler get() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("Pipeline", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /** The pipeline thread as a {@link Worker}, for the core pipeline classes. */
+    public static synchronized Worker worker() {
+        if (worker == null) {
+            worker = new HandlerWorker(get());
+        }
+        return worker;
+    }
+
+    /** Runs {@code task} on the pipeline thread, inline when already on it. */
+    public static void run(Runnable task) {
+        Handler pipeline = get();
+        if (pipeline.getLooper() == Looper.myLooper()) {
+            task.run();
+        } else {
+            pipeline.post(task);
+        }
+    }
+
+    /** Runs {@code task} on the main thread, inline when already on it. */
+    public static void toMain(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            MAIN.post(task);
+        }
+    }
+}
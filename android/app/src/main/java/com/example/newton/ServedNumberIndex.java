@@ -0,0 +1,154 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+
+/**
+ * Phone numbers that already got an offer today, so a repeat purchase can be answered with the
+ * "already" SMS without spending a USSD session on it.
+ *
+ * Numbers are stored as longs in an open-addressing table that lives directly in a memory-mapped
+ * file, and the whole table is cleared on the first use after local midnight. Once the table is
+ * three quarters full further numbers are not recorded, which only means they get dialed as before.
+ *
+ * Buffer layout: {@code [int magic][int day][int size][int unused][long table[capacity]]}.
+ */
+public final class ServedNumberIndex {
+    private static final String TAG = "ServedNumberIndex";
+    private static final String FILE_NAME = "served_numbers.idx";
+    private static final int CAPACITY = 4096; // power of two
+    private static final int MAGIC = 0x534e4931; // "SNI1"
+    private static final int HEADER = 16;
+    private static final long EMPTY = 0;
+
+    private static ServedNumberIndex instance;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxSize;
+
+    public static synchronized ServedNumberIndex get(Context context) {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getNoBackupFilesDir(), FILE_NAME);
+            ByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bufferSize(CAPACITY));
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot map served number index, keeping it in memory: " + e.getMessage());
+                buffer = ByteBuffer.allocate(bufferSize(CAPACITY));
+            }
+            instance = new ServedNumberIndex(buffer, CAPACITY);
+        }
+        return instance;
+    }
+
+    public static int bufferSize(int capacity) {
+        return HEADER + 8 * capacity;
+    }
+
+    /** Wraps {@code buffer}; {@code capacity} must be a power of two. */
+    public ServedNumberIndex(ByteBuffer buffer, int capacity) {
+        if (Integer.bitCount(capacity) != 1 || buffer.capacity() < bufferSize(capacity)) {
+            throw new IllegalArgumentException("Bad capacity " + capacity + " for buffer of " + buffer.capacity());
+        }
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxSize = capacity * 3 / 4;
+        if (buffer.getInt(0) != MAGIC) {
+            clear(today());
+            buffer.putInt(0, MAGIC);
+        }
+    }
+
+    /** True if {@code phoneNumber} was marked served since local midnight. */
+    public synchronized boolean isServed(String phoneNumber) {
+        long key = keyOf(phoneNumber);
+        if (key == EMPTY) return false;
+        rollOver();
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            long k = buffer.getLong(slot(i));
+            if (k == EMPTY) return false;
+            if (k == key) return true;
+        }
+    }
+
+    /** Records that {@code phoneNumber} got its offer today. */
+    public synchronized void markServed(String phoneNumber) {
+        long key = keyOf(phoneNumber);
+        if (key == EMPTY) return;
+        rollOver();
+        int size = buffer.getInt(8);
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            long k = buffer.getLong(slot(i));
+            if (k == key) return;
+            if (k == EMPTY) {
+                if (size >= maxSize) {
+                    Log.w(TAG, "Served number index full for today");
+                    return;
+                }
+                buffer.putLong(slot(i), key);
+                buffer.putInt(8, size + 1);
+                return;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        rollOver();
+        return buffer.getInt(8);
+    }
+
+    /**
+     * The subscriber part of a Kenyan number (its last nine digits) plus one, so "07..", "2547.."
+     * and "+2547.." map to the same non-zero key. Returns 0 when there are no digits.
+     */
+    static long keyOf(String phoneNumber) {
+        if (phoneNumber == null) return EMPTY;
+        long digits = 0;
+        long place = 1;
+        int count = 0;
+        for (int i = phoneNumber.length() - 1; i >= 0 && count < 9; i--) {
+            char c = phoneNumber.charAt(i);
+            if (c < '0' || c > '9') continue;
+            digits += (c - '0') * place;
+            place *= 10;
+            count++;
+        }
+        return count == 0 ? EMPTY : digits + 1;
+    }
+
+    private void rollOver() {
+        int today = today();
+        if (buffer.getInt(4) != today) {
+            clear(today);
+        }
+    }
+
+    private void clear(int day) {
+        for (int i = 0; i < capacity; i++) buffer.putLong(slot(i), EMPTY);
+        buffer.putInt(8, 0);
+        buffer.putInt(4, day);
+    }
+
+    private int index(long key) {
+        return (int) DedupeIndex.mix(key) & mask;
+    }
+
+    private static int slot(int i) {
+        return HEADER + 8 * i;
+    }
+
+    // Local calendar day as yyyymmdd
+    private static int today() {
+        Calendar now = Calendar.getInstance();
+        return now.get(Calendar.YEAR) * 10000 + (now.get(Calendar.MONTH) + 1) * 100 + now.get(Calendar.DAY_OF_MONTH);
+    }
+}
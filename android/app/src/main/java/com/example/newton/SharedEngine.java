@@ -0,0 +1,67 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.util.Log;
+import io.flutter.FlutterInjector;
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.FlutterEngineCache;
+import io.flutter.embedding.engine.dart.DartExecutor;
+import io.flutter.embedding.engine.loader.FlutterLoader;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * The one FlutterEngine of the process, shared by {@link BackgroundService} and {@link MainActivity}.
+ *
+ * Whoever needs it first creates it and registers it in {@link FlutterEngineCache}. It always boots
+ * the lightweight {@code backgroundMain} Dart entrypoint, which only installs the SMS handlers; the
+ * UI is started inside the same isolate when an activity attaches. Must be used on the main thread.
+ */
+public final class SharedEngine {
+    private static final String TAG = "SharedEngine";
+    public static final String ENGINE_ID = "newton_engine";
+    private static final String ENTRYPOINT = "backgroundMain";
+    private static final String ENGINE_CHANNEL = "com.example.newton/engine";
+
+    // Native side of the background_service channel while no activity has replaced it
+    private static MethodChannel.MethodCallHandler serviceHandler;
+    private static boolean uiAttached;
+
+    private SharedEngine() {}
+
+    public static FlutterEngine obtain(Context context) {
+        FlutterEngineCache cache = FlutterEngineCache.getInstance();
+        FlutterEngine engine = cache.get(ENGINE_ID);
+        if (engine != null) return engine;
+
+        Context app = context.getApplicationContext();
+        FlutterLoader loader = FlutterInjector.instance().flutterLoader();
+        loader.startInitialization(app);
+        loader.ensureInitializationComplete(app, null);
+
+        engine = new FlutterEngine(app);
+        engine.getDartExecutor().executeDartEntrypoint(
+                new DartExecutor.DartEntrypoint(loader.findAppBundlePath(), ENTRYPOINT));
+        cache.put(ENGINE_ID, engine);
+        Log.d(TAG, "Started shared engine with entrypoint " + ENTRYPOINT);
+        return engine;
+    }
+
+    /** Asks Dart to start the UI; a no-op on the Dart side once it is running. */
+    public static void attachUi(FlutterEngine engine) {
+        uiAttached = true;
+        new MethodChannel(engine.getDartExecutor().getBinaryMessenger(), ENGINE_CHANNEL).invokeMethod("attachUi", null);
+    }
+
+    /** Registers the service's handler for the background_service channel. */
+    public static void setServiceHandler(FlutterEngine engine, String channel, MethodChannel.MethodCallHandler handler) {
+        serviceHandler = handler;
+        if (uiAttached) return; // installed again by restoreServiceHandler
+        new MethodChannel(engine.getDartExecutor().getBinaryMessenger(), channel).setMethodCallHandler(handler);
+    }
+
+    /** Gives a channel the activity borrowed back to the service, or clears it if there is none. */
+    public static void restoreServiceHandler(FlutterEngine engine, String channel) {
+        uiAttached = false;
+        new MethodChannel(engine.getDartExecutor().getBinaryMessenger(), channel).setMethodCallHandler(serviceHandler);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Compact binary layout for sending many SMS to Dart in one platform-channel message.
+ *
+ * <pre>
+ * int32  version (1)
+ * int32  count
+ * count x {
+ *   int64  timestamp
+ *   int64  amountCents (-1 when the SMS is not a payment)
+ *   string sender, body, phoneNumber, name, transactionCode
+ * }
+ * string = int32 byte length (-1 for null) followed by UTF-8 bytes
+ * </pre>
+ * All integers are big-endian, which is what Dart's {@code ByteData} reads by default.
+ * Decoded on the Dart side by {@code SmsBatchCodec.decode} in lib/services/sms_batch_codec.dart.
+ */
+public final class SmsBatchCodec {
+    public static final int VERSION = 1;
+
+    private SmsBatchCodec() {}
+
+    /** Encodes journal records, parsing payment fields on the way, into one direct buffer. */
+    public static ByteBuffer encode(List<SmsJournal.Record> records) {
+        int count = records.size();
+        byte[][] strings = new byte[count * 5][];
+        long[] amounts = new long[count];
+        int size = 8;
+        for (int i = 0; i < count; i++) {
+            SmsJournal.Record record = records.get(i);
+            MpesaPayment payment = MpesaSmsParser.parse(record.sender, record.body);
+            amounts[i] = payment != null ? payment.amountCents : -1;
+            int base = i * 5;
+            strings[base] = utf8(record.sender);
+            strings[base + 1] = utf8(record.body);
+            strings[base + 2] = payment != null ? utf8(payment.phoneNumber) : null;
+            strings[base + 3] = payment != null ? utf8(payment.name) : null;
+            strings[base + 4] = payment != null ? utf8(payment.transactionCode) : null;
+            size += 16;
+            for (int s = 0; s < 5; s++) {
+                size += 4 + (strings[base + s] != null ? strings[base + s].length : 0);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(records.get(i).timestamp);
+            buffer.putLong(amounts[i]);
+            for (int s = 0; s < 5; s++) {
+                putString(buffer, strings[i * 5 + s]);
+            }
+        }
+        // Left unflipped: the embedding sends bytes [0, position) of a direct buffer
+        return buffer;
+    }
+
+    private static byte[] utf8(String s) {
+        return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+}
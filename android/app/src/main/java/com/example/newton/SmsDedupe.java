@@ -0,0 +1,96 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Process-wide duplicate suppression for incoming SMS and the USSD purchases they trigger.
+ *
+ * Each consumer claims a message under its own scope, so the journal, the UI stream, the dialer and
+ * the ledger each see a message once even when carriers deliver it twice or the process restarts
+ * mid-way. Payments are keyed on their M-Pesa transaction code; anything else on a hash of sender,
+ * body and timestamp. Backed by a memory-mapped {@link DedupeIndex}.
+ */
+public final class SmsDedupe {
+    private static final String TAG = "SmsDedupe";
+    private static final String FILE_NAME = "sms_dedupe.idx";
+    private static final int CAPACITY = 8192;
+
+    public static final int SCOPE_JOURNAL = 1;
+    public static final int SCOPE_STREAM = 2;
+    public static final int SCOPE_CHANNEL = 3;
+    public static final int SCOPE_DIAL = 4;
+    public static final int SCOPE_LEDGER = 5;
+
+    private static SmsDedupe instance;
+
+    private final DedupeIndex index;
+
+    public static synchronized SmsDedupe get(Context context) {
+        if (instance == null) {
+            File file = new File(context.getApplicationContext().getNoBackupFilesDir(), FILE_NAME);
+            ByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DedupeIndex.bufferSize(CAPACITY));
+            } catch (IOException e) {
+                // Still dedupes within this process, just not across restarts
+                Log.e(TAG, "Cannot map dedupe index, keeping it in memory: " + e.getMessage());
+                buffer = ByteBuffer.allocate(DedupeIndex.bufferSize(CAPACITY));
+            }
+            instance = new SmsDedupe(new DedupeIndex(buffer, CAPACITY));
+        }
+        return instance;
+    }
+
+    private SmsDedupe(DedupeIndex index) {
+        this.index = index;
+    }
+
+    /** Key for an incoming SMS: its transaction code when it carries one, else sender, body and timestamp. */
+    public static long keyOf(String sender, String body, long timestamp) {
+        String code = MpesaSmsParser.isRelevantSender(sender) && body != null
+                ? MpesaSmsParser.parseTransactionCode(body) : null;
+        if (code != null) return transactionKey(code);
+        return DedupeIndex.hash(sender, body, Long.toString(timestamp));
+    }
+
+    public static long transactionKey(String transactionCode) {
+        return DedupeIndex.hash("mpesa", transactionCode.toUpperCase());
+    }
+
+    /**
+     * Key of the payment a USSD purchase is made for, from the transaction map the UI or service
+     * passes along; 0 when there is nothing to key on (e.g. a manual dial).
+     */
+    public static long keyOf(Map<String, Object> transaction) {
+        if (transaction == null) return 0;
+        Object code = transaction.get("transactionCode");
+        if (code instanceof String && !((String) code).isEmpty()) return transactionKey((String) code);
+        Object body = transaction.get("body");
+        if (body instanceof String) {
+            String parsed = MpesaSmsParser.parseTransactionCode((String) body);
+            if (parsed != null) return transactionKey(parsed);
+        }
+        return 0;
+    }
+
+    /** True the first time {@code key} is seen in {@code scope}; false for duplicates. */
+    public synchronized boolean claim(int scope, long key) {
+        return index.claim(DedupeIndex.mix(key + scope));
+    }
+
+    /** Undoes a claim, e.g. a dial the carrier refused; the next claim of {@code key} in {@code scope} succeeds. */
+    public synchronized boolean release(int scope, long key) {
+        return index.release(DedupeIndex.mix(key + scope));
+    }
+
+    public synchronized boolean seen(int scope, long key) {
+        return index.contains(DedupeIndex.mix(key + scope));
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.Telephony;
+import android.telephony.SmsMessage;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The single point where incoming SMS enter the app.
+ *
+ * One {@link SmsBroadcastReceiver} is registered on the application context while anyone is
+ * subscribed. Each broadcast is decoded, reassembled and parsed once, then published as immutable
+ * {@link Message}s to every subscriber in the same order. Each subscriber names the
+ * {@link SmsDedupe} scope it consumes in, so redeliveries are dropped per consumer. Broadcasts are
+ * handled and subscribers called on the {@link PipelineThread}; subscribers may come and go with the
+ * engine, activity and service.
+ */
+public final class SmsIngestionHub {
+    private static final String TAG = "SmsIngestionHub";
+
+    private static SmsIngestionHub instance;
+
+    /** A whole incoming SMS as every subscriber sees it. */
+    public static final class Message {
+        public final String sender;
+        public final String body;
+        public final long timestamp;
+        public final int parts;
+        /** True for senders the app acts on; see {@link MpesaSmsParser#isRelevantSender}. */
+        public final boolean relevant;
+        /** Parsed payment, or null when this is not an M-Pesa confirmation. */
+        public final MpesaPayment payment;
+        /** {@link SmsDedupe} key: the transaction code when there is one. */
+        public final long key;
+
+        Message(String sender, String body, long timestamp, int parts) {
+            this.sender = sender;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.parts = parts;
+            this.relevant = MpesaSmsParser.isRelevantSender(sender);
+            this.payment = relevant ? MpesaSmsParser.parse(sender, body) : null;
+            this.key = payment != null && payment.transactionCode != null
+                    ? SmsDedupe.transactionKey(payment.transactionCode)
+                    : SmsDedupe.keyOf(sender, body, timestamp);
+        }
+
+        /** Channel map with sender, body, timestamp and, for payments, the parsed fields. */
+        public Map<String, Object> toMap() {
+            return SmsBroadcastReceiver.toMessage(sender, body, timestamp, payment);
+        }
+    }
+
+    public interface Subscriber {
+        /** Messages of one broadcast that are new in this subscriber's scope; never empty. */
+        void onMessages(List<Message> messages);
+    }
+
+    private static final class Subscription {
+        final Subscriber subscriber;
+        final int scope;
+        final boolean relevantOnly;
+
+        Subscription(Subscriber subscriber, int scope, boolean relevantOnly) {
+            this.subscriber = subscriber;
+            this.scope = scope;
+            this.relevantOnly = relevantOnly;
+        }
+    }
+
+    private final Context context;
+    private final SmsDedupe dedupe;
+    private final SmsReassembler reassembler = new SmsReassembler();
+    // Forwards multipart groups whose missing parts never came; pipeline thread
+    private final Runnable expireParts = this::onPartsExpired;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private SmsBroadcastReceiver receiver;
+
+    // Reported through metrics()
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong pdus = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong payments = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private volatile long lastReceivedAt;
+
+    public static synchronized SmsIngestionHub get(Context context) {
+        if (instance == null) {
+            instance = new SmsIngestionHub(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SmsIngestionHub(Context context) {
+        this.context = context;
+        this.dedupe = SmsDedupe.get(context);
+    }
+
+    /**
+     * Starts delivering to {@code subscriber}. {@code scope} is its {@link SmsDedupe} scope, or 0 to
+     * see duplicates too; with {@code relevantOnly} it only gets SMS from M-Pesa and Safaricom.
+     */
+    public synchronized void subscribe(Subscriber subscriber, int scope, boolean relevantOnly) {
+        unsubscribe(subscriber);
+        subscriptions.add(new Subscription(subscriber, scope, relevantOnly));
+        if (receiver == null) register();
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.subscriber == subscriber) subscriptions.remove(subscription);
+        }
+        if (subscriptions.isEmpty() && receiver != null) unregister();
+    }
+
+    /** Counters for the service status screen. */
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("broadcasts", broadcasts.get());
+        metrics.put("pdus", pdus.get());
+        metrics.put("messages", messages.get());
+        metrics.put("payments", payments.get());
+        metrics.put("duplicates", duplicates.get());
+        metrics.put("subscribers", subscriptions.size());
+        metrics.put("lastReceivedAt", lastReceivedAt);
+        return metrics;
+    }
+
+    /** Called by {@link SmsBroadcastReceiver} on the pipeline thread. */
+    void onSmsReceived(Intent intent) {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        SmsMessage[] parts = Telephony.Sms.Intents.getMessagesFromIntent(intent);
+        if (parts == null || parts.length == 0) return;
+        broadcasts.incrementAndGet();
+        pdus.addAndGet(parts.length);
+        lastReceivedAt = System.currentTimeMillis();
+
+        List<SmsReassembler.Message> whole;
+        synchronized (reassembler) {
+            // One entry per whole message, not per PDU
+            whole = reassembler.add(parts);
+            scheduleExpiry();
+        }
+        deliver(whole, startedAt);
+    }
+
+    private void onPartsExpired() {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        List<SmsReassembler.Message> expired;
+        synchronized (reassembler) {
+            expired = reassembler.takeExpired();
+            scheduleExpiry();
+        }
+        if (!expired.isEmpty()) Log.w(TAG, expired.size() + " incomplete multipart SMS forwarded after timeout");
+        deliver(expired, startedAt);
+    }
+
+    // Holds the reassembler lock
+    private void scheduleExpiry() {
+        Handler pipeline = PipelineThread.get();
+        pipeline.removeCallbacks(expireParts);
+        long expiresAt = reassembler.nextExpiryAt();
+        if (expiresAt >= 0) {
+            pipeline.postDelayed(expireParts, Math.max(0, expiresAt - System.currentTimeMillis()));
+        }
+    }
+
+    private void deliver(List<SmsReassembler.Message> whole, long startedAt) {
+        List<Message> decoded = new ArrayList<>(whole.size());
+        for (SmsReassembler.Message sms : whole) {
+            Message message = new Message(sms.sender, sms.body, sms.timestamp, sms.parts);
+            if (message.payment != null) {
+                payments.incrementAndGet();
+                Log.d(TAG, "Payment recognised: " + message.payment);
+            }
+            decoded.add(message);
+        }
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.recordNanos(PipelineMetrics.SMS_PARSE, SystemClock.elapsedRealtimeNanos() - startedAt);
+        if (decoded.isEmpty()) return;
+        messages.addAndGet(decoded.size());
+        for (Message message : decoded) {
+            metrics.increment(PipelineMetrics.SMS_RECEIVED);
+            if (message.payment != null) metrics.increment(PipelineMetrics.PAYMENTS);
+            metrics.recordSince(PipelineMetrics.SMS_DELIVERY, message.timestamp);
+        }
+        publish(Collections.unmodifiableList(decoded));
+    }
+
+    private void publish(List<Message> decoded) {
+        for (Subscription subscription : subscriptions) {
+            List<Message> fresh = new ArrayList<>(decoded.size());
+            for (Message message : decoded) {
+                if (subscription.relevantOnly && !message.relevant) continue;
+                if (subscription.scope != 0 && !dedupe.claim(subscription.scope, message.key)) {
+                    duplicates.incrementAndGet();
+                    Log.d(TAG, "Duplicate SMS from " + message.sender + " dropped in scope " + subscription.scope);
+                    continue;
+                }
+                fresh.add(message);
+            }
+            if (fresh.isEmpty()) continue;
+            try {
+                subscription.subscriber.onMessages(Collections.unmodifiableList(fresh));
+            } catch (Exception e) {
+                // One failing consumer must not starve the others
+                Log.e(TAG, "Subscriber failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void register() {
+        receiver = new SmsBroadcastReceiver();
+        IntentFilter filter = new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            context.registerReceiver(receiver, filter, null, PipelineThread.get(), Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(receiver, filter, null, PipelineThread.get());
+        }
+        Log.d(TAG, "SMS receiver registered");
+    }
+
+    private void unregister() {
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Receiver was not registered: " + e.getMessage());
+        }
+        receiver = null;
+        Log.d(TAG, "SMS receiver unregistered");
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped inbox for SMS received while the app is in the background.
+ *
+ * The receiver appends records straight into a mapped segment file, so they survive the process
+ * being killed before the service gets to them. {@link BackgroundService} is the only reader: it
+ * reads from a persisted cursor, keeps one batch out at a time and acknowledges or rewinds it before
+ * reading the next, so an acknowledgement never covers messages still in flight elsewhere. Fully
+ * acknowledged segments are deleted.
+ *
+ * Segment layout: a sequence of records {@code [int length][long timestamp][int n][sender][int m][body]}.
+ * The length is written last, so a record torn by a kill reads as length 0 (end of data). A length of
+ * -1 marks the end of a segment that was rolled over. Each append zeroes the length slot after its
+ * record, and a length or string size that does not fit is read as end of data too, so leftovers of a
+ * torn write are never taken for a record.
+ */
+public final class SmsJournal {
+    private static final String TAG = "SmsJournal";
+    private static final String DIRECTORY = "sms_journal";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_BODY_CHARS = 16 * 1024;
+    private static final int END_OF_SEGMENT = -1;
+    private static final int MIN_RECORD = 8 + 4 + 4;
+
+    private static SmsJournal instance;
+
+    /** Messages read from the journal and the cursor to acknowledge once they are handled. */
+    public static final class Batch {
+        static final Batch EMPTY = new Batch(Collections.<Record>emptyList(), 0);
+
+        public final List<Record> records;
+        final long endCursor;
+
+        Batch(List<Record> records, long endCursor) {
+            this.records = records;
+            this.endCursor = endCursor;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    public static final class Record {
+        public final String sender;
+        public final String body;
+        public final long timestamp;
+
+        Record(String sender, String body, long timestamp) {
+            this.sender = sender;
+            this.body = body;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final File directory;
+    private final MappedByteBuffer cursorBuffer;
+    private int writeSegment;
+    private MappedByteBuffer writeBuffer;
+    // Acknowledged position (persisted) and read position (in memory, ahead of it)
+    private long ackCursor;
+    private long readCursor;
+
+    public static synchronized SmsJournal get(Context context) {
+        if (instance == null) {
+            try {
+                instance = new SmsJournal(new File(context.getApplicationContext().getNoBackupFilesDir(), DIRECTORY));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open SMS journal", e);
+            }
+        }
+        return instance;
+    }
+
+    SmsJournal(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        cursorBuffer = map(new File(directory, CURSOR_FILE), 8);
+        ackCursor = cursorBuffer.getLong(0);
+        readCursor = ackCursor;
+
+        int[] segments = listSegments();
+        writeSegment = segments.length > 0 ? segments[segments.length - 1] : segmentOf(ackCursor);
+        writeBuffer = mapSegment(writeSegment);
+        writeBuffer.position(scanEnd(writeBuffer));
+        Log.d(TAG, "Opened journal at segment " + writeSegment + ", offset " + writeBuffer.position()
+                + ", cursor " + segmentOf(ackCursor) + ":" + offsetOf(ackCursor));
+    }
+
+    /** Appends one message. Cheap enough to call from the broadcast thread. */
+    public synchronized void append(String sender, String body, long timestamp) {
+        if (body != null && body.length() > MAX_BODY_CHARS) {
+            body = body.substring(0, MAX_BODY_CHARS);
+        }
+        byte[] senderBytes = sender != null ? sender.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] bodyBytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = 8 + 4 + senderBytes.length + 4 + bodyBytes.length;
+
+        try {
+            if (writeBuffer.remaining() < 4 + length + 4) {
+                rollSegment();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to roll journal segment: " + e.getMessage());
+            return;
+        }
+
+        int start = writeBuffer.position();
+        writeBuffer.position(start + 4);
+        writeBuffer.putLong(timestamp);
+        writeBuffer.putInt(senderBytes.length);
+        writeBuffer.put(senderBytes);
+        writeBuffer.putInt(bodyBytes.length);
+        writeBuffer.put(bodyBytes);
+        // A record torn here before may have left bytes in the next slot; clear it before committing
+        writeBuffer.putInt(start + 4 + length, 0);
+        // Commit: the length makes the record visible to readers
+        writeBuffer.putInt(start, length);
+    }
+
+    /** Returns everything appended since the last read, without acknowledging it. */
+    public synchronized Batch read() {
+        List<Record> records = new ArrayList<>();
+        int segment = segmentOf(readCursor);
+        int offset = offsetOf(readCursor);
+        try {
+            while (true) {
+                ByteBuffer buffer = segment == writeSegment ? writeBuffer.duplicate() : mapSegment(segment);
+                int limit = buffer.capacity();
+                while (offset + 4 <= limit) {
+                    int length = buffer.getInt(offset);
+                    Record record = readRecord(buffer, offset, length);
+                    if (record == null) break;
+                    records.add(record);
+                    offset += 4 + length;
+                }
+                if (segment >= writeSegment) break;
+                segment++;
+                offset = 0;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal segment " + segment + ": " + e.getMessage());
+        }
+        readCursor = cursor(segment, offset);
+        return new Batch(records, readCursor);
+    }
+
+    /** Persists the cursor past {@code batch} and deletes segments that are fully consumed. */
+    public synchronized void acknowledge(Batch batch) {
+        if (batch.endCursor <= ackCursor) return;
+        ackCursor = batch.endCursor;
+        cursorBuffer.putLong(0, ackCursor);
+        compact();
+    }
+
+    /** Re-delivers everything not yet acknowledged, e.g. after a consumer failed. */
+    public synchronized void rewind() {
+        readCursor = ackCursor;
+    }
+
+    public synchronized boolean hasUnread() {
+        int offset = offsetOf(readCursor);
+        if (segmentOf(readCursor) < writeSegment) return true;
+        ByteBuffer buffer = writeBuffer.duplicate();
+        return offset + 4 <= buffer.capacity() && readRecord(buffer, offset, buffer.getInt(offset)) != null;
+    }
+
+    private void rollSegment() throws IOException {
+        writeBuffer.putInt(writeBuffer.position(), END_OF_SEGMENT);
+        writeSegment++;
+        writeBuffer = mapSegment(writeSegment);
+    }
+
+    private void compact() {
+        int keepFrom = segmentOf(ackCursor);
+        for (int segment : listSegments()) {
+            if (segment < keepFrom && !segmentFile(segment).delete()) {
+                Log.w(TAG, "Could not delete journal segment " + segment);
+            }
+        }
+    }
+
+    /** The record committed at {@code offset} with {@code length}, or null where the data ends. */
+    private static Record readRecord(ByteBuffer buffer, int offset, int length) {
+        if (length < MIN_RECORD || length > buffer.capacity() - offset - 4) return null;
+        buffer.limit(offset + 4 + length);
+        buffer.position(offset + 4);
+        long timestamp = buffer.getLong();
+        String sender = readString(buffer);
+        String body = sender != null ? readString(buffer) : null;
+        buffer.limit(buffer.capacity());
+        return body != null ? new Record(sender, body, timestamp) : null;
+    }
+
+    // Null when the size does not fit in what is left of the record
+    private static String readString(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) return null;
+        int n = buffer.getInt();
+        if (n < 0 || n > buffer.remaining()) return null;
+        byte[] bytes = new byte[n];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** First offset that does not hold a committed record. */
+    private static int scanEnd(ByteBuffer buffer) {
+        int offset = 0;
+        while (offset + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) return buffer.capacity();
+            if (readRecord(buffer, offset, length) == null) break;
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) return new int[0];
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments[count++] = Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private MappedByteBuffer mapSegment(int segment) throws IOException {
+        return map(segmentFile(segment), SEGMENT_SIZE);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long cursor(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentOf(long cursor) {
+        return (int) (cursor >>> 32);
+    }
+
+    private static int offsetOf(long cursor) {
+        return (int) cursor;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.newton;
+
+import android.telephony.SmsMessage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Joins the PDUs of concatenated (multipart) SMS back into whole messages.
+ *
+ * Parts are grouped by sender and the concatenation reference from the PDU's user data header.
+ * Incomplete groups wait in a bounded buffer for at most {@link #PART_TIMEOUT_MS}; when they expire
+ * or the buffer is full, whatever arrived is emitted so a payment SMS is never dropped outright.
+ * The owner calls {@link #takeExpired} at {@link #nextExpiryAt}, so expiry does not wait for the
+ * next broadcast.
+ * PDUs without a readable header that arrive in the same broadcast from the same sender are
+ * joined in order, which is how Android delivers a multipart message.
+ *
+ * {@link SmsIngestionHub} owns the only instance; instances are not thread-safe.
+ */
+public class SmsReassembler {
+    private static final long PART_TIMEOUT_MS = 60 * 1000;
+    private static final int MAX_PENDING_GROUPS = 32;
+
+    /** A whole logical SMS. */
+    public static final class Message {
+        public final String sender;
+        public final String body;
+        public final long timestamp;
+        public final int parts;
+
+        Message(String sender, String body, long timestamp, int parts) {
+            this.sender = sender;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.parts = parts;
+        }
+    }
+
+    private static final class Group {
+        final String sender;
+        final String[] parts;
+        final long createdAt;
+        long timestamp = Long.MAX_VALUE;
+        int received;
+
+        Group(String sender, int total, long createdAt) {
+            this.sender = sender;
+            this.parts = new String[total];
+            this.createdAt = createdAt;
+        }
+
+        Message toMessage() {
+            StringBuilder body = new StringBuilder();
+            for (String part : parts) {
+                if (part != null) body.append(part);
+            }
+            return new Message(sender, body.toString(), timestamp, received);
+        }
+    }
+
+    private final LinkedHashMap<String, Group> pending = new LinkedHashMap<>();
+
+    /** Adds the PDUs of one broadcast and returns every message that is now complete. */
+    public List<Message> add(SmsMessage[] pdus) {
+        long now = System.currentTimeMillis();
+        List<Message> complete = new ArrayList<>();
+        expire(now, complete);
+
+        Group unheadered = null;
+        for (SmsMessage sms : pdus) {
+            if (sms == null) continue;
+            String sender = sms.getOriginatingAddress();
+            String body = sms.getMessageBody();
+            long timestamp = sms.getTimestampMillis();
+            int[] concat = readConcatHeader(sms.getPdu());
+
+            if (concat == null || concat[1] <= 1) {
+                // No header: join consecutive PDUs from the same sender within this broadcast
+                if (unheadered != null && !sameSender(unheadered.sender, sender)) {
+                    complete.add(unheadered.toMessage());
+                    unheadered = null;
+                }
+                if (unheadered == null) {
+                    unheadered = new Group(sender, 1, now);
+                    unheadered.parts[0] = "";
+                }
+                unheadered.parts[0] += body != null ? body : "";
+                unheadered.timestamp = Math.min(unheadered.timestamp, timestamp);
+                unheadered.received++;
+                continue;
+            }
+
+            String key = sender + '#' + concat[0] + '#' + concat[1];
+            Group group = pending.get(key);
+            if (group == null) {
+                if (pending.size() >= MAX_PENDING_GROUPS) {
+                    evictOldest(complete);
+                }
+                group = new Group(sender, concat[1], now);
+                pending.put(key, group);
+            }
+            int index = concat[2] - 1;
+            if (index >= 0 && index < group.parts.length && group.parts[index] == null) {
+                group.parts[index] = body != null ? body : "";
+                group.received++;
+                group.timestamp = Math.min(group.timestamp, timestamp);
+            }
+            if (group.received == group.parts.length) {
+                pending.remove(key);
+                complete.add(group.toMessage());
+            }
+        }
+        if (unheadered != null) {
+            complete.add(unheadered.toMessage());
+        }
+        return complete;
+    }
+
+    public int pendingGroups() {
+        return pending.size();
+    }
+
+    /** Removes and returns the incomplete groups that have waited out {@link #PART_TIMEOUT_MS}. */
+    public List<Message> takeExpired() {
+        List<Message> expired = new ArrayList<>();
+        expire(System.currentTimeMillis(), expired);
+        return expired;
+    }
+
+    /** Wall-clock time the oldest incomplete group expires, or -1 when none is waiting. */
+    public long nextExpiryAt() {
+        Iterator<Group> it = pending.values().iterator();
+        return it.hasNext() ? it.next().createdAt + PART_TIMEOUT_MS : -1;
+    }
+
+    private void expire(long now, List<Message> out) {
+        Iterator<Map.Entry<String, Group>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Group group = it.next().getValue();
+            if (now - group.createdAt < PART_TIMEOUT_MS) break; // insertion order is age order
+            it.remove();
+            out.add(group.toMessage());
+        }
+    }
+
+    private void evictOldest(List<Message> out) {
+        Iterator<Map.Entry<String, Group>> it = pending.entrySet().iterator();
+        if (it.hasNext()) {
+            out.add(it.next().getValue().toMessage());
+            it.remove();
+        }
+    }
+
+    private static boolean sameSender(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Reads the concatenation element of a 3GPP SMS-DELIVER PDU (with leading SMSC address).
+     * Returns {reference, total, sequence}, or null when the PDU has no such header or cannot be read.
+     */
+    static int[] readConcatHeader(byte[] pdu) {
+        if (pdu == null || pdu.length < 2) return null;
+        try {
+            int p = 1 + (pdu[0] & 0xff);             // skip SMSC address
+            int firstOctet = pdu[p++] & 0xff;
+            if ((firstOctet & 0x03) != 0 || (firstOctet & 0x40) == 0) return null; // not DELIVER or no UDH
+            int addressDigits = pdu[p++] & 0xff;
+            p += 1 + (addressDigits + 1) / 2;        // type of address + BCD digits
+            p += 1 + 1 + 7;                          // PID, DCS, service centre timestamp
+            p += 1;                                  // user data length
+            int headerLength = pdu[p++] & 0xff;
+            int end = p + headerLength;
+            if (end > pdu.length) return null;
+            while (p + 1 < end) {
+                int iei = pdu[p] & 0xff;
+                int length = pdu[p + 1] & 0xff;
+                int data = p + 2;
+                if (iei == 0x00 && length == 3) {
+                    return new int[] {pdu[data] & 0xff, pdu[data + 1] & 0xff, pdu[data + 2] & 0xff};
+                }
+                if (iei == 0x08 && length == 4) {
+                    int reference = ((pdu[data] & 0xff) << 8) | (pdu[data + 1] & 0xff);
+                    return new int[] {reference, pdu[data + 2] & 0xff, pdu[data + 3] & 0xff};
+                }
+                p = data + length;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Malformed or non-3GPP PDU: treat as unheadered
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.newton;
+
+import android.content.SharedPreferences;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled, cached confirmation SMS templates.
+ *
+ * Templates are read from SharedPreferences, falling back to the {@link SmsTemplateCatalog}
+ * defaults, and compiled on first use; a change listener drops the cached copy as soon as the
+ * operator edits one, so every send after that uses the new text.
+ */
+public class SmsTemplateEngine implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private final SharedPreferences sharedPreferences;
+    private final Map<String, SmsTemplate> cache = new ConcurrentHashMap<>();
+
+    public SmsTemplateEngine(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+        sharedPreferences.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /** Compiled template for a result type such as "USSD_SUCCESS" or "NO_OFFER". */
+    public SmsTemplate template(String type) {
+        String key = SmsTemplateCatalog.preferenceKey(type);
+        if (key == null) {
+            return SmsTemplate.compile(SmsTemplateCatalog.UNKNOWN_TYPE_MESSAGE);
+        }
+        SmsTemplate template = cache.get(key);
+        if (template == null) {
+            template = SmsTemplate.compile(sharedPreferences.getString(key, SmsTemplateCatalog.defaultTemplate(key)));
+            cache.put(key, template);
+        }
+        return template;
+    }
+
+    public SmsTemplate.Rendered render(String type, Map<String, Object> transaction) {
+        return template(type).render(transaction);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (key == null) {
+            cache.clear(); // preferences were cleared
+        } else {
+            cache.remove(key);
+        }
+    }
+
+    public void close() {
+        sharedPreferences.unregisterOnSharedPreferenceChangeListener(this);
+        cache.clear();
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.newton;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTableLockedException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Native writer for the {@code messages} and {@code transactions} tables Dart reads through sqflite.
+ *
+ * Incoming SMS and USSD outcomes are recorded here as they happen, whether or not Dart is
+ * running. Writes are queued to the ledger's own thread and group-committed: the first row of a
+ * batch waits up to {@link #COMMIT_WINDOW_MS} for others, then the whole batch goes in as one WAL
+ * transaction through precompiled inserts. The schema matches {@code database_helper.dart}, which
+ * owns {@code user_version} and migrations.
+ *
+ * A batch that meets a busy or locked database is retried whole. Any other error reopens the
+ * database, recompiling the statements, and commits the rows one at a time, dropping those that
+ * still fail, so one bad row or a changed schema cannot stall every later write.
+ */
+public final class TransactionLedger {
+    private static final String TAG = "TransactionLedger";
+    private static final String DATABASE_NAME = "ussd_app.db";
+    private static final long COMMIT_WINDOW_MS = 50;
+    private static final int MAX_BATCH = 64;
+    // Rows held while the database stays locked; the oldest are dropped beyond this
+    private static final int MAX_PENDING = 4096;
+    private static final long RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 60 * 1000;
+    // Failed commits before the log turns from warnings to errors
+    private static final int RETRIES_BEFORE_ERROR = 5;
+
+    private static final String CREATE_MESSAGES = "CREATE TABLE IF NOT EXISTS messages("
+            + "id INTEGER PRIMARY KEY AUTOINCREMENT, sender TEXT, body TEXT, timestamp INTEGER, "
+            + "extractedName TEXT, extractedAmount REAL, extractedPhoneNumber TEXT, purchasedOffer TEXT, "
+            + "status TEXT DEFAULT 'pending')";
+    private static final String CREATE_TRANSACTIONS = "CREATE TABLE IF NOT EXISTS transactions("
+            + "id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, amount REAL, phoneNumber TEXT, "
+            + "isSuccess INTEGER, timestamp INTEGER)";
+
+    private static TransactionLedger instance;
+
+    public interface CommitListener {
+        /** Called on the ledger thread after {@code rows} rows became visible to readers. */
+        void onCommitted(int rows);
+    }
+
+    // One queued insert, run inside the batch's transaction on the ledger thread
+    private interface Row {
+        void insert();
+    }
+
+    private final Context context;
+    private final Handler worker;
+    private final Runnable flush = this::flush;
+    private final SmsIngestionHub.Subscriber smsSubscriber = this::appendMessages;
+    private volatile CommitListener listener;
+
+    // Ledger thread only
+    private final List<Row> pending = new ArrayList<>();
+    private SQLiteDatabase database;
+    private SQLiteStatement insertMessage;
+    private SQLiteStatement insertTransaction;
+    private SQLiteStatement reviseTransaction;
+    private boolean messageHasExtractedFields;
+    private int failedFlushes;
+
+    /** The ledger subscribes to incoming SMS on creation and stays subscribed for the process lifetime. */
+    public static synchronized TransactionLedger get(Context context) {
+        if (instance == null) {
+            instance = new TransactionLedger(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransactionLedger(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("TransactionLedger", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        worker = new Handler(thread.getLooper());
+        // Every sender, as Dart stored every received SMS before the ledger took over
+        SmsIngestionHub.get(context).subscribe(smsSubscriber, SmsDedupe.SCOPE_LEDGER, false);
+    }
+
+    /** Told after each commit, so the UI can reload; null to stop. */
+    public void setCommitListener(CommitListener listener) {
+        this.listener = listener;
+    }
+
+    /** Records the outcome of a USSD purchase for {@code transaction}; a no-op without one. */
+    public void recordOutcome(Map<String, Object> transaction, boolean isSuccess) {
+        if (transaction == null) return;
+        String name = stringOf(transaction.get("extractedName"));
+        String phoneNumber = stringOf(transaction.get("extractedPhoneNumber"));
+        Object amountValue = transaction.get("extractedAmount");
+        double amount = amountValue instanceof Number ? ((Number) amountValue).doubleValue() : 0;
+        long timestamp = System.currentTimeMillis();
+        append(() -> {
+            // Dart's Transactions.fromMap expects non-null name and phone number
+            insertTransaction.bindString(1, name);
+            insertTransaction.bindDouble(2, amount);
+            insertTransaction.bindString(3, phoneNumber);
+            insertTransaction.bindLong(4, isSuccess ? 1 : 0);
+            insertTransaction.bindLong(5, timestamp);
+            insertTransaction.executeInsert();
+        });
+    }
+
+    /**
+     * Marks the first failed row for {@code transaction}'s number written since {@code since} as a
+     * success: a timed-out purchase whose reply came late.
+     */
+    public void reviseToSuccess(Map<String, Object> transaction, long since) {
+        if (transaction == null) return;
+        String phoneNumber = stringOf(transaction.get("extractedPhoneNumber"));
+        append(() -> {
+            reviseTransaction.bindString(1, phoneNumber);
+            reviseTransaction.bindLong(2, since);
+            reviseTransaction.executeUpdateDelete();
+        });
+    }
+
+    // Pipeline thread; payments carry their parsed fields as Dart would have extracted them
+    private void appendMessages(List<SmsIngestionHub.Message> messages) {
+        for (SmsIngestionHub.Message message : messages) {
+            append(() -> {
+                insertMessage.clearBindings();
+                bindNullable(insertMessage, 1, message.sender);
+                bindNullable(insertMessage, 2, message.body);
+                insertMessage.bindLong(3, message.timestamp);
+                if (messageHasExtractedFields && message.payment != null) {
+                    bindNullable(insertMessage, 4, message.payment.name);
+                    insertMessage.bindDouble(5, message.payment.amountCents / 100.0);
+                    bindNullable(insertMessage, 6, message.payment.phoneNumber);
+                }
+                insertMessage.executeInsert();
+            });
+        }
+    }
+
+    private void append(Row row) {
+        worker.post(() -> {
+            if (pending.size() >= MAX_PENDING) {
+                pending.remove(0);
+                Log.e(TAG, "Ledger backlog full at " + MAX_PENDING + " rows, dropped the oldest");
+            }
+            pending.add(row);
+            // While commits fail, rows pile up for the scheduled retry instead of forcing one each
+            if (pending.size() >= MAX_BATCH && failedFlushes == 0) {
+                flush();
+            } else if (pending.size() == 1 && failedFlushes == 0) {
+                worker.postDelayed(flush, COMMIT_WINDOW_MS);
+            }
+        });
+    }
+
+    // Ledger thread. Commits everything pending in one transaction; while the database is busy the
+    // batch stays queued and is retried with a growing delay, so lock contention delays rows but never loses them
+    private void flush() {
+        worker.removeCallbacks(flush);
+        if (pending.isEmpty()) return;
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        int rows = pending.size();
+        try {
+            try {
+                commitBatch();
+            } catch (SQLiteException e) {
+                if (isBusy(e)) throw e;
+                // Full disk, a schema Dart changed under the statements, corruption: salvage what we can
+                Log.e(TAG, "Commit of " + rows + " rows failed, committing them one at a time", e);
+                close();
+                rows = commitEach();
+            }
+        } catch (SQLiteException e) {
+            // Dart holding the write lock past the busy timeout
+            long delay = Math.min(RETRY_MS << Math.min(failedFlushes, 6), MAX_RETRY_MS);
+            if (++failedFlushes < RETRIES_BEFORE_ERROR) {
+                Log.w(TAG, "Commit of " + pending.size() + " rows failed, retrying in " + delay + " ms: " + e.getMessage());
+            } else {
+                Log.e(TAG, "Commit of " + pending.size() + " rows failed " + failedFlushes + " times, retrying in "
+                        + delay + " ms", e);
+            }
+            worker.postDelayed(flush, delay);
+            return;
+        }
+        failedFlushes = 0;
+        pending.clear();
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.recordNanos(PipelineMetrics.LEDGER_COMMIT, SystemClock.elapsedRealtimeNanos() - startedAt);
+        metrics.add(PipelineMetrics.LEDGER_ROWS, rows);
+        CommitListener current = listener;
+        if (current != null) current.onCommitted(rows);
+    }
+
+    private void commitBatch() {
+        SQLiteDatabase db = open();
+        // Dart may have migrated the table since the fallback was compiled
+        if (!messageHasExtractedFields) compileInsertMessage(db);
+        db.beginTransactionNonExclusive();
+        try {
+            for (Row row : pending) row.insert();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Each row in its own implicit transaction; rows that fail for any reason but a busy database are
+    // dropped. Returns how many were committed; a busy database leaves the rest queued for the retry.
+    private int commitEach() {
+        int committed = 0;
+        for (Iterator<Row> it = pending.iterator(); it.hasNext(); ) {
+            Row row = it.next();
+            try {
+                open();
+                row.insert();
+                committed++;
+            } catch (SQLiteException e) {
+                if (isBusy(e)) throw e;
+                Log.e(TAG, "Dropping a ledger row the database rejects: " + e.getMessage());
+            }
+            it.remove();
+        }
+        return committed;
+    }
+
+    private static boolean isBusy(SQLiteException e) {
+        return e instanceof SQLiteDatabaseLockedException || e instanceof SQLiteTableLockedException;
+    }
+
+    // The next open() starts over and compiles the statements against the current schema
+    private void close() {
+        if (database == null) return;
+        try {
+            database.close();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Failed to close " + DATABASE_NAME + ": " + e.getMessage());
+        }
+        database = null;
+        insertMessage = null;
+        insertTransaction = null;
+        reviseTransaction = null;
+        messageHasExtractedFields = false;
+    }
+
+    private SQLiteDatabase open() {
+        if (database != null) return database;
+        File path = context.getDatabasePath(DATABASE_NAME);
+        File directory = path.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+        }
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path.getPath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        // Whoever opens the file first creates the tables; Dart's onCreate does the same
+        db.execSQL(CREATE_MESSAGES);
+        db.execSQL(CREATE_TRANSACTIONS);
+        compileInsertMessage(db);
+        insertTransaction = db.compileStatement("INSERT INTO transactions(name, amount, phoneNumber, isSuccess, "
+                + "timestamp) VALUES (?, ?, ?, ?, ?)");
+        reviseTransaction = db.compileStatement("UPDATE transactions SET isSuccess = 1 WHERE id = (SELECT id "
+                + "FROM transactions WHERE phoneNumber = ? AND isSuccess = 0 AND timestamp >= ? ORDER BY timestamp LIMIT 1)");
+        database = db;
+        Log.d(TAG, "Opened " + path + " in WAL mode");
+        return db;
+    }
+
+    // The full insert once the table has the extracted columns, else the pre-v3 fallback
+    private void compileInsertMessage(SQLiteDatabase db) {
+        try {
+            SQLiteStatement full = db.compileStatement("INSERT INTO messages(sender, body, timestamp, extractedName, "
+                    + "extractedAmount, extractedPhoneNumber) VALUES (?, ?, ?, ?, ?, ?)");
+            if (insertMessage != null) insertMessage.close();
+            insertMessage = full;
+            messageHasExtractedFields = true;
+        } catch (SQLiteException e) {
+            // A pre-v3 schema Dart has not upgraded yet
+            if (insertMessage == null) {
+                insertMessage = db.compileStatement("INSERT INTO messages(sender, body, timestamp) VALUES (?, ?, ?)");
+            }
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static String stringOf(Object value) {
+        return value != null ? value.toString() : "";
+    }
+}
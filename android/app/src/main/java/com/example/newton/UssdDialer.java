@@ -1,11 +1,6 @@
 package com.example.newton;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import java.util.List;
@@ -14,55 +9,90 @@ import io.flutter.plugin.common.MethodChannel;
 
 public class UssdDialer {
     private static final String TAG = "UssdDialer";
+    private static final long TIMEOUT_MS = 45 * 1000;
 
-    public static void dialUssd(Context context, String ussdCode, int simSlot, MethodChannel.Result result, MethodChannel ussdMethodChannel) {
-        try {
-            SubscriptionManager subscriptionManager = SubscriptionManager.from(context);
-            List<SubscriptionInfo> subscriptionInfoList = subscriptionManager.getActiveSubscriptionInfoList();
+    // One dial; whichever of response or failure comes first reports it. The deadline reports an error
+    // but leaves the session open, so a reply that comes late still reaches Flutter
+    private static final class Session extends DeadlineWheel.Entry {
+        final MethodChannel ussdMethodChannel;
+        private boolean resolved;
+        private boolean timedOut;
 
-            if (subscriptionInfoList == null || simSlot >= subscriptionInfoList.size()) {
-                result.error("SIM_ERROR", "Invalid SIM slot: " + simSlot, null);
-                return;
+        Session(MethodChannel ussdMethodChannel) {
+            this.ussdMethodChannel = ussdMethodChannel;
+        }
+
+        synchronized boolean resolve() {
+            if (resolved) return false;
+            resolved = true;
+            NativePipeline.deadlines().cancel(this);
+            return true;
+        }
+
+        synchronized boolean timeOut() {
+            if (resolved || timedOut) return false;
+            timedOut = true;
+            return true;
+        }
+
+        synchronized boolean isTimedOut() {
+            return timedOut;
+        }
+
+        // Callbacks come in on the pipeline or wheel thread; only the channel call needs the main thread
+        void report(String method, String message) {
+            if (ussdMethodChannel != null) {
+                PipelineThread.toMain(() -> ussdMethodChannel.invokeMethod(method, message));
             }
+        }
+    }
 
-            SubscriptionInfo simInfo = subscriptionInfoList.get(simSlot);
-            int subId = simInfo.getSubscriptionId();
+    private static final DeadlineWheel.Expiry TIMEOUT = entry -> {
+        Session session = (Session) entry;
+        if (session.timeOut()) {
+            session.report("onUssdError", "USSD timed out after " + (TIMEOUT_MS / 1000) + "s");
+        }
+    };
 
-            TelephonyManager baseManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-            TelephonyManager simTelephonyManager = baseManager.createForSubscriptionId(subId);
+    public static void dialUssd(Context context, String ussdCode, int simSlot, MethodChannel.Result result, MethodChannel ussdMethodChannel) {
+        Session session = new Session(ussdMethodChannel);
+        try {
+            AndroidTelephony telephony = AndroidTelephony.get(context);
+            List<SimDirectory.Sim> sims = telephony.activeSims();
 
-            if (simTelephonyManager == null) {
-                result.error("TELEPHONY_MANAGER_NULL", "No TelephonyManager for SIM slot: " + simSlot, null);
+            if (simSlot >= sims.size()) {
+                result.error("SIM_ERROR", "Invalid SIM slot: " + simSlot, null);
                 return;
             }
 
-            simTelephonyManager.sendUssdRequest(
+            int subId = sims.get(simSlot).subscriptionId;
+
+            NativePipeline.deadlines().schedule(session, TIMEOUT_MS, TIMEOUT);
+            telephony.sendUssdRequest(
+                subId,
                 ussdCode,
-                new TelephonyManager.UssdResponseCallback() {
+                new UssdGateway.Callback() {
                     @Override
-                    public void onReceiveUssdResponse(TelephonyManager tm, String request, CharSequence response) {
-                        new Handler(Looper.getMainLooper()).post(() -> {
-                            if (ussdMethodChannel != null) {
-                                ussdMethodChannel.invokeMethod("onUssdResponse", response.toString());
-                            }
-                        });
+                    public void onResponse(CharSequence response) {
+                        if (session.resolve()) {
+                            session.report("onUssdResponse", response.toString());
+                        }
                     }
 
                     @Override
-                    public void onReceiveUssdResponseFailed(TelephonyManager tm, String request, int failureCode) {
-                        new Handler(Looper.getMainLooper()).post(() -> {
-                            if (ussdMethodChannel != null) {
-                                ussdMethodChannel.invokeMethod("onUssdError", "USSD failed (code " + failureCode + ")");
-                            }
-                        });
+                    public void onFailure(int failureCode) {
+                        // After a timeout Flutter already has its error
+                        if (session.resolve() && !session.isTimedOut()) {
+                            session.report("onUssdError", "USSD failed (code " + failureCode + ")");
+                        }
                     }
-                },
-                new Handler(Looper.getMainLooper())
+                }
             );
 
             result.success("USSD triggered via SIM " + simSlot);
         } catch (Exception e) {
             Log.e(TAG, "USSD dial failed: " + e.getMessage(), e);
+            session.resolve();
             result.error("USSD_DIAL_FAILED", "Could not dial USSD: " + e.getMessage(), null);
         }
     }
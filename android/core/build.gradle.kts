@@ -0,0 +1,51 @@
+plugins {
+    `java-library`
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+group = "com.example.newton"
+version = "1.0"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
+
+// Same bytecode level as android/app
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(8)
+    options.encoding = "UTF-8"
+}
+
+// ./gradlew -p core test  (or: gradle -p android/core test)
+tasks.test {
+    useJUnit()
+}
+
+// ./gradlew -p core jmh  (or: gradle -p android/core jmh)
+// Narrow the run with -PjmhInclude=Keyword; results land in build/results/jmh/results.json
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    (project.findProperty("jmhInclude") as String?)?.let { includes.set(listOf(it)) }
+}
+
+// Synthetic end-to-end load on simulated SIMs; see LoadGenerator for the options
+//   gradle -p android/core loadTest --args="--rate 5 --duration 120 --sims 2"
+val loadtest by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Replays M-Pesa SMS bursts through the pipeline on simulated telephony."
+    classpath = loadtest.runtimeClasspath
+    mainClass.set("com.example.newton.LoadGenerator")
+}
@@ -0,0 +1,3 @@
+// Plain JVM build so the core logic and its benchmarks run without the Android SDK or Flutter.
+// android/settings.gradle.kts includes it for the app.
+rootProject.name = "core"
@@ -0,0 +1,51 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Recording an outcome and taking a snapshot after {@code history} purchases; neither should grow with it. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BusinessStatsBenchmark {
+    private static final long[] AMOUNTS = {2000, 5000, 9900, 25000, 102000};
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    @Param({"1000", "1000000"})
+    int history;
+
+    private BusinessStats stats;
+    private long now;
+    private int sequence;
+
+    @Setup
+    public void setUp() {
+        stats = new BusinessStats(ByteBuffer.allocateDirect(BusinessStats.BUFFER_SIZE));
+        // One purchase a minute, spread over SIMs, offers and outcomes
+        now = 1792230060000L - history * MINUTE_MS;
+        for (int i = 0; i < history; i++) {
+            stats.record(i % 4, 1 + i % 2, AMOUNTS[i % AMOUNTS.length], now);
+            now += MINUTE_MS;
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        int i = sequence++;
+        stats.record(i % 4, 1 + i % 2, AMOUNTS[i % AMOUNTS.length], now);
+    }
+
+    @Benchmark
+    public Map<String, Object> snapshot() {
+        return stats.snapshot(now);
+    }
+}
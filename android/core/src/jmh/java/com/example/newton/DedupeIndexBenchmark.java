@@ -0,0 +1,59 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Dedupe keys and lookups on a direct buffer, the heap-side stand-in for the memory-mapped file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DedupeIndexBenchmark {
+    private static final String SENDER = "MPESA";
+    private static final String BODY = "TJK4ABCD12 Confirmed.on 17/10/26 at 9:41 AM Ksh1,020.00 received from "
+            + "254712345678 JOHN KAMAU MWANGI. New Account balance is Ksh15,230.00.";
+
+    @Param({"4096"})
+    int capacity;
+
+    private DedupeIndex index;
+    private long present;
+    private long next;
+
+    @Setup
+    public void setUp() {
+        index = new DedupeIndex(ByteBuffer.allocateDirect(DedupeIndex.bufferSize(capacity)), capacity);
+        // Fill to the steady state of a ring that has wrapped
+        for (long i = 1; i <= capacity; i++) index.claim(DedupeIndex.mix(i));
+        present = DedupeIndex.mix(capacity);
+        next = capacity;
+    }
+
+    @Benchmark
+    public long hashMessage() {
+        return DedupeIndex.hash(SENDER, BODY, "1792230060000");
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return index.contains(present);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return index.contains(DedupeIndex.mix(-1));
+    }
+
+    // A new key each call, evicting the oldest
+    @Benchmark
+    public boolean claimNew() {
+        return index.claim(DedupeIndex.mix(++next));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** USSD response classification, with the app's default keywords and with a long operator list. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeywordMatcherBenchmark {
+    private static final String SUCCESS_RESPONSE =
+            "You have successfully purchased 1GB valid for 1 hour for 0712345678. Dial *544# to check balance.";
+    private static final String FAILURE_RESPONSE =
+            "Dear customer, your request could not be completed due to insufficient balance. Please try again.";
+    private static final String UNMATCHED_RESPONSE =
+            "Your request is being processed. You will receive an SMS confirmation shortly. Thank you for using Safaricom.";
+
+    @Param({"3", "30"})
+    int keywordsPerCategory;
+
+    private KeywordMatcher matcher;
+
+    @Setup
+    public void setUp() {
+        List<String> success = keywords(keywordsPerCategory, "activated", "successfully", "purchased");
+        List<String> failure = keywords(keywordsPerCategory, "failed", "insufficient", "error");
+        matcher = KeywordMatcher.compile(success, failure, null);
+    }
+
+    @Benchmark
+    public KeywordMatcher.Match success() {
+        return matcher.classify(SUCCESS_RESPONSE);
+    }
+
+    @Benchmark
+    public KeywordMatcher.Match failure() {
+        return matcher.classify(FAILURE_RESPONSE);
+    }
+
+    // Worst case: the whole response is scanned
+    @Benchmark
+    public KeywordMatcher.Match unmatched() {
+        return matcher.classify(UNMATCHED_RESPONSE);
+    }
+
+    @Benchmark
+    public KeywordMatcher compile() {
+        return KeywordMatcher.compile(keywords(keywordsPerCategory, "activated", "successfully", "purchased"),
+                keywords(keywordsPerCategory, "failed", "insufficient", "error"), null);
+    }
+
+    // The real keywords padded with operator-style phrases that share their prefixes
+    private static List<String> keywords(int count, String... real) {
+        List<String> list = new ArrayList<>(Arrays.asList(real));
+        for (int i = list.size(); i < count; i++) {
+            list.add(real[i % real.length] + " code " + i);
+        }
+        return list;
+    }
+}
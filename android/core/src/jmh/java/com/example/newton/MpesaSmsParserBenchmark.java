@@ -0,0 +1,42 @@
+package com.example.newton;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Payment recognition as done for every incoming SMS. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MpesaSmsParserBenchmark {
+    private static final String SENDER = "MPESA";
+    private static final String PAYMENT = "TJK4ABCD12 Confirmed.on 17/10/26 at 9:41 AM Ksh1,020.00 received from "
+            + "254712345678 JOHN KAMAU MWANGI. New Account balance is Ksh15,230.00. Transaction cost, Ksh0.00.";
+    private static final String NOT_A_PAYMENT = "TJK4ABCD13 Confirmed. Ksh50.00 sent to JANE WANJIKU 0798765432 "
+            + "on 17/10/26 at 9:45 AM. New M-PESA balance is Ksh15,180.00. Transaction cost, Ksh0.00.";
+
+    @Benchmark
+    public MpesaPayment parsePayment() {
+        return MpesaSmsParser.parse(SENDER, PAYMENT);
+    }
+
+    // Rejected early on the missing keyword
+    @Benchmark
+    public MpesaPayment parseOther() {
+        return MpesaSmsParser.parse(SENDER, NOT_A_PAYMENT);
+    }
+
+    @Benchmark
+    public String transactionCode() {
+        return MpesaSmsParser.parseTransactionCode(PAYMENT);
+    }
+
+    @Benchmark
+    public boolean relevantSender() {
+        return MpesaSmsParser.isRelevantSender("SAFARICOM");
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Confirmation SMS rendering with the stock templates. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SmsTemplateBenchmark {
+    private SmsTemplate success;
+    private SmsTemplate already;
+    private Map<String, Object> transaction;
+
+    @Setup
+    public void setUp() {
+        success = SmsTemplate.compile(SmsTemplateCatalog.DEFAULT_SUCCESS_TEMPLATE);
+        already = SmsTemplate.compile(SmsTemplateCatalog.DEFAULT_ALREADY_TEMPLATE);
+        transaction = new HashMap<>();
+        transaction.put("extractedName", "JOHN KAMAU MWANGI");
+        transaction.put("extractedAmount", 20.0);
+        transaction.put("extractedPhoneNumber", "0712345678");
+        transaction.put("purchasedOffer", "1GB 1hr");
+    }
+
+    @Benchmark
+    public SmsTemplate.Rendered renderSuccess() {
+        return success.render(transaction);
+    }
+
+    @Benchmark
+    public SmsTemplate.Rendered renderAlready() {
+        return already.render(transaction);
+    }
+
+    @Benchmark
+    public SmsTemplate compile() {
+        return SmsTemplate.compile(SmsTemplateCatalog.DEFAULT_SUCCESS_TEMPLATE);
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.newton;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays M-Pesa payment SMS at a fixed rate through the app's {@link PurchasePipeline} on
+ * {@link SimulatedTelephony} (see {@link LoadPipeline}) and reports throughput, queue depth and
+ * per-stage latency percentiles from {@link PipelineMetrics}.
+ *
+ * <pre>
+ * gradle -p android/core loadTest --args="--rate 5 --duration 120 --sims 2 --burst 10"
+ * </pre>
+ *
+ * Options, with defaults: {@code --rate 2} SMS/s, {@code --duration 60} s, {@code --burst 1} SMS per
+ * burst, {@code --sims 2}, {@code --ussd-latency 1500-4000} ms, {@code --sms-latency 300-1500} ms,
+ * {@code --failure-rate 0.02}, {@code --already-rate 0.1}, {@code --decline-rate 0.03},
+ * {@code --silence-rate 0.01} (sessions never answered), {@code --late-rate 0} and
+ * {@code --late-delay 60000} ms (successes that answer after that extra delay),
+ * {@code --ussd-timeout 45000} ms, {@code --retries 0} other SIMs after a carrier failure,
+ * {@code --sms-failure-rate 0.01},
+ * {@code --duplicate-rate 0.02} (redelivered SMS), {@code --ussd-per-minute 0} and
+ * {@code --ussd-burst 3}, {@code --sms-per-minute 0} and {@code --sms-burst 5} per SIM (0 is unpaced;
+ * the app defaults to 10 and 20), {@code --coalesce-window 0} ms, {@code --drain 300} s to wait for
+ * the backlog after the last SMS, {@code --seed 1}.
+ */
+public final class LoadGenerator {
+    private static final String SENDER = "MPESA";
+    private static final long[] AMOUNTS = {20, 50, 99, 250, 1020};
+    private static final String[] NAMES = {
+            "JOHN KAMAU MWANGI", "MARY WANJIKU", "PETER OTIENO", "GRACE ACHIENG ODHIAMBO", "JAMES KIPRONO", "FAITH MUTHONI"
+    };
+
+    private LoadGenerator() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parse(args);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "2"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int burst = Math.max(1, Integer.parseInt(options.getOrDefault("burst", "1")));
+        int simCount = Math.max(1, Integer.parseInt(options.getOrDefault("sims", "2")));
+        long[] ussdLatency = range(options.getOrDefault("ussd-latency", "1500-4000"));
+        long[] smsLatency = range(options.getOrDefault("sms-latency", "300-1500"));
+        double duplicateRate = Double.parseDouble(options.getOrDefault("duplicate-rate", "0.02"));
+        int drain = Integer.parseInt(options.getOrDefault("drain", "300"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+        SimulatedTelephony telephony = new SimulatedTelephony(simCount, seed)
+                .ussdLatency(ussdLatency[0], ussdLatency[1])
+                .ussdOutcomes(Double.parseDouble(options.getOrDefault("failure-rate", "0.02")),
+                        Double.parseDouble(options.getOrDefault("already-rate", "0.1")),
+                        Double.parseDouble(options.getOrDefault("decline-rate", "0.03")))
+                .ussdSilence(Double.parseDouble(options.getOrDefault("silence-rate", "0.01")))
+                .ussdLateReplies(Double.parseDouble(options.getOrDefault("late-rate", "0")),
+                        Long.parseLong(options.getOrDefault("late-delay", "60000")))
+                .smsLatency(smsLatency[0], smsLatency[1])
+                .smsFailureRate(Double.parseDouble(options.getOrDefault("sms-failure-rate", "0.01")));
+        CarrierPacer pacer = CarrierPacer.of(
+                new RateLimiter(Double.parseDouble(options.getOrDefault("ussd-per-minute", "0")),
+                        Integer.parseInt(options.getOrDefault("ussd-burst", "3"))),
+                new RateLimiter(Double.parseDouble(options.getOrDefault("sms-per-minute", "0")),
+                        Integer.parseInt(options.getOrDefault("sms-burst", "5"))));
+        LoadPipeline pipeline = new LoadPipeline(telephony, pacer,
+                Arrays.asList("activated", "successfully", "purchased"), Arrays.asList("failed", "insufficient", "error"),
+                Long.parseLong(options.getOrDefault("ussd-timeout", "45000")),
+                Integer.parseInt(options.getOrDefault("retries", "0")));
+        pipeline.configureCoalescing(Long.parseLong(options.getOrDefault("coalesce-window", "0")),
+                PurchasePipeline.DEFAULT_COALESCE_MAX_DELAY_MS);
+
+        System.out.printf(Locale.ROOT, "%.1f SMS/s in bursts of %d for %d s on %d SIM(s), USSD %d-%d ms%n",
+                rate, burst, duration, simCount, ussdLatency[0], ussdLatency[1]);
+        Random random = new Random(seed);
+        long burstIntervalNanos = (long) (burst * 1e9 / rate);
+        long startedAt = System.nanoTime();
+        long endsAt = startedAt + duration * 1000000000L;
+        long nextBurst = startedAt;
+        long nextReport = startedAt + 1000000000L;
+        int sequence = 0;
+        String last = null;
+        while (nextBurst < endsAt) {
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                progress(pipeline, startedAt);
+                nextReport += 1000000000L;
+            }
+            if (now < nextBurst) {
+                Thread.sleep(Math.max(1, Math.min(nextBurst, nextReport) - now) / 1000000);
+                continue;
+            }
+            for (int i = 0; i < burst; i++) {
+                String body = last != null && random.nextDouble() < duplicateRate ? last : payment(sequence++, random);
+                pipeline.onSms(SENDER, body);
+                last = body;
+            }
+            nextBurst += burstIntervalNanos;
+        }
+
+        long generatedFor = System.nanoTime() - startedAt;
+        long drainUntil = System.nanoTime() + drain * 1000000000L;
+        while (pipeline.depth() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(1000);
+            progress(pipeline, startedAt);
+        }
+        summary(pipeline, telephony, generatedFor, System.nanoTime() - startedAt);
+        pipeline.shutdown();
+        telephony.shutdown();
+    }
+
+    // "T00000000A Confirmed.on ..." as M-Pesa sends it, with a receipt code unique per sequence number
+    private static String payment(int sequence, Random random) {
+        String code = "T" + String.format(Locale.ROOT, "%9s", Integer.toString(sequence, 36).toUpperCase(Locale.ROOT))
+                .replace(' ', '0');
+        long amount = AMOUNTS[random.nextInt(AMOUNTS.length)];
+        String phone = "2547" + String.format(Locale.ROOT, "%08d", random.nextInt(100000000));
+        return code + " Confirmed.on 17/10/26 at 9:41 AM " + String.format(Locale.ROOT, "Ksh%,d.00", amount)
+                + " received from " + phone + " "
+                + NAMES[random.nextInt(NAMES.length)] + ". New Account balance is Ksh15,230.00. Transaction cost, Ksh0.00.";
+    }
+
+    private static void progress(LoadPipeline pipeline, long startedAt) {
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        Map<String, Object> endToEnd = stage(PipelineMetrics.END_TO_END);
+        System.out.printf(Locale.ROOT, "t=%5.0fs received=%d payments=%d confirmed=%d depth=%d e2e p50=%.0fms p99=%.0fms%n",
+                seconds, pipeline.count(PipelineMetrics.SMS_RECEIVED), pipeline.count(PipelineMetrics.PAYMENTS),
+                pipeline.count(PipelineMetrics.CONFIRMATIONS_SENT), pipeline.depth(),
+                endToEnd.get("p50Ms"), endToEnd.get("p99Ms"));
+    }
+
+    private static void summary(LoadPipeline pipeline, SimulatedTelephony telephony, long generatedNanos, long totalNanos) {
+        double generated = generatedNanos / 1e9;
+        double total = totalNanos / 1e9;
+        long confirmed = pipeline.count(PipelineMetrics.CONFIRMATIONS_SENT) + pipeline.count(PipelineMetrics.CONFIRMATIONS_FAILED);
+        long received = pipeline.count(PipelineMetrics.SMS_RECEIVED);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Offered   %.2f SMS/s (%d over %.0f s)%n", received / generated, received, generated);
+        System.out.printf(Locale.ROOT, "Completed %.2f purchases/s (%d over %.0f s), %d left in flight%n",
+                confirmed / total, confirmed, total, pipeline.depth());
+        System.out.printf(Locale.ROOT, "Max queue depth %d%n", pipeline.maxDepth());
+        for (String counter : new String[] {PipelineMetrics.PAYMENTS, "duplicates", "ignored", "alreadyServed",
+                PipelineMetrics.USSD_SUCCESS, PipelineMetrics.USSD_ALREADY, PipelineMetrics.USSD_FAILURE,
+                PipelineMetrics.USSD_ERROR, PipelineMetrics.USSD_TIMEOUT, PipelineMetrics.USSD_LATE, PipelineMetrics.CONFIRMATIONS_SENT,
+                PipelineMetrics.CONFIRMATIONS_FAILED}) {
+            System.out.printf(Locale.ROOT, "  %-20s %d%n", counter, pipeline.count(counter));
+        }
+        System.out.printf(Locale.ROOT, "%n%-18s %8s %10s %10s %10s %10s %10s%n", "stage", "count", "mean", "p50", "p90", "p99", "max");
+        for (String stage : LoadPipeline.STAGES) {
+            Map<String, Object> s = stage(stage);
+            System.out.printf(Locale.ROOT, "%-18s %8d %8.1fms %8.1fms %8.1fms %8.1fms %8.1fms%n", stage, s.get("count"),
+                    s.get("meanMs"), s.get("p50Ms"), s.get("p90Ms"), s.get("p99Ms"), s.get("maxMs"));
+        }
+        System.out.println();
+        for (SimDirectory.Sim sim : pipeline.sims()) {
+            System.out.println("SIM " + pipeline.simSnapshot(sim.subscriptionId));
+        }
+        System.out.println("Telephony " + telephony.stats());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> stage(String stage) {
+        Map<String, Object> stages = (Map<String, Object>) PipelineMetrics.get().snapshot().get("stages");
+        return (Map<String, Object>) stages.get(stage);
+    }
+
+    private static long[] range(String value) {
+        String[] bounds = value.split("-");
+        long min = Long.parseLong(bounds[0].trim());
+        return new long[] {min, bounds.length > 1 ? Long.parseLong(bounds[1].trim()) : min};
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Expected --option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
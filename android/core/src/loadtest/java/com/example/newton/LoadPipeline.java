@@ -0,0 +1,184 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The app's payment path on {@link SimulatedTelephony}, for load tests off the device.
+ *
+ * Each SMS is parsed as the ingestion hub parses it and handed to the same {@link PurchasePipeline}
+ * the app runs: SIM lanes, USSD pacing, the deadline wheel, keyword matching, the confirmation
+ * coalescer and the {@link SmsOutbox}. Only the Android edges are stood in for: the dial claim and
+ * the served-number index are in memory, templates are the catalog defaults, and outcomes are
+ * counted instead of written to the ledger. Timings land in {@link PipelineMetrics}.
+ */
+final class LoadPipeline implements PurchasePipeline.Host {
+    static final String[] STAGES = {
+            PipelineMetrics.SMS_PARSE, PipelineMetrics.USSD_QUEUE, PipelineMetrics.PAYMENT_TO_DISPATCH,
+            PipelineMetrics.USSD_RESPONSE, PipelineMetrics.CONFIRMATION_SEND, PipelineMetrics.END_TO_END
+    };
+
+    private static final String USSD_TEMPLATE = "*180*5*2*PN*5*1#";
+
+    private final ExecutorWorker pipelineWorker = new ExecutorWorker("Pipeline");
+    private final ExecutorWorker outboxWorker = new ExecutorWorker("SmsOutbox");
+    private final ExecutorWorker deadlineWorker = new ExecutorWorker("Deadlines");
+    private final SimulatedTelephony telephony;
+    private final PurchasePipeline purchases;
+    private final int retries;
+    private final DedupeIndex dials = new DedupeIndex(ByteBuffer.allocate(DedupeIndex.bufferSize(4096)), 4096);
+    private final Set<String> served = ConcurrentHashMap.newKeySet();
+    private final Map<String, SmsTemplate> templates = new HashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    LoadPipeline(SimulatedTelephony telephony, CarrierPacer pacer, List<String> successKeywords,
+                 List<String> failureKeywords, long ussdTimeoutMs, int retries) {
+        this.telephony = telephony;
+        this.retries = retries;
+        for (String counter : new String[] {"ignored", "duplicates", "alreadyServed", "notDialed"}) {
+            counters.put(counter, new AtomicLong());
+        }
+        for (String type : new String[] {"USSD_SUCCESS", "USSD_FAILURE", "USSD_ALREADY", "USSD_ERROR"}) {
+            templates.put(type, SmsTemplate.compile(SmsTemplateCatalog.defaultTemplate(SmsTemplateCatalog.preferenceKey(type))));
+        }
+        DeadlineWheel deadlines = new DeadlineWheel(deadlineWorker);
+        SmsOutbox outbox = new SmsOutbox(outboxWorker, telephony, deadlines, pacer);
+        purchases = new PurchasePipeline(pipelineWorker, telephony, telephony, outbox, deadlines, pacer, this);
+        purchases.setKeywords(successKeywords, failureKeywords, null);
+        purchases.setUssdTimeout(ussdTimeoutMs);
+    }
+
+    void configureCoalescing(long windowMs, long maxDelayMs) {
+        purchases.configureCoalescing(windowMs, maxDelayMs);
+    }
+
+    /** Entry point for one incoming SMS, as the ingestion hub would see it. */
+    void onSms(String sender, String body) {
+        long receivedAt = System.nanoTime();
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.increment(PipelineMetrics.SMS_RECEIVED);
+        MpesaPayment payment = MpesaSmsParser.parse(sender, body);
+        metrics.recordNanos(PipelineMetrics.SMS_PARSE, System.nanoTime() - receivedAt);
+        if (payment == null) {
+            increment("ignored");
+            return;
+        }
+        metrics.increment(PipelineMetrics.PAYMENTS);
+
+        Map<String, Object> transaction = new HashMap<>();
+        transaction.put("sender", sender);
+        transaction.put("body", body);
+        transaction.put("timestamp", System.currentTimeMillis());
+        transaction.put("transactionCode", payment.transactionCode);
+        transaction.put("amountCents", payment.amountCents);
+        transaction.put("extractedName", payment.name);
+        transaction.put("extractedAmount", payment.amountCents / 100.0);
+        transaction.put("extractedPhoneNumber", payment.phoneNumber);
+        transaction.put("purchasedOffer", "Bundle " + payment.amountCents / 100);
+        String code = USSD_TEMPLATE.replace("PN", localPhoneNumber(payment.phoneNumber));
+
+        switch (purchases.purchase(code, SimScheduler.ANY_SIM, transaction, retries)) {
+            case PurchasePipeline.DUPLICATE:
+                increment("duplicates");
+                break;
+            case PurchasePipeline.ALREADY_SERVED:
+                increment("alreadyServed");
+                break;
+            case PurchasePipeline.QUEUED:
+                break;
+            default:
+                increment("notDialed");
+                break;
+        }
+        maxDepth.accumulateAndGet(depth(), Math::max);
+    }
+
+    /** Purchases waiting for or holding a SIM, confirmations being held or sent. */
+    int depth() {
+        return purchases.outstanding() + purchases.coalescing() + purchases.outbox().pendingCount();
+    }
+
+    int maxDepth() {
+        return maxDepth.get();
+    }
+
+    /** A {@link PipelineMetrics} counter, or one of this driver's own. */
+    long count(String counter) {
+        AtomicLong value = counters.get(counter);
+        return value != null ? value.get() : PipelineMetrics.get().count(counter);
+    }
+
+    Map<String, Object> simSnapshot(int subscriptionId) {
+        return purchases.simSnapshot(subscriptionId);
+    }
+
+    List<SimDirectory.Sim> sims() {
+        return telephony.activeSims();
+    }
+
+    void shutdown() {
+        pipelineWorker.shutdown();
+        outboxWorker.shutdown();
+        deadlineWorker.shutdown();
+    }
+
+    @Override
+    public boolean claimPayment(Map<String, Object> transaction) {
+        synchronized (dials) {
+            return dials.claim(DedupeIndex.hash((String) transaction.get("transactionCode")));
+        }
+    }
+
+    @Override
+    public void releasePayment(Map<String, Object> transaction) {
+        synchronized (dials) {
+            dials.release(DedupeIndex.hash((String) transaction.get("transactionCode")));
+        }
+    }
+
+    @Override
+    public boolean isServed(String phoneNumber) {
+        return phoneNumber != null && served.contains(phoneNumber);
+    }
+
+    @Override
+    public void markServed(String phoneNumber) {
+        if (phoneNumber != null) served.add(phoneNumber);
+    }
+
+    @Override
+    public boolean canDial() {
+        return true;
+    }
+
+    @Override
+    public SmsTemplate.Rendered render(String type, Map<String, Object> transaction) {
+        return templates.get(type).render(transaction);
+    }
+
+    // PipelineMetrics already counts each outcome; there is no ledger or Flutter to tell
+    @Override
+    public void onOutcome(int outcome, Map<String, Object> transaction, int subscriptionId, Map<String, Object> report) {
+    }
+
+    @Override
+    public void onLateOutcome(int outcome, Map<String, Object> transaction, int subscriptionId,
+                              Map<String, Object> report, long timedOutAt) {
+    }
+
+    // As OfferTable.localPhoneNumber in the app
+    private static String localPhoneNumber(String phoneNumber) {
+        return phoneNumber.startsWith("254") && phoneNumber.length() == 12 ? "0" + phoneNumber.substring(3) : phoneNumber;
+    }
+
+    private void increment(String counter) {
+        counters.computeIfAbsent(counter, name -> new AtomicLong()).incrementAndGet();
+    }
+}
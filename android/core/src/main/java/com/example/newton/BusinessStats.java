@@ -0,0 +1,245 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rolling purchase statistics kept up to date one USSD outcome at a time.
+ *
+ * Every section is a fixed set of 32-byte buckets inside the supplied buffer, so a memory-mapped
+ * buffer keeps the totals across restarts and both {@link #record} and {@link #snapshot} cost the
+ * same however long the device has been selling. Sections: all-time totals, the last
+ * {@value #DAYS} local days and {@value #HOURS} local hours as rings, revenue per offer (keyed by
+ * price) and totals per SIM. Offers or SIMs beyond their table size are only counted in the totals.
+ *
+ * Bucket layout: {@code [long key][int success][int failure][int already][int error][long revenueCents]}.
+ * Buffer layout: {@code [int magic][int unused][long firstLocalMillis][bucket totals][days][hours][offers][sims]}.
+ * Revenue is the amount paid for purchases that succeeded. Not thread-safe.
+ */
+public final class BusinessStats {
+    public static final int SUCCESS = 0;
+    public static final int FAILURE = 1;
+    public static final int ALREADY = 2;
+    public static final int ERROR = 3;
+    private static final String[] OUTCOMES = {"success", "failure", "already", "error"};
+
+    public static final int DAYS = 32;
+    public static final int HOURS = 48;
+    private static final int OFFERS = 64;
+    private static final int SIMS = 8;
+
+    private static final int MAGIC = 0x42535431; // "BST1"
+    private static final int HEADER = 16;
+    private static final int BUCKET = 32;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private static final int TOTALS = HEADER;
+    private static final int DAY_BASE = TOTALS + BUCKET;
+    private static final int HOUR_BASE = DAY_BASE + DAYS * BUCKET;
+    private static final int OFFER_BASE = HOUR_BASE + HOURS * BUCKET;
+    private static final int SIM_BASE = OFFER_BASE + OFFERS * BUCKET;
+    public static final int BUFFER_SIZE = SIM_BASE + SIMS * BUCKET;
+
+    private final ByteBuffer buffer;
+
+    /** Wraps {@code buffer}, keeping the statistics already in it when it carries a valid header. */
+    public BusinessStats(ByteBuffer buffer) {
+        if (buffer.capacity() < BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer too small: " + buffer.capacity() + " < " + BUFFER_SIZE);
+        }
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) clear();
+    }
+
+    /**
+     * Counts one classified purchase. {@code localMillis} is wall-clock time shifted into the local
+     * time zone, so days and hours roll over at local midnight; {@code amountCents} below zero is unknown.
+     */
+    public void record(int outcome, int subscriptionId, long amountCents, long localMillis) {
+        if (outcome < SUCCESS || outcome > ERROR) throw new IllegalArgumentException("Bad outcome " + outcome);
+        if (buffer.getLong(8) == 0) buffer.putLong(8, localMillis);
+        long revenue = outcome == SUCCESS && amountCents > 0 ? amountCents : 0;
+        add(TOTALS, outcome, revenue);
+        add(ring(DAY_BASE, DAYS, Math.floorDiv(localMillis, DAY_MS)), outcome, revenue);
+        add(ring(HOUR_BASE, HOURS, Math.floorDiv(localMillis, HOUR_MS)), outcome, revenue);
+        if (amountCents >= 0) {
+            int offer = probe(OFFER_BASE, OFFERS, amountCents, true);
+            if (offer >= 0) add(offer, outcome, revenue);
+        }
+        int sim = probe(SIM_BASE, SIMS, subscriptionId, true);
+        if (sim >= 0) add(sim, outcome, revenue);
+    }
+
+    /**
+     * Moves one purchase recorded at {@code localMillis} from outcome {@code from} to {@code to}, e.g.
+     * a timed-out session whose reply came late. Day and hour buckets rolled over since are left alone.
+     */
+    public void revise(int from, int to, int subscriptionId, long amountCents, long localMillis) {
+        if (from < SUCCESS || from > ERROR || to < SUCCESS || to > ERROR) {
+            throw new IllegalArgumentException("Bad outcome " + from + " -> " + to);
+        }
+        if (from == to) return;
+        long revenue = (to == SUCCESS ? 1 : from == SUCCESS ? -1 : 0) * Math.max(amountCents, 0);
+        move(TOTALS, from, to, revenue);
+        long dayKey = Math.floorDiv(localMillis, DAY_MS);
+        int day = slot(DAY_BASE, DAYS, dayKey);
+        if (buffer.getLong(day) == dayKey) move(day, from, to, revenue);
+        long hourKey = Math.floorDiv(localMillis, HOUR_MS);
+        int hour = slot(HOUR_BASE, HOURS, hourKey);
+        if (buffer.getLong(hour) == hourKey) move(hour, from, to, revenue);
+        if (amountCents >= 0) {
+            int offer = probe(OFFER_BASE, OFFERS, amountCents, false);
+            if (offer >= 0) move(offer, from, to, revenue);
+        }
+        int sim = probe(SIM_BASE, SIMS, subscriptionId, false);
+        if (sim >= 0) move(sim, from, to, revenue);
+    }
+
+    /**
+     * Totals with rates, the first day recorded ("since"), today, the last {@value #DAYS} days and
+     * {@value #HOURS} hours newest first, offers by amount and SIMs by subscription id. Amounts are
+     * in shillings.
+     */
+    public Map<String, Object> snapshot(long localMillis) {
+        long today = Math.floorDiv(localMillis, DAY_MS);
+        long thisHour = Math.floorDiv(localMillis, HOUR_MS);
+        Map<String, Object> snapshot = new HashMap<>();
+        Map<String, Object> totals = bucket(TOTALS);
+        long attempts = (Long) totals.get("attempts");
+        for (String outcome : OUTCOMES) {
+            totals.put(outcome + "Rate", attempts > 0 ? (Long) totals.get(outcome) / (double) attempts : 0.0);
+        }
+        snapshot.put("totals", totals);
+        long first = buffer.getLong(8);
+        snapshot.put("since", first != 0 ? LocalDate.ofEpochDay(Math.floorDiv(first, DAY_MS)).toString() : null);
+
+        List<Map<String, Object>> days = new ArrayList<>();
+        Map<String, Object> todayBucket = null;
+        for (long day = today; day > today - DAYS; day--) {
+            int offset = slot(DAY_BASE, DAYS, day);
+            if (buffer.getLong(offset) != day) continue;
+            Map<String, Object> bucket = bucket(offset);
+            bucket.put("date", LocalDate.ofEpochDay(day).toString());
+            if (day == today) todayBucket = bucket;
+            days.add(bucket);
+        }
+        snapshot.put("today", todayBucket != null ? todayBucket : emptyBucket());
+        snapshot.put("days", days);
+
+        List<Map<String, Object>> hours = new ArrayList<>();
+        for (long hour = thisHour; hour > thisHour - HOURS; hour--) {
+            int offset = slot(HOUR_BASE, HOURS, hour);
+            if (buffer.getLong(offset) != hour) continue;
+            Map<String, Object> bucket = bucket(offset);
+            bucket.put("hour", LocalDate.ofEpochDay(Math.floorDiv(hour, 24)) + "T"
+                    + String.format(Locale.ROOT, "%02d", Math.floorMod(hour, 24)));
+            hours.add(bucket);
+        }
+        snapshot.put("hours", hours);
+
+        List<Map<String, Object>> offers = new ArrayList<>();
+        for (int i = 0; i < OFFERS; i++) {
+            int offset = OFFER_BASE + i * BUCKET;
+            long amountCents = buffer.getLong(offset);
+            if (amountCents == EMPTY) continue;
+            Map<String, Object> bucket = bucket(offset);
+            bucket.put("amountCents", amountCents);
+            bucket.put("amount", amountCents / 100.0);
+            offers.add(bucket);
+        }
+        snapshot.put("offers", offers);
+
+        List<Map<String, Object>> sims = new ArrayList<>();
+        for (int i = 0; i < SIMS; i++) {
+            int offset = SIM_BASE + i * BUCKET;
+            long subscriptionId = buffer.getLong(offset);
+            if (subscriptionId == EMPTY) continue;
+            Map<String, Object> bucket = bucket(offset);
+            bucket.put("subscriptionId", (int) subscriptionId);
+            sims.add(bucket);
+        }
+        snapshot.put("sims", sims);
+        return snapshot;
+    }
+
+    public void clear() {
+        buffer.putLong(8, 0);
+        for (int offset = TOTALS; offset < BUFFER_SIZE; offset += BUCKET) reset(offset, EMPTY);
+        buffer.putInt(0, MAGIC);
+    }
+
+    // Bucket for {@code key} in a ring section, reset when it still holds an older key
+    private int ring(int base, int size, long key) {
+        int offset = slot(base, size, key);
+        if (buffer.getLong(offset) != key) reset(offset, key);
+        return offset;
+    }
+
+    private static int slot(int base, int size, long key) {
+        return base + (int) Math.floorMod(key, (long) size) * BUCKET;
+    }
+
+    // Bucket for {@code key} in an open-addressing section, claimed on first use if {@code claim}; -1 when absent
+    private int probe(int base, int size, long key, boolean claim) {
+        int start = (int) (DedupeIndex.mix(key) & 0x7fffffff) % size;
+        for (int n = 0; n < size; n++) {
+            int offset = base + ((start + n) % size) * BUCKET;
+            long k = buffer.getLong(offset);
+            if (k == key) return offset;
+            if (k == EMPTY) {
+                if (!claim) return -1;
+                reset(offset, key);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private void add(int offset, int outcome, long revenueCents) {
+        int counter = offset + 8 + 4 * outcome;
+        buffer.putInt(counter, buffer.getInt(counter) + 1);
+        buffer.putLong(offset + 24, buffer.getLong(offset + 24) + revenueCents);
+    }
+
+    // Never below zero: the original may have landed in a bucket that was reset since
+    private void move(int offset, int from, int to, long revenueCents) {
+        int counter = offset + 8 + 4 * from;
+        int count = buffer.getInt(counter);
+        if (count == 0) return;
+        buffer.putInt(counter, count - 1);
+        add(offset, to, revenueCents);
+    }
+
+    private void reset(int offset, long key) {
+        buffer.putLong(offset, key);
+        for (int i = 8; i < BUCKET; i += 4) buffer.putInt(offset + i, 0);
+    }
+
+    private Map<String, Object> bucket(int offset) {
+        Map<String, Object> bucket = new HashMap<>();
+        long attempts = 0;
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            long count = buffer.getInt(offset + 8 + 4 * i) & 0xffffffffL;
+            bucket.put(OUTCOMES[i], count);
+            attempts += count;
+        }
+        bucket.put("attempts", attempts);
+        bucket.put("revenue", buffer.getLong(offset + 24) / 100.0);
+        return bucket;
+    }
+
+    private static Map<String, Object> emptyBucket() {
+        Map<String, Object> bucket = new HashMap<>();
+        for (String outcome : OUTCOMES) bucket.put(outcome, 0L);
+        bucket.put("attempts", 0L);
+        bucket.put("revenue", 0.0);
+        return bucket;
+    }
+}
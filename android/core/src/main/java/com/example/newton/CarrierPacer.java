@@ -0,0 +1,49 @@
+package com.example.newton;
+
+/**
+ * Per-SIM pacing the pipeline asks before each USSD session and SMS send: {@code CarrierRateLimits}
+ * on a device, {@link #of} around plain {@link RateLimiter}s off it.
+ */
+public interface CarrierPacer {
+    /** Reserves one USSD session on the SIM; returns how many milliseconds to hold it first. */
+    long reserveUssd(int subscriptionId);
+
+    /** Reserves {@code parts} SMS parts on the SIM; returns how many milliseconds to hold them first. */
+    long reserveSms(int subscriptionId, int parts);
+
+    /** The carrier failed a USSD session; let the SIM's allowance refill before the next one. */
+    void onUssdRejected(int subscriptionId);
+
+    /** The radio failed an SMS send; let the SIM's allowance refill before the next one. */
+    void onSmsRejected(int subscriptionId);
+
+    /** Paces with {@code ussd} and {@code sms} on {@link System#nanoTime()}. */
+    static CarrierPacer of(RateLimiter ussd, RateLimiter sms) {
+        return new CarrierPacer() {
+            @Override
+            public long reserveUssd(int subscriptionId) {
+                return toMillis(ussd.reserve(subscriptionId, 1, System.nanoTime()));
+            }
+
+            @Override
+            public long reserveSms(int subscriptionId, int parts) {
+                return toMillis(sms.reserve(subscriptionId, parts, System.nanoTime()));
+            }
+
+            @Override
+            public void onUssdRejected(int subscriptionId) {
+                ussd.backOff(subscriptionId, System.nanoTime());
+            }
+
+            @Override
+            public void onSmsRejected(int subscriptionId) {
+                sms.backOff(subscriptionId, System.nanoTime());
+            }
+        };
+    }
+
+    /** Rounds a {@link RateLimiter} wait up to whole milliseconds. */
+    static long toMillis(long nanos) {
+        return (nanos + 999999) / 1000000;
+    }
+}
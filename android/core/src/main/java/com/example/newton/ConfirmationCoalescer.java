@@ -0,0 +1,155 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Holds confirmation SMS to the same customer for a short window and sends them as one.
+ *
+ * Results are grouped by recipient and template ({@code sms_success}, {@code sms_failure},
+ * {@code sms_already}). A group is due {@code windowMs} after its latest result, but never later
+ * than {@code maxDelayMs} after its first. A single result goes out unchanged; several are rendered
+ * once from {@link #merge}, which lists each offer and amount. A window of 0 turns coalescing off.
+ * Times are caller-supplied milliseconds on any monotonic clock. Not thread-safe.
+ */
+public final class ConfirmationCoalescer {
+    /** Upper bound for {@code maxDelayMs}, whatever is configured. */
+    public static final long MAX_DELAY_LIMIT_MS = 5 * 60 * 1000;
+
+    /** Results waiting to go out to one recipient under one template. */
+    public static final class Batch {
+        /** Result type of the first result, e.g. "USSD_SUCCESS"; all share its template. */
+        public final String type;
+        public final String recipient;
+        /** SIM that ran the first purchase; the message goes out from it. */
+        public final int subscriptionId;
+        public final List<Map<String, Object>> transactions = new ArrayList<>();
+        final long openedAt;
+        long dueAt;
+
+        Batch(String type, String recipient, int subscriptionId, long openedAt) {
+            this.type = type;
+            this.recipient = recipient;
+            this.subscriptionId = subscriptionId;
+            this.openedAt = openedAt;
+        }
+
+        /** What to render: the only transaction, or all of them merged. */
+        public Map<String, Object> transaction() {
+            return transactions.size() == 1 ? transactions.get(0) : merge(transactions);
+        }
+    }
+
+    private final Map<String, Batch> open = new LinkedHashMap<>();
+    private long windowMs;
+    private long maxDelayMs;
+
+    public ConfirmationCoalescer(long windowMs, long maxDelayMs) {
+        configure(windowMs, maxDelayMs);
+    }
+
+    /** {@code maxDelayMs} is clamped to {@link #MAX_DELAY_LIMIT_MS} and the window to it. */
+    public void configure(long windowMs, long maxDelayMs) {
+        this.maxDelayMs = Math.max(0, Math.min(maxDelayMs, MAX_DELAY_LIMIT_MS));
+        this.windowMs = Math.max(0, Math.min(windowMs, this.maxDelayMs));
+    }
+
+    public long windowMs() {
+        return windowMs;
+    }
+
+    public long maxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * Adds a result for {@code recipient}. Returns a batch to send right away when coalescing is
+     * off or the type has no template of its own; otherwise null, and the result waits in its group.
+     */
+    public Batch add(String type, String recipient, int subscriptionId, Map<String, Object> transaction, long nowMs) {
+        String templateKey = SmsTemplateCatalog.preferenceKey(type);
+        if (windowMs <= 0 || templateKey == null) {
+            Batch batch = new Batch(type, recipient, subscriptionId, nowMs);
+            batch.transactions.add(transaction);
+            return batch;
+        }
+        String key = templateKey + '\n' + recipient;
+        Batch batch = open.get(key);
+        if (batch == null) {
+            batch = new Batch(type, recipient, subscriptionId, nowMs);
+            open.put(key, batch);
+        }
+        batch.transactions.add(transaction);
+        batch.dueAt = Math.min(nowMs + windowMs, batch.openedAt + maxDelayMs);
+        return null;
+    }
+
+    /** Removes and returns the batches due at {@code nowMs}, oldest first. */
+    public List<Batch> takeDue(long nowMs) {
+        List<Batch> due = new ArrayList<>();
+        for (Iterator<Batch> it = open.values().iterator(); it.hasNext(); ) {
+            Batch batch = it.next();
+            if (batch.dueAt <= nowMs) {
+                due.add(batch);
+                it.remove();
+            }
+        }
+        return due;
+    }
+
+    /** Removes and returns every waiting batch, e.g. when coalescing is turned off. */
+    public List<Batch> takeAll() {
+        List<Batch> all = new ArrayList<>(open.values());
+        open.clear();
+        return all;
+    }
+
+    /** When the next batch is due, or {@link Long#MAX_VALUE} when none is waiting. */
+    public long nextDueAt() {
+        long next = Long.MAX_VALUE;
+        for (Batch batch : open.values()) next = Math.min(next, batch.dueAt);
+        return next;
+    }
+
+    /** Results waiting in all groups. */
+    public int pending() {
+        int pending = 0;
+        for (Batch batch : open.values()) pending += batch.transactions.size();
+        return pending;
+    }
+
+    /**
+     * One transaction map standing for several to the same customer: the first one's name, phone
+     * and timestamp, {@code purchasedOffer} listing each offer with its amount, and
+     * {@code extractedAmount} the total of the known amounts. The originals are kept under
+     * {@code transactions}.
+     */
+    public static Map<String, Object> merge(List<Map<String, Object>> transactions) {
+        Map<String, Object> first = transactions.get(0);
+        Map<String, Object> merged = new HashMap<>(first);
+        StringBuilder offers = new StringBuilder();
+        double total = 0;
+        for (int i = 0; i < transactions.size(); i++) {
+            Map<String, Object> transaction = transactions.get(i);
+            if (i > 0) offers.append(i == transactions.size() - 1 ? " and " : ", ");
+            Object offer = transaction.get("purchasedOffer");
+            Object amount = transaction.get("extractedAmount");
+            if (offer != null) offers.append(offer);
+            if (amount instanceof Number) {
+                double value = ((Number) amount).doubleValue();
+                total += value;
+                offers.append(offer != null ? " (" : "").append(String.format(Locale.ROOT, "Ksh %.2f", value))
+                        .append(offer != null ? ")" : "");
+            }
+        }
+        merged.put("purchasedOffer", offers.toString());
+        merged.put("extractedAmount", total);
+        merged.put("transactions", new ArrayList<>(transactions));
+        return merged;
+    }
+}
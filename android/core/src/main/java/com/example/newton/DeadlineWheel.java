@@ -0,0 +1,141 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timing wheel for the deadlines of in-flight USSD sessions and outbound SMS.
+ *
+ * Operations extend {@link Entry}, so a deadline costs no timer or runnable of its own: entries are
+ * linked straight into the slot their deadline hashes to, and the wheel's {@link Worker} advances it
+ * a tick at a time while anything is scheduled. Scheduling and cancelling are O(1) and may be done
+ * from any thread; {@link Expiry} callbacks run on the wheel's thread and must hand real work off.
+ */
+public final class DeadlineWheel {
+    private static final String TAG = "DeadlineWheel";
+    private static final long TICK_MS = 250;
+    private static final int SLOTS = 256; // one turn is 64 s
+
+    public interface Expiry {
+        void onExpired(Entry entry);
+    }
+
+    /** Base class of anything with a deadline. An entry is in at most one wheel slot at a time. */
+    public abstract static class Entry {
+        Entry prev;
+        Entry next;
+        Expiry expiry;
+        long deadline;
+        long rounds;
+        volatile int slot = -1;
+
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final Entry[] wheel = new Entry[SLOTS];
+    private final Worker worker;
+    private final Runnable tick = this::tick;
+    // Wheel thread only; reused so a tick allocates nothing
+    private final ArrayList<Entry> due = new ArrayList<>();
+    private long tickCount;
+    private long nextTickAt;
+    private int scheduled;
+    private boolean ticking;
+    private long expired;
+
+    /** One wheel per process is plenty; it should have {@code worker} to itself. */
+    public DeadlineWheel(Worker worker) {
+        this.worker = worker;
+    }
+
+    /** (Re)schedules {@code entry} to expire {@code timeoutMs} from now. */
+    public synchronized void schedule(Entry entry, long timeoutMs, Expiry expiry) {
+        if (entry.isScheduled()) unlink(entry);
+        long now = worker.uptimeMillis();
+        if (!ticking) {
+            // The wheel sleeps while empty; restart it at the current time
+            ticking = true;
+            nextTickAt = now + TICK_MS;
+            worker.postDelayed(tick, TICK_MS);
+        }
+        entry.expiry = expiry;
+        entry.deadline = now + Math.max(0, timeoutMs);
+        long ticks = Math.max(1, (entry.deadline - nextTickAt + TICK_MS - 1) / TICK_MS + 1);
+        entry.rounds = (ticks - 1) / SLOTS;
+        link(entry, (int) ((tickCount + ticks - 1) % SLOTS));
+        scheduled++;
+    }
+
+    /** Removes {@code entry}'s deadline; returns false if it had none (e.g. it already expired). */
+    public synchronized boolean cancel(Entry entry) {
+        if (!entry.isScheduled()) return false;
+        unlink(entry);
+        scheduled--;
+        return true;
+    }
+
+    public synchronized int scheduledCount() {
+        return scheduled;
+    }
+
+    public synchronized long expiredCount() {
+        return expired;
+    }
+
+    private void tick() {
+        synchronized (this) {
+            int slot = (int) (tickCount % SLOTS);
+            Entry e = wheel[slot];
+            while (e != null) {
+                Entry next = e.next;
+                if (e.rounds > 0) {
+                    e.rounds--;
+                } else {
+                    unlink(e);
+                    scheduled--;
+                    expired++;
+                    due.add(e);
+                }
+                e = next;
+            }
+            tickCount++;
+            if (scheduled > 0) {
+                nextTickAt += TICK_MS;
+                worker.postDelayed(tick, Math.max(0, nextTickAt - worker.uptimeMillis()));
+            } else {
+                ticking = false;
+            }
+        }
+        // Outside the lock so callbacks may schedule again
+        for (int i = 0; i < due.size(); i++) {
+            Entry entry = due.get(i);
+            try {
+                entry.expiry.onExpired(entry);
+            } catch (Exception ex) {
+                PipelineLog.e(TAG, "Expiry callback failed: " + ex.getMessage(), ex);
+            }
+        }
+        due.clear();
+    }
+
+    private void link(Entry entry, int slot) {
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = wheel[slot];
+        if (entry.next != null) entry.next.prev = entry;
+        wheel[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheel[entry.slot] = entry.next;
+        }
+        if (entry.next != null) entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+    }
+}
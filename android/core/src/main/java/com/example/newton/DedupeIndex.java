@@ -0,0 +1,173 @@
+package com.example.newton;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-capacity set of 64-bit keys that forgets the oldest key once full.
+ *
+ * Keys live in a ring inside the supplied buffer, so a memory-mapped buffer makes the index survive
+ * restarts; an open-addressing table over the ring is rebuilt on load. Memory use is fixed at
+ * {@code 8 + 8 * capacity} bytes of buffer plus {@code 16 * capacity} bytes of table.
+ *
+ * Buffer layout: {@code [int magic][int head][long ring[capacity]]}. Not thread-safe.
+ */
+public final class DedupeIndex {
+    private static final int MAGIC = 0x44445831; // "DDX1"
+    private static final int HEADER = 8;
+    private static final long EMPTY = 0;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final long[] table;
+    private final int mask;
+    private int head;
+    private int size;
+
+    public static int bufferSize(int capacity) {
+        return HEADER + 8 * capacity;
+    }
+
+    /** Wraps {@code buffer}, keeping the keys already in it when it carries a valid header. */
+    public DedupeIndex(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < bufferSize(capacity)) {
+            throw new IllegalArgumentException("Buffer too small for " + capacity + " keys");
+        }
+        this.ring = buffer;
+        this.capacity = capacity;
+        this.table = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.mask = table.length - 1;
+
+        if (ring.getInt(0) == MAGIC) {
+            head = ring.getInt(4);
+            if (head < 0 || head >= capacity) head = 0;
+            for (int i = 0; i < capacity; i++) {
+                long key = ring.getLong(slot(i));
+                if (key != EMPTY && insert(key)) size++;
+            }
+        } else {
+            for (int i = 0; i < capacity; i++) ring.putLong(slot(i), EMPTY);
+            ring.putInt(4, 0);
+            ring.putInt(0, MAGIC);
+        }
+    }
+
+    public boolean contains(long key) {
+        key = normalize(key);
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            long k = table[i];
+            if (k == EMPTY) return false;
+            if (k == key) return true;
+        }
+    }
+
+    /** Adds {@code key}; returns false if it was already present, i.e. the caller is a duplicate. */
+    public boolean claim(long key) {
+        key = normalize(key);
+        if (contains(key)) return false;
+
+        long evicted = ring.getLong(slot(head));
+        if (evicted != EMPTY) {
+            remove(evicted);
+            size--;
+        }
+        ring.putLong(slot(head), key);
+        head = (head + 1) % capacity;
+        ring.putInt(4, head);
+        insert(key);
+        size++;
+        return true;
+    }
+
+    /**
+     * Forgets {@code key}, so the next claim succeeds again; returns false if it was not present.
+     * Scans the ring for its slot, so it is meant for rare undo paths, not the hot path.
+     */
+    public boolean release(long key) {
+        key = normalize(key);
+        if (!contains(key)) return false;
+        remove(key);
+        size--;
+        for (int i = 0; i < capacity; i++) {
+            if (ring.getLong(slot(i)) == key) {
+                ring.putLong(slot(i), EMPTY);
+                break;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** 64-bit FNV-1a followed by a murmur-style finalizer. */
+    public static long hash(CharSequence... parts) {
+        long h = 0xcbf29ce484222325L;
+        for (CharSequence part : parts) {
+            if (part != null) {
+                for (int i = 0; i < part.length(); i++) {
+                    h ^= part.charAt(i);
+                    h *= 0x100000001b3L;
+                }
+            }
+            h ^= 0x1f; // separator, so ("ab", "c") and ("a", "bc") differ
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private boolean insert(long key) {
+        int i = index(key);
+        while (table[i] != EMPTY) {
+            if (table[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+        return true;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void remove(long key) {
+        int i = index(key);
+        while (table[i] != key) {
+            if (table[i] == EMPTY) return;
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(table[j]);
+            // Move j into the hole unless its home lies cyclically in (hole, j]
+            boolean homeBetween = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!homeBetween) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = EMPTY;
+    }
+
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private static long normalize(long key) {
+        return key == EMPTY ? 1 : key;
+    }
+
+    private static int slot(int i) {
+        return HEADER + 8 * i;
+    }
+}
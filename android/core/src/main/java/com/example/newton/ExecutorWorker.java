@@ -0,0 +1,83 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** {@link Worker} on one daemon thread of a scheduled executor, for running the pipeline off the device. */
+public final class ExecutorWorker implements Worker {
+    private final ScheduledExecutorService executor;
+    // Pending posts per task, so remove() can cancel them the way Handler.removeCallbacks does
+    private final Map<Runnable, List<ScheduledFuture<?>>> pending = new HashMap<>();
+    private volatile Thread thread;
+
+    public ExecutorWorker(String name) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, name);
+            t.setDaemon(true);
+            thread = t;
+            return t;
+        });
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        synchronized (pending) {
+            ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = executor.schedule(() -> {
+                synchronized (pending) {
+                    List<ScheduledFuture<?>> posts = pending.get(task);
+                    if (posts != null && posts.remove(self[0]) && posts.isEmpty()) pending.remove(task);
+                }
+                task.run();
+            }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+            List<ScheduledFuture<?>> posts = pending.get(task);
+            if (posts == null) {
+                posts = new ArrayList<>(1);
+                pending.put(task, posts);
+            }
+            posts.add(self[0]);
+        }
+    }
+
+    @Override
+    public void remove(Runnable task) {
+        synchronized (pending) {
+            List<ScheduledFuture<?>> posts = pending.remove(task);
+            if (posts == null) return;
+            for (ScheduledFuture<?> post : posts) post.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /** Waits until every task posted before this call has run. */
+    public void sync() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        post(done::countDown);
+        done.await();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
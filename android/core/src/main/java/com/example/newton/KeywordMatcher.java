@@ -0,0 +1,235 @@
+package com.example.newton;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classifies USSD responses as success, failure or "already" in a single pass.
+ *
+ * All keywords are compiled into one Aho-Corasick automaton when they change, so the cost of
+ * classifying a response depends on its length and not on how many keyword variants operators add.
+ * Matching is case-insensitive. Instances are immutable and safe to share between threads.
+ */
+public final class KeywordMatcher {
+    public static final int SUCCESS = 0;
+    public static final int FAILURE = 1;
+    public static final int ALREADY = 2;
+    private static final int CATEGORIES = 3;
+    private static final int ALL_CATEGORIES = (1 << CATEGORIES) - 1;
+
+    public static final String DEFAULT_ALREADY_KEYWORD = "already";
+
+    /** Outcome of one scan. Each category records the first keyword that hit it. */
+    public static final class Match {
+        private final String[] keywords;
+
+        Match(String[] keywords) {
+            this.keywords = keywords;
+        }
+
+        public boolean isSuccess() {
+            return keywords[SUCCESS] != null;
+        }
+
+        public boolean isFailure() {
+            return keywords[FAILURE] != null;
+        }
+
+        public boolean isAlready() {
+            return keywords[ALREADY] != null;
+        }
+
+        public String keyword(int category) {
+            return keywords[category];
+        }
+
+        /** Keyword that decides the outcome, using the already > success > failure precedence. */
+        public String decidingKeyword() {
+            if (isAlready()) return keywords[ALREADY];
+            if (isSuccess()) return keywords[SUCCESS];
+            return keywords[FAILURE];
+        }
+
+        @Override
+        public String toString() {
+            return "Match" + Arrays.toString(keywords);
+        }
+    }
+
+    // Trie edges per state, kept as small parallel arrays
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // Keyword index per state and category (own or inherited through fail links), -1 if none
+    private final int[][] output;
+    private final int[] outputMask;
+    private final String[] keywords;
+
+    private KeywordMatcher(char[][] edgeChars, int[][] edgeTargets, int[] fail, int[][] output,
+                           int[] outputMask, String[] keywords) {
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+        this.outputMask = outputMask;
+        this.keywords = keywords;
+    }
+
+    /** Compiles a matcher; {@code alreadyKeywords} may be null to use {@link #DEFAULT_ALREADY_KEYWORD}. */
+    public static KeywordMatcher compile(List<String> successKeywords, List<String> failureKeywords,
+                                         List<String> alreadyKeywords) {
+        Builder builder = new Builder();
+        builder.addAll(successKeywords, SUCCESS);
+        builder.addAll(failureKeywords, FAILURE);
+        if (alreadyKeywords != null) {
+            builder.addAll(alreadyKeywords, ALREADY);
+        } else {
+            builder.add(DEFAULT_ALREADY_KEYWORD, ALREADY);
+        }
+        return builder.build();
+    }
+
+    /** Scans {@code response} once and reports every category it matched. */
+    public Match classify(CharSequence response) {
+        String[] matched = new String[CATEGORIES];
+        if (response == null) return new Match(matched);
+
+        int state = 0;
+        int found = 0;
+        for (int i = 0, n = response.length(); i < n && found != ALL_CATEGORIES; i++) {
+            char c = Character.toLowerCase(response.charAt(i));
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next < 0 ? 0 : next;
+
+            int newCategories = outputMask[state] & ~found;
+            if (newCategories != 0) {
+                for (int category = 0; category < CATEGORIES; category++) {
+                    if ((newCategories & (1 << category)) != 0) {
+                        matched[category] = keywords[output[state][category]];
+                    }
+                }
+                found |= newCategories;
+            }
+        }
+        return new Match(matched);
+    }
+
+    private int transition(int state, char c) {
+        char[] chars = edgeChars[state];
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == c) return edgeTargets[state][i];
+        }
+        return -1;
+    }
+
+    private static final class Builder {
+        private char[][] chars = new char[16][];
+        private int[][] targets = new int[16][];
+        private int[][] own = new int[16][];
+        private int states = 1;
+        private final ArrayList<String> keywords = new ArrayList<>();
+
+        Builder() {
+            initState(0);
+        }
+
+        void addAll(List<String> list, int category) {
+            if (list == null) return;
+            for (String keyword : list) {
+                add(keyword, category);
+            }
+        }
+
+        void add(String keyword, int category) {
+            if (keyword == null || keyword.isEmpty()) return;
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                int next = find(state, c);
+                if (next < 0) {
+                    next = newState();
+                    link(state, c, next);
+                }
+                state = next;
+            }
+            if (own[state][category] < 0) {
+                own[state][category] = keywords.size();
+                keywords.add(keyword);
+            }
+        }
+
+        KeywordMatcher build() {
+            char[][] edgeChars = Arrays.copyOf(chars, states);
+            int[][] edgeTargets = Arrays.copyOf(targets, states);
+            int[][] output = Arrays.copyOf(own, states);
+            int[] fail = new int[states];
+            int[] mask = new int[states];
+
+            // Breadth-first so every fail target is resolved before its dependants
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int child : edgeTargets[0]) {
+                fail[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                int[] out = output[state];
+                int[] inherited = output[fail[state]];
+                for (int category = 0; category < CATEGORIES; category++) {
+                    if (out[category] < 0) out[category] = inherited[category];
+                    if (out[category] >= 0) mask[state] |= 1 << category;
+                }
+                for (int i = 0; i < edgeChars[state].length; i++) {
+                    char c = edgeChars[state][i];
+                    int child = edgeTargets[state][i];
+                    int f = fail[state];
+                    int next;
+                    while ((next = find(f, c)) < 0 && f != 0) {
+                        f = fail[f];
+                    }
+                    fail[child] = next >= 0 && next != child ? next : 0;
+                    queue.add(child);
+                }
+            }
+            return new KeywordMatcher(edgeChars, edgeTargets, fail, output, mask,
+                    keywords.toArray(new String[0]));
+        }
+
+        private void initState(int state) {
+            chars[state] = new char[0];
+            targets[state] = new int[0];
+            own[state] = new int[] {-1, -1, -1};
+        }
+
+        private int newState() {
+            if (states == chars.length) {
+                chars = Arrays.copyOf(chars, states * 2);
+                targets = Arrays.copyOf(targets, states * 2);
+                own = Arrays.copyOf(own, states * 2);
+            }
+            initState(states);
+            return states++;
+        }
+
+        private int find(int state, char c) {
+            char[] cs = chars[state];
+            for (int i = 0; i < cs.length; i++) {
+                if (cs[i] == c) return targets[state][i];
+            }
+            return -1;
+        }
+
+        private void link(int state, char c, int next) {
+            int n = chars[state].length;
+            chars[state] = Arrays.copyOf(chars[state], n + 1);
+            targets[state] = Arrays.copyOf(targets[state], n + 1);
+            chars[state][n] = c;
+            targets[state][n] = next;
+        }
+    }
+}
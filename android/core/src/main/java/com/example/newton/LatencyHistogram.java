@@ -0,0 +1,98 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds.
+ *
+ * Values below 16 us get a bucket each; above that every power of two is split into 8 buckets, so a
+ * reported percentile is within 12.5% of the true value. Recording is a few atomic increments and
+ * never allocates; percentiles are computed from a racy but consistent-enough scan of the buckets.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // ~12.7 days
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 4 + 1) * SUB;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordMicros(long micros) {
+        if (micros < 0) micros = 0;
+        buckets.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long m;
+        while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+            // lost a race with a larger value; re-read
+        }
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(millis * 1000);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /** Value at {@code quantile} (0..1) in microseconds; 0 when empty. */
+    public long percentileMicros(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** count, mean, p50, p90, p99 and max, with times in milliseconds. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> map = new HashMap<>();
+        long n = count.get();
+        map.put("count", n);
+        map.put("meanMs", n == 0 ? 0.0 : sum.get() / 1000.0 / n);
+        map.put("p50Ms", percentileMicros(0.50) / 1000.0);
+        map.put("p90Ms", percentileMicros(0.90) / 1000.0);
+        map.put("p99Ms", percentileMicros(0.99) / 1000.0);
+        map.put("maxMs", max.get() / 1000.0);
+        return map;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exponent - 4) * SUB + sub;
+    }
+
+    // Largest value that falls in bucket i
+    static long upperBound(int i) {
+        if (i < LINEAR) return i;
+        int exponent = (i - LINEAR) / SUB + 4;
+        int sub = (i - LINEAR) % SUB;
+        long base = 1L << exponent;
+        long width = base >>> SUB_BITS;
+        return base + (sub + 1) * width - 1;
+    }
+}
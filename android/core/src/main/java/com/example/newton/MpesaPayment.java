@@ -0,0 +1,50 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A payment extracted from an M-Pesa confirmation SMS.
+ */
+public final class MpesaPayment {
+    /** M-Pesa receipt code (e.g. "QJK1ABC2DE"), or null when the body does not start with one. */
+    public final String transactionCode;
+    public final long amountCents;
+    /** Payer phone number in 2547XXXXXXXX form. */
+    public final String phoneNumber;
+    /** Payer name with each word capitalised, or null when the SMS carries none. */
+    public final String name;
+
+    public MpesaPayment(String transactionCode, long amountCents, String phoneNumber, String name) {
+        this.transactionCode = transactionCode;
+        this.amountCents = amountCents;
+        this.phoneNumber = phoneNumber;
+        this.name = name;
+    }
+
+    /** Amount in shillings, matching the double Dart's MessageProcessor produces. */
+    public double amount() {
+        return amountCents / 100.0;
+    }
+
+    /** Adds the fields MessageProcessor.processMessage would extract to an SMS map. */
+    public void putInto(Map<String, Object> sms) {
+        sms.put("isPayment", true);
+        sms.put("transactionCode", transactionCode);
+        sms.put("amountCents", amountCents);
+        sms.put("extractedAmount", amount());
+        sms.put("extractedPhoneNumber", phoneNumber);
+        sms.put("extractedName", name);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        putInto(map);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "MpesaPayment{" + transactionCode + ", " + amountCents + "c, " + phoneNumber + ", " + name + "}";
+    }
+}
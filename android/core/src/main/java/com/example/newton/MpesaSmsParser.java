@@ -0,0 +1,200 @@
+package com.example.newton;
+
+/**
+ * Native counterpart of Dart's {@code MessageProcessor.processMessage}.
+ *
+ * A single forward scan over the SMS body, without regular expressions, so payments can be
+ * recognised on the broadcast thread before anything crosses the platform channel. The only
+ * allocations are the returned {@link MpesaPayment} and its strings.
+ */
+public final class MpesaSmsParser {
+    private static final String MPESA_SENDER = "MPESA";
+    private static final String REQUIRED_KEYWORD = "Confirmed.on";
+    private static final String CURRENCY = "Ksh";
+    private static final String RECEIVED_FROM = "received from";
+    private static final String BALANCE_MARKER = "New Account balance";
+    private static final int TRANSACTION_CODE_LENGTH = 10;
+
+    private MpesaSmsParser() {}
+
+    /** True for senders whose messages the app acts on (M-Pesa payments and Safaricom replies). */
+    public static boolean isRelevantSender(String sender) {
+        return sender != null
+                && (indexOfIgnoreCase(sender, MPESA_SENDER, 0) >= 0 || indexOfIgnoreCase(sender, "SAFARICOM", 0) >= 0);
+    }
+
+    /**
+     * Parses an M-Pesa "received from" confirmation. Returns null unless the sender is M-Pesa, the
+     * body carries the confirmation keyword and both an amount and a phone number are present.
+     */
+    public static MpesaPayment parse(String sender, String body) {
+        if (sender == null || body == null) return null;
+        if (indexOfIgnoreCase(sender, MPESA_SENDER, 0) < 0 || !body.contains(REQUIRED_KEYWORD)) return null;
+        return parseBody(body);
+    }
+
+    /** Parses the body only, without the sender and keyword checks. */
+    public static MpesaPayment parseBody(String body) {
+        long amountCents = parseAmountCents(body);
+        if (amountCents < 0) return null;
+
+        int from = indexOfIgnoreCase(body, RECEIVED_FROM, 0);
+        int digitsStart = -1;
+        int digitsEnd = -1;
+        while (from >= 0) {
+            int p = skipWhitespace(body, from + RECEIVED_FROM.length());
+            int q = skipDigits(body, p);
+            if (q > p) {
+                digitsStart = p;
+                digitsEnd = q;
+                break;
+            }
+            from = indexOfIgnoreCase(body, RECEIVED_FROM, from + 1);
+        }
+        if (digitsStart < 0) return null;
+
+        return new MpesaPayment(
+                parseTransactionCode(body),
+                amountCents,
+                normalizePhone(body, digitsStart, digitsEnd),
+                parseName(body, digitsEnd));
+    }
+
+    /**
+     * Finds the first {@code Ksh#,###.##} directly followed by "received from" and returns it in
+     * cents, or -1. Accepts the same shapes as Dart's {@code \d{1,3}(?:,\d{3})*\.\d{2}}.
+     */
+    static long parseAmountCents(String body) {
+        int at = indexOfIgnoreCase(body, CURRENCY, 0);
+        while (at >= 0) {
+            long cents = parseAmountAt(body, at + CURRENCY.length());
+            if (cents >= 0) return cents;
+            at = indexOfIgnoreCase(body, CURRENCY, at + 1);
+        }
+        return -1;
+    }
+
+    private static long parseAmountAt(String s, int p) {
+        int n = s.length();
+        long whole = 0;
+        int lead = 0;
+        while (p < n && lead < 3 && isDigit(s.charAt(p))) {
+            whole = whole * 10 + (s.charAt(p++) - '0');
+            lead++;
+        }
+        if (lead == 0) return -1;
+        while (p + 3 < n && s.charAt(p) == ',' && isDigit(s.charAt(p + 1))
+                && isDigit(s.charAt(p + 2)) && isDigit(s.charAt(p + 3))) {
+            whole = whole * 1000 + (s.charAt(p + 1) - '0') * 100 + (s.charAt(p + 2) - '0') * 10 + (s.charAt(p + 3) - '0');
+            p += 4;
+        }
+        if (p + 2 >= n || s.charAt(p) != '.' || !isDigit(s.charAt(p + 1)) || !isDigit(s.charAt(p + 2))) return -1;
+        long cents = whole * 100 + (s.charAt(p + 1) - '0') * 10 + (s.charAt(p + 2) - '0');
+        p = skipWhitespace(s, p + 3);
+        return s.regionMatches(true, p, RECEIVED_FROM, 0, RECEIVED_FROM.length()) ? cents : -1;
+    }
+
+    /** Leading receipt code: ten upper-case letters or digits followed by a non-alphanumeric. */
+    public static String parseTransactionCode(String body) {
+        int n = body.length();
+        if (n < TRANSACTION_CODE_LENGTH) return null;
+        for (int i = 0; i < TRANSACTION_CODE_LENGTH; i++) {
+            char c = body.charAt(i);
+            if (!isDigit(c) && (c < 'A' || c > 'Z')) return null;
+        }
+        if (n > TRANSACTION_CODE_LENGTH && Character.isLetterOrDigit(body.charAt(TRANSACTION_CODE_LENGTH))) return null;
+        return body.substring(0, TRANSACTION_CODE_LENGTH);
+    }
+
+    private static String normalizePhone(String body, int start, int end) {
+        if (end - start == 10 && body.charAt(start) == '0') {
+            return "254" + body.substring(start + 1, end);
+        }
+        return body.substring(start, end);
+    }
+
+    /**
+     * Name between the phone number and ". New Account balance" (or the end of the body). Only
+     * letters, whitespace and dots are allowed, as in Dart's name pattern.
+     */
+    static String parseName(String body, int p) {
+        int n = body.length();
+        int start = skipWhitespace(body, p);
+        if (start >= n) return null;
+        int end = -1;
+        for (int i = start; i < n; i++) {
+            char c = body.charAt(i);
+            if (i > start && c == '.' && isBalanceMarker(body, i + 1)) {
+                end = i;
+                break;
+            }
+            if (!isNameChar(c)) return null;
+        }
+        if (end < 0) end = n;
+
+        // Trim, drop one leading and one trailing dot, trim again
+        while (start < end && Character.isWhitespace(body.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(body.charAt(end - 1))) end--;
+        if (start < end && body.charAt(start) == '.') start++;
+        if (end > start && body.charAt(end - 1) == '.') end--;
+        while (start < end && Character.isWhitespace(body.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(body.charAt(end - 1))) end--;
+        if (start == end) return null;
+
+        return formatName(body, start, end);
+    }
+
+    /** Capitalises each word and collapses runs of whitespace to one space. */
+    public static String formatName(CharSequence s, int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        boolean wordStart = true;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                wordStart = true;
+                continue;
+            }
+            if (wordStart) {
+                if (out.length() > 0) out.append(' ');
+                out.append(Character.toUpperCase(c));
+                wordStart = false;
+            } else {
+                out.append(Character.toLowerCase(c));
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isBalanceMarker(String s, int p) {
+        p = skipWhitespace(s, p);
+        return s.regionMatches(true, p, BALANCE_MARKER, 0, BALANCE_MARKER.length());
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '.' || Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipWhitespace(String s, int p) {
+        int n = s.length();
+        while (p < n && Character.isWhitespace(s.charAt(p))) p++;
+        return p;
+    }
+
+    private static int skipDigits(String s, int p) {
+        int n = s.length();
+        while (p < n && isDigit(s.charAt(p))) p++;
+        return p;
+    }
+
+    static int indexOfIgnoreCase(String s, String needle, int from) {
+        int last = s.length() - needle.length();
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            if (s.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.newton;
+
+/**
+ * Logging for the pipeline classes shared with the app.
+ *
+ * Core has no logger of its own: the app points the {@link Sink} at {@code android.util.Log}, a load
+ * test may print, and without a sink nothing is logged. Levels use {@code android.util.Log}'s values.
+ */
+public final class PipelineLog {
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        /** {@code error} may be null. */
+        void log(int level, String tag, String message, Throwable error);
+    }
+
+    private static volatile Sink sink;
+
+    private PipelineLog() {}
+
+    public static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    public static void d(String tag, String message) {
+        log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        log(WARN, tag, message, null);
+    }
+
+    public static void e(String tag, String message) {
+        log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        log(ERROR, tag, message, error);
+    }
+
+    private static void log(int level, String tag, String message, Throwable error) {
+        Sink s = sink;
+        if (s != null) s.log(level, tag, message, error);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes between an M-Pesa SMS landing and the customer's confirmation.
+ *
+ * One {@link LatencyHistogram} per pipeline stage plus outcome counters, shared by the whole
+ * process. Recording is lock-free; {@link #snapshot()} backs the {@code getMetrics} call.
+ */
+public final class PipelineMetrics {
+    /** Carrier timestamp of the SMS to the moment the device received it. */
+    public static final String SMS_DELIVERY = "smsDelivery";
+    /** Decoding, reassembling and parsing one broadcast. */
+    public static final String SMS_PARSE = "smsParse";
+    /** Journal drain handed to Dart until Dart acknowledged it. */
+    public static final String JOURNAL_DRAIN = "journalDrain";
+    /** Time a USSD request waited for its SIM. */
+    public static final String USSD_QUEUE = "ussdQueue";
+    /** Payment SMS timestamp to USSD dispatch. */
+    public static final String PAYMENT_TO_DISPATCH = "paymentToDispatch";
+    /** USSD dispatch to the carrier's response (or failure). */
+    public static final String USSD_RESPONSE = "ussdResponse";
+    /** Confirmation SMS queued to its sent report. */
+    public static final String CONFIRMATION_SEND = "confirmationSend";
+    /** Payment SMS timestamp to the confirmation SMS being sent. */
+    public static final String END_TO_END = "endToEnd";
+    /** One group commit of the transaction ledger. */
+    public static final String LEDGER_COMMIT = "ledgerCommit";
+
+    private static final String[] STAGES = {
+            SMS_DELIVERY, SMS_PARSE, JOURNAL_DRAIN, USSD_QUEUE, PAYMENT_TO_DISPATCH, USSD_RESPONSE,
+            CONFIRMATION_SEND, END_TO_END, LEDGER_COMMIT
+    };
+
+    public static final String SMS_RECEIVED = "smsReceived";
+    public static final String PAYMENTS = "payments";
+    public static final String USSD_SUCCESS = "ussdSuccess";
+    public static final String USSD_FAILURE = "ussdFailure";
+    public static final String USSD_ALREADY = "ussdAlready";
+    public static final String USSD_ERROR = "ussdError";
+    public static final String USSD_TIMEOUT = "ussdTimeout";
+    /** Replies that came after their session had timed out. */
+    public static final String USSD_LATE = "ussdLate";
+    public static final String CONFIRMATIONS_SENT = "confirmationsSent";
+    public static final String CONFIRMATIONS_FAILED = "confirmationsFailed";
+    public static final String LEDGER_ROWS = "ledgerRows";
+
+    private static final String[] COUNTERS = {
+            SMS_RECEIVED, PAYMENTS, USSD_SUCCESS, USSD_FAILURE, USSD_ALREADY, USSD_ERROR, USSD_TIMEOUT,
+            USSD_LATE, CONFIRMATIONS_SENT, CONFIRMATIONS_FAILED, LEDGER_ROWS
+    };
+
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+    private final Map<String, LatencyHistogram> histograms = new HashMap<>();
+    private final Map<String, AtomicLong> counters = new HashMap<>();
+    private final long startedAt = uptimeMillis();
+
+    public static PipelineMetrics get() {
+        return INSTANCE;
+    }
+
+    // Both maps are filled here and only read afterwards, so lookups need no locking
+    private PipelineMetrics() {
+        for (String stage : STAGES) histograms.put(stage, new LatencyHistogram());
+        for (String counter : COUNTERS) counters.put(counter, new AtomicLong());
+    }
+
+    public void recordMillis(String stage, long millis) {
+        histograms.get(stage).recordMillis(millis);
+    }
+
+    public void recordNanos(String stage, long nanos) {
+        histograms.get(stage).recordNanos(nanos);
+    }
+
+    /** Records wall-clock time since {@code sinceMillis}, e.g. an SMS timestamp; ignores unknown (0) starts. */
+    public void recordSince(String stage, long sinceMillis) {
+        if (sinceMillis > 0) recordMillis(stage, System.currentTimeMillis() - sinceMillis);
+    }
+
+    /** As {@link #recordSince}, reading the SMS timestamp from a transaction map. */
+    public void recordSince(String stage, Map<String, Object> transaction) {
+        Object timestamp = transaction != null ? transaction.get("timestamp") : null;
+        if (timestamp instanceof Number) recordSince(stage, ((Number) timestamp).longValue());
+    }
+
+    public void increment(String counter) {
+        counters.get(counter).incrementAndGet();
+    }
+
+    public void add(String counter, long delta) {
+        counters.get(counter).addAndGet(delta);
+    }
+
+    public long count(String counter) {
+        return counters.get(counter).get();
+    }
+
+    /** Histograms under "stages", counters under "counters" and their per-minute rates under "ratesPerMinute". */
+    public Map<String, Object> snapshot() {
+        double minutes = Math.max(1, uptimeMillis() - startedAt) / 60000.0;
+        Map<String, Object> stages = new HashMap<>();
+        for (String stage : STAGES) {
+            Map<String, Object> histogram = histograms.get(stage).snapshot();
+            histogram.put("perMinute", ((Long) histogram.get("count")) / minutes);
+            stages.put(stage, histogram);
+        }
+        Map<String, Object> counts = new HashMap<>();
+        Map<String, Object> rates = new HashMap<>();
+        for (String counter : COUNTERS) {
+            long value = counters.get(counter).get();
+            counts.put(counter, value);
+            rates.put(counter, value / minutes);
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("uptimeMs", uptimeMillis() - startedAt);
+        snapshot.put("stages", stages);
+        snapshot.put("counters", counts);
+        snapshot.put("ratesPerMinute", rates);
+        return snapshot;
+    }
+
+    private static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,448 @@
+package com.example.newton;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The purchase half of the payment path: one USSD session per paid transaction, then the customer's
+ * confirmation.
+ *
+ * A purchase takes a SIM (pinned, or the least busy one from {@link SimScheduler}), waits in that
+ * SIM's {@link UssdDispatchQueue} lane and for its USSD allowance, and is dialed through the
+ * {@link UssdGateway} with a deadline on the {@link DeadlineWheel}. The reply is classified by the
+ * {@link KeywordMatcher}, the confirmation goes through the {@link ConfirmationCoalescer} to the
+ * {@link SmsOutbox}, and the outcome is handed to the {@link Host}. Everything after
+ * {@link #purchase} runs on the pipeline {@link Worker}.
+ *
+ * A session past its deadline frees its SIM and is reported as an error, but it stays claimed and
+ * its reply is still awaited: a timeout does not prove nothing was bought. A reply that comes later
+ * is classified like any other and handed to {@link Host#onLateOutcome} to correct the record. Only
+ * an explicit carrier failure moves a purchase to another SIM.
+ */
+public final class PurchasePipeline {
+    private static final String TAG = "PurchasePipeline";
+    public static final long DEFAULT_USSD_TIMEOUT_MS = 45 * 1000;
+    public static final long DEFAULT_COALESCE_MAX_DELAY_MS = 60 * 1000;
+
+    /** {@link #purchase} outcomes. */
+    public static final int QUEUED = 0;
+    /** The number already had today's offer; answered without a session. */
+    public static final int ALREADY_SERVED = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NO_ACTIVE_SIM = 3;
+    public static final int NOT_PERMITTED = 4;
+
+    /** What the pipeline needs from the app around it. */
+    public interface Host {
+        /** Claims the payment behind {@code transaction} for one purchase; false if it already has one. */
+        boolean claimPayment(Map<String, Object> transaction);
+
+        /** Nothing was bought, so a later attempt for the same payment may dial again. */
+        void releasePayment(Map<String, Object> transaction);
+
+        boolean isServed(String phoneNumber);
+
+        void markServed(String phoneNumber);
+
+        /** Whether a USSD session may be dialed at all, e.g. the call permission is granted. */
+        boolean canDial();
+
+        /** Confirmation text for a result type such as "USSD_SUCCESS". */
+        SmsTemplate.Rendered render(String type, Map<String, Object> transaction);
+
+        /**
+         * A purchase ended with a {@link BusinessStats} outcome; {@code report} is the map Flutter gets
+         * as {@code onUssdResponse}, or {@code onUssdError} for {@link BusinessStats#ERROR}. Pipeline thread.
+         */
+        void onOutcome(int outcome, Map<String, Object> transaction, int subscriptionId, Map<String, Object> report);
+
+        /**
+         * The reply to a session already reported as a timed-out {@link BusinessStats#ERROR} at
+         * {@code timedOutAt} came after all; {@code outcome} replaces that error. {@code report} is
+         * sent as {@code onUssdResponse}, with {@code late} set. Pipeline thread.
+         */
+        void onLateOutcome(int outcome, Map<String, Object> transaction, int subscriptionId, Map<String, Object> report,
+                           long timedOutAt);
+    }
+
+    private final Worker worker;
+    private final UssdGateway ussdGateway;
+    private final SimDirectory simDirectory;
+    private final SmsOutbox outbox;
+    private final DeadlineWheel deadlines;
+    private final CarrierPacer rateLimits;
+    private final Host host;
+
+    // One lane per SIM; results are handled on the pipeline worker
+    private final UssdDispatchQueue dispatchQueue;
+    private final DeadlineWheel.Expiry ussdDeadline;
+    // Spreads "any SIM" purchases across active subscriptions
+    private final SimScheduler simScheduler;
+    // Confirmation SMS per customer waiting out the coalescing window; worker only, off until configured
+    private final ConfirmationCoalescer confirmations = new ConfirmationCoalescer(0, DEFAULT_COALESCE_MAX_DELAY_MS);
+    private final Runnable flushConfirmations = this::flushConfirmations;
+    // confirmations.pending(), for readers off the worker
+    private volatile int coalescing;
+    private volatile KeywordMatcher keywordMatcher = KeywordMatcher.compile(
+            Collections.<String>emptyList(), Collections.<String>emptyList(), null);
+    private volatile long ussdTimeoutMs = DEFAULT_USSD_TIMEOUT_MS;
+
+    public PurchasePipeline(Worker worker, UssdGateway ussdGateway, SimDirectory simDirectory, SmsOutbox outbox,
+                            DeadlineWheel deadlines, CarrierPacer rateLimits, Host host) {
+        this.worker = worker;
+        this.ussdGateway = ussdGateway;
+        this.simDirectory = simDirectory;
+        this.outbox = outbox;
+        this.deadlines = deadlines;
+        this.rateLimits = rateLimits;
+        this.host = host;
+        dispatchQueue = new UssdDispatchQueue(request -> worker.run(() -> dispatchWhenAllowed(request)));
+        ussdDeadline = entry -> worker.run(() -> handleUssdTimeout((UssdDispatchQueue.UssdRequest) entry));
+        simScheduler = new SimScheduler(dispatchQueue::outstanding);
+    }
+
+    public void setKeywords(List<String> successKeywords, List<String> failureKeywords, List<String> alreadyKeywords) {
+        keywordMatcher = KeywordMatcher.compile(successKeywords, failureKeywords, alreadyKeywords);
+    }
+
+    public void setUssdTimeout(long timeoutMs) {
+        ussdTimeoutMs = timeoutMs;
+    }
+
+    public long ussdTimeoutMs() {
+        return ussdTimeoutMs;
+    }
+
+    /** Confirmations to one customer within {@code windowMs} go out as one SMS; 0 sends at once. */
+    public void configureCoalescing(long windowMs, long maxDelayMs) {
+        worker.run(() -> {
+            confirmations.configure(windowMs, maxDelayMs);
+            if (confirmations.windowMs() == 0) flushAllConfirmations();
+            scheduleConfirmations();
+        });
+    }
+
+    public SmsOutbox outbox() {
+        return outbox;
+    }
+
+    /** Purchases waiting for or holding a SIM. */
+    public int outstanding() {
+        return dispatchQueue.totalOutstanding();
+    }
+
+    /** Confirmations waiting out their coalescing window. */
+    public int coalescing() {
+        return coalescing;
+    }
+
+    public Map<String, Object> simSnapshot(int subscriptionId) {
+        return simScheduler.snapshot(subscriptionId);
+    }
+
+    /**
+     * Starts the purchase for {@code transaction} with {@code ussdCode}, on {@code subscriptionId} or,
+     * for {@link SimScheduler#ANY_SIM}, the least busy SIM. A session the carrier fails outright is
+     * tried on up to {@code retries} other SIMs. Returns {@link #QUEUED} or why nothing was dialed.
+     */
+    public int purchase(String ussdCode, int subscriptionId, Map<String, Object> transaction, int retries) {
+        // Resolved first: the "already served" answer is sent, paced and counted on a real SIM too
+        if (subscriptionId == SimScheduler.ANY_SIM) {
+            subscriptionId = simScheduler.pick(activeSubscriptionIds());
+            if (subscriptionId == SimScheduler.ANY_SIM) return NO_ACTIVE_SIM;
+            PipelineLog.d(TAG, "Scheduler picked SIM ID: " + subscriptionId);
+        }
+
+        // A number that already got today's offer is answered without a USSD session
+        String phoneNumber = transaction != null ? (String) transaction.get("extractedPhoneNumber") : null;
+        if (host.isServed(phoneNumber)) {
+            if (!host.claimPayment(transaction)) return DUPLICATE;
+            int simId = subscriptionId;
+            worker.run(() -> answerAlreadyServed(simId, transaction));
+            return ALREADY_SERVED;
+        }
+
+        if (!host.canDial()) return NOT_PERMITTED;
+        if (!host.claimPayment(transaction)) return DUPLICATE;
+
+        UssdDispatchQueue.UssdRequest request = dispatchQueue.enqueue(subscriptionId, ussdCode, transaction, retries);
+        PipelineLog.d(TAG, "Queued " + request + ", outstanding on SIM: " + dispatchQueue.outstanding(subscriptionId));
+        return QUEUED;
+    }
+
+    /** Sends every confirmation still waiting out its window, e.g. when coalescing is turned off. */
+    public void flushAll() {
+        worker.run(this::flushAllConfirmations);
+    }
+
+    // Worker from here on
+
+    // Same outcome as a USSD reply containing "already", minus the session
+    private void answerAlreadyServed(int subscriptionId, Map<String, Object> transaction) {
+        String response = "already served today";
+        PipelineLog.d(TAG, "Skipping USSD, " + transaction.get("extractedPhoneNumber") + " " + response);
+        sendDirectSms("USSD_ALREADY", transaction, subscriptionId);
+
+        Map<String, Object> responseMap = new HashMap<>();
+        responseMap.put("simSubscriptionId", subscriptionId);
+        responseMap.put("transaction", transaction);
+        responseMap.put("response", response);
+        responseMap.put("isSuccess", false);
+        responseMap.put("isFailure", false);
+        responseMap.put("isAlready", true);
+        responseMap.put("skippedDial", true);
+        host.onOutcome(BusinessStats.ALREADY, transaction, subscriptionId, responseMap);
+    }
+
+    // The request already holds its SIM's lane; it waits there until the SIM's USSD allowance covers it
+    private void dispatchWhenAllowed(UssdDispatchQueue.UssdRequest request) {
+        long waitMs = rateLimits.reserveUssd(request.subscriptionId);
+        if (waitMs <= 0) {
+            sendUssdRequestAtOnce(request);
+            return;
+        }
+        PipelineLog.d(TAG, "USSD rate limit on SIM " + request.subscriptionId + ", holding " + request + " for " + waitMs + " ms");
+        worker.postDelayed(() -> {
+            // The hold counts as queueing, not as carrier response time
+            request.dispatchedAt = System.currentTimeMillis();
+            sendUssdRequestAtOnce(request);
+        }, waitMs);
+    }
+
+    // Dispatches one queued request; its callbacks resolve that request's transaction only
+    private void sendUssdRequestAtOnce(UssdDispatchQueue.UssdRequest request) {
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.recordMillis(PipelineMetrics.USSD_QUEUE, request.getDispatchedAt() - request.enqueuedAt);
+        metrics.recordSince(PipelineMetrics.PAYMENT_TO_DISPATCH, request.transaction);
+        // Armed before the request goes out, so even an immediate callback finds it
+        deadlines.schedule(request, ussdTimeoutMs, ussdDeadline);
+        try {
+            ussdGateway.sendUssdRequest(request.subscriptionId, request.ussdCode, new UssdGateway.Callback() {
+                @Override
+                public void onResponse(CharSequence response) {
+                    worker.run(() -> handleUssdResponse(request, response));
+                }
+
+                @Override
+                public void onFailure(int failureCode) {
+                    // Often the carrier pushing back; give the SIM's allowance time to refill
+                    rateLimits.onUssdRejected(request.subscriptionId);
+                    worker.run(() -> handleUssdFailure(request, "USSD failed (code " + failureCode + ")"));
+                }
+            });
+        } catch (RuntimeException e) {
+            PipelineLog.e(TAG, "sendUssdRequest threw for " + request + ": " + e.getMessage());
+            // Posted rather than inline, so a SIM that keeps throwing cannot recurse through its whole queue
+            worker.post(() -> handleUssdFailure(request, "USSD failed (" + e.getMessage() + ")"));
+        }
+    }
+
+    private void handleUssdResponse(UssdDispatchQueue.UssdRequest request, CharSequence response) {
+        if (!request.resolve()) {
+            PipelineLog.w(TAG, "Second USSD response for " + request + " ignored");
+            return;
+        }
+        // Past its deadline the SIM is already free and the purchase reported as an error
+        boolean late = request.isTimedOut();
+        if (late) {
+            PipelineLog.w(TAG, "Late USSD response for " + request + ", correcting its timeout");
+        } else {
+            deadlines.cancel(request);
+        }
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.recordMillis(PipelineMetrics.USSD_RESPONSE, System.currentTimeMillis() - request.getDispatchedAt());
+        String responseStr = response.toString().toLowerCase();
+        KeywordMatcher.Match match = keywordMatcher.classify(responseStr);
+        boolean isSuccess = match.isSuccess();
+        boolean isFailure = match.isFailure();
+        boolean isAlready = match.isAlready();
+
+        PipelineLog.d(TAG, "Response: " + responseStr);
+        PipelineLog.d(TAG, "isSuccess: " + isSuccess + ", isFailure: " + isFailure
+                + ", isAlready: " + isAlready + ", keyword: " + match.decidingKeyword());
+
+        // Either way the number has had its offer for today
+        if ((isAlready || isSuccess) && request.transaction != null) {
+            host.markServed((String) request.transaction.get("extractedPhoneNumber"));
+        }
+
+        metrics.increment(isAlready ? PipelineMetrics.USSD_ALREADY
+                : isSuccess ? PipelineMetrics.USSD_SUCCESS : PipelineMetrics.USSD_FAILURE);
+        if (late) metrics.increment(PipelineMetrics.USSD_LATE);
+
+        if (isAlready) {
+            sendDirectSms("USSD_ALREADY", request.transaction, request.subscriptionId);
+        } else if (isSuccess) {
+            sendDirectSms("USSD_SUCCESS", request.transaction, request.subscriptionId);
+        } else if (isFailure) {
+            sendDirectSms("USSD_FAILURE", request.transaction, request.subscriptionId);
+            host.releasePayment(request.transaction);
+        }
+
+        Map<String, Object> responseMap = new HashMap<>();
+        responseMap.put("requestId", request.id);
+        responseMap.put("simSubscriptionId", request.subscriptionId);
+        responseMap.put("transaction", request.transaction);
+        responseMap.put("response", responseStr);
+        responseMap.put("isSuccess", isSuccess);
+        responseMap.put("isFailure", isFailure);
+        responseMap.put("isAlready", isAlready);
+        responseMap.put("matchedKeyword", match.decidingKeyword());
+        responseMap.put("late", late);
+        int outcome = isAlready ? BusinessStats.ALREADY : isSuccess ? BusinessStats.SUCCESS : BusinessStats.FAILURE;
+        // Flutter deducts a token on success
+        if (late) {
+            host.onLateOutcome(outcome, request.transaction, request.subscriptionId, responseMap, request.timedOutAt);
+            return;
+        }
+        host.onOutcome(outcome, request.transaction, request.subscriptionId, responseMap);
+
+        simScheduler.recordResult(request.subscriptionId,
+                System.currentTimeMillis() - request.getDispatchedAt(), false);
+
+        // Release the SIM for the next queued request
+        dispatchQueue.complete(request);
+    }
+
+    // The carrier refused the session, so nothing was bought: try another SIM or report it
+    private void handleUssdFailure(UssdDispatchQueue.UssdRequest request, String error) {
+        if (!request.resolve()) return;
+        if (request.isTimedOut()) {
+            // Already reported at the deadline; only the claim it kept is wrong now
+            PipelineLog.w(TAG, error + " for " + request + " after its timeout");
+            host.releasePayment(request.transaction);
+            return;
+        }
+        deadlines.cancel(request);
+        PipelineMetrics metrics = PipelineMetrics.get();
+        metrics.increment(PipelineMetrics.USSD_ERROR);
+        long elapsed = request.getDispatchedAt() > 0 ? System.currentTimeMillis() - request.getDispatchedAt() : 0;
+        if (request.getDispatchedAt() > 0) metrics.recordMillis(PipelineMetrics.USSD_RESPONSE, elapsed);
+        if (request.retriesLeft > 0) {
+            int otherSim = simScheduler.pick(activeSubscriptionIdsExcept(request.subscriptionId));
+            if (otherSim != SimScheduler.ANY_SIM) {
+                PipelineLog.w(TAG, error + " for " + request + ", retrying on SIM " + otherSim);
+                simScheduler.recordResult(request.subscriptionId, elapsed, true);
+                dispatchQueue.complete(request);
+                dispatchQueue.enqueue(otherSim, request.ussdCode, request.transaction, request.retriesLeft - 1);
+                return;
+            }
+        }
+        reportUssdFailure(request, error, false);
+    }
+
+    // The carrier has not answered yet: free the SIM and report an error, but keep waiting for the reply
+    private void handleUssdTimeout(UssdDispatchQueue.UssdRequest request) {
+        if (!request.timeOut()) return;
+        request.timedOutAt = System.currentTimeMillis();
+        PipelineMetrics.get().increment(PipelineMetrics.USSD_TIMEOUT);
+        reportUssdFailure(request, "USSD timed out after " + (ussdTimeoutMs / 1000) + "s", true);
+    }
+
+    private void reportUssdFailure(UssdDispatchQueue.UssdRequest request, String error, boolean timedOut) {
+        PipelineLog.e(TAG, error + " for " + request);
+
+        // The carrier refused or the dial never left; a timeout may still have bought it, so that stays claimed
+        if (!timedOut) host.releasePayment(request.transaction);
+
+        sendDirectSms("USSD_ERROR", request.transaction, request.subscriptionId);
+
+        Map<String, Object> errorMap = new HashMap<>();
+        errorMap.put("requestId", request.id);
+        errorMap.put("simSubscriptionId", request.subscriptionId);
+        errorMap.put("transaction", request.transaction);
+        errorMap.put("error", error);
+        errorMap.put("isFailure", true);
+        errorMap.put("response", error);
+        errorMap.put("timedOut", timedOut);
+        if (timedOut) errorMap.put("timedOutAt", request.timedOutAt);
+        // No token deduction
+        host.onOutcome(BusinessStats.ERROR, request.transaction, request.subscriptionId, errorMap);
+
+        simScheduler.recordResult(request.subscriptionId,
+                System.currentTimeMillis() - request.getDispatchedAt(), true);
+
+        // Release the SIM for the next queued request
+        dispatchQueue.complete(request);
+    }
+
+    private void sendDirectSms(String type, Map<String, Object> transaction, int subscriptionId) {
+        String phoneNumber = transaction != null ? (String) transaction.get("extractedPhoneNumber") : null;
+        if (phoneNumber == null || phoneNumber.isEmpty()) {
+            PipelineLog.w(TAG, "No phone number available for direct SMS");
+            return;
+        }
+
+        // With a coalescing window, results for the same customer wait to go out as one SMS
+        ConfirmationCoalescer.Batch batch = confirmations.add(type, phoneNumber, subscriptionId, transaction,
+                worker.uptimeMillis());
+        if (batch != null) {
+            sendConfirmation(batch);
+        } else {
+            scheduleConfirmations();
+        }
+    }
+
+    private void sendConfirmation(ConfirmationCoalescer.Batch batch) {
+        String type = batch.type;
+        Map<String, Object> transaction = batch.transaction();
+        try {
+            SmsTemplate.Rendered rendered = host.render(type, transaction);
+            if (batch.transactions.size() > 1) {
+                PipelineLog.i(TAG, "Coalesced " + batch.transactions.size() + " " + type + " results for " + batch.recipient);
+            }
+            if (rendered.exceedsOnePart()) {
+                PipelineLog.w(TAG, type + " SMS needs " + rendered.smsParts + " parts (" + rendered.encodedLength + " chars)");
+            }
+            // Sent from the SIM that ran the USSD session
+            SmsOutbox.OutboundSms sms = outbox.enqueue(batch.recipient, rendered.text, batch.subscriptionId, transaction);
+            PipelineLog.i(TAG, "SMS " + sms.id + " queued to " + batch.recipient + " (Type: " + type + "): " + rendered.text);
+        } catch (Exception e) {
+            PipelineLog.e(TAG, "Failed to send direct SMS: " + e.getMessage());
+        }
+    }
+
+    private void flushConfirmations() {
+        for (ConfirmationCoalescer.Batch batch : confirmations.takeDue(worker.uptimeMillis())) {
+            sendConfirmation(batch);
+        }
+        scheduleConfirmations();
+    }
+
+    private void flushAllConfirmations() {
+        for (ConfirmationCoalescer.Batch batch : confirmations.takeAll()) {
+            sendConfirmation(batch);
+        }
+        coalescing = 0;
+    }
+
+    // One pending flush, at the earliest due batch
+    private void scheduleConfirmations() {
+        worker.remove(flushConfirmations);
+        coalescing = confirmations.pending();
+        long next = confirmations.nextDueAt();
+        if (next != Long.MAX_VALUE) worker.postDelayed(flushConfirmations, Math.max(0, next - worker.uptimeMillis()));
+    }
+
+    private int[] activeSubscriptionIds() {
+        List<SimDirectory.Sim> sims = simDirectory.activeSims();
+        int[] ids = new int[sims.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sims.get(i).subscriptionId;
+        }
+        return ids;
+    }
+
+    private int[] activeSubscriptionIdsExcept(int subscriptionId) {
+        int[] ids = activeSubscriptionIds();
+        int[] others = new int[ids.length];
+        int n = 0;
+        for (int id : ids) {
+            if (id != subscriptionId) others[n++] = id;
+        }
+        return Arrays.copyOf(others, n);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One token bucket per subscription id, refilled at {@code perMinute} up to {@code burst}.
+ *
+ * Callers reserve rather than try: {@link #reserve} always takes the permits and returns how long
+ * to wait before using them. The balance may go negative, so a burst queues up behind the limit in
+ * arrival order instead of failing. {@link #backOff} empties a bucket when the carrier pushes back.
+ * A rate of 0 or less turns limiting off. Times are monotonic nanoseconds supplied by the caller.
+ */
+public final class RateLimiter {
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private static final class Bucket {
+        double tokens;
+        long updatedAt;
+
+        Bucket(double tokens, long updatedAt) {
+            this.tokens = tokens;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final Map<Integer, Bucket> buckets = new TreeMap<>();
+    private double perMinute;
+    private int burst;
+
+    public RateLimiter(double perMinute, int burst) {
+        configure(perMinute, burst);
+    }
+
+    /** Changes the limits; balances already queued keep waiting at the new rate. */
+    public synchronized void configure(double perMinute, int burst) {
+        this.perMinute = perMinute;
+        this.burst = Math.max(1, burst);
+        for (Bucket bucket : buckets.values()) bucket.tokens = Math.min(bucket.tokens, this.burst);
+    }
+
+    public synchronized double perMinute() {
+        return perMinute;
+    }
+
+    public synchronized int burst() {
+        return burst;
+    }
+
+    /**
+     * Takes {@code permits} (capped at the burst size) from {@code subscriptionId}'s bucket and
+     * returns the nanoseconds until they are covered; 0 means go now.
+     */
+    public synchronized long reserve(int subscriptionId, int permits, long nowNanos) {
+        if (perMinute <= 0) return 0;
+        Bucket bucket = refill(subscriptionId, nowNanos);
+        bucket.tokens -= Math.min(Math.max(1, permits), burst);
+        return debtNanos(bucket);
+    }
+
+    /** Drops {@code subscriptionId}'s allowance to nothing, e.g. after the carrier rejected a request. */
+    public synchronized void backOff(int subscriptionId, long nowNanos) {
+        if (perMinute <= 0) return;
+        Bucket bucket = refill(subscriptionId, nowNanos);
+        bucket.tokens = Math.min(bucket.tokens, 0);
+    }
+
+    /** Nanoseconds a new single-permit reservation on {@code subscriptionId} would wait. */
+    public synchronized long waitNanos(int subscriptionId, long nowNanos) {
+        if (perMinute <= 0) return 0;
+        Bucket bucket = refill(subscriptionId, nowNanos);
+        return bucket.tokens >= 1 ? 0 : (long) Math.ceil((1 - bucket.tokens) * NANOS_PER_MINUTE / perMinute);
+    }
+
+    /**
+     * Per SIM used so far: whole permits available now ("allowance"), permits reserved but not yet
+     * covered ("queued") and the wait for the next one.
+     */
+    public synchronized List<Map<String, Object>> snapshot(long nowNanos) {
+        List<Map<String, Object>> sims = new ArrayList<>(buckets.size());
+        for (Integer subscriptionId : new ArrayList<>(buckets.keySet())) {
+            Map<String, Object> sim = new HashMap<>();
+            sim.put("subscriptionId", subscriptionId);
+            double tokens = refill(subscriptionId, nowNanos).tokens;
+            sim.put("allowance", (int) Math.max(0, Math.floor(tokens)));
+            sim.put("queued", (int) Math.max(0, Math.ceil(-tokens)));
+            sim.put("waitMs", waitNanos(subscriptionId, nowNanos) / 1000000);
+            sims.add(sim);
+        }
+        return sims;
+    }
+
+    private Bucket refill(int subscriptionId, long nowNanos) {
+        Bucket bucket = buckets.get(subscriptionId);
+        if (bucket == null) {
+            bucket = new Bucket(burst, nowNanos);
+            buckets.put(subscriptionId, bucket);
+            return bucket;
+        }
+        long elapsed = nowNanos - bucket.updatedAt;
+        if (elapsed > 0) {
+            bucket.tokens = Math.min(burst, bucket.tokens + elapsed * perMinute / NANOS_PER_MINUTE);
+            bucket.updatedAt = nowNanos;
+        }
+        return bucket;
+    }
+
+    private long debtNanos(Bucket bucket) {
+        return bucket.tokens >= 0 ? 0 : (long) Math.ceil(-bucket.tokens * NANOS_PER_MINUTE / perMinute);
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.newton;
+
+import java.util.List;
+
+/** The active SIM subscriptions: {@code SubscriptionManager} on a device, simulated SIMs in load tests. */
+public interface SimDirectory {
+    final class Sim {
+        public final int subscriptionId;
+        public final int slotIndex;
+        public final String displayName;
+
+        public Sim(int subscriptionId, int slotIndex, String displayName) {
+            this.subscriptionId = subscriptionId;
+            this.slotIndex = slotIndex;
+            this.displayName = displayName;
+        }
+    }
+
+    /** Active SIMs in slot order; empty when there are none or they cannot be read. */
+    List<Sim> activeSims();
+}
@@ -0,0 +1,112 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses which SIM runs the next USSD purchase when Flutter asks for "any SIM".
+ *
+ * Each subscription is scored by the work already waiting on it, its recent response latency
+ * (exponentially weighted) and its recent failures (decaying over {@link #FAILURE_HALF_LIFE_MS}).
+ * The lowest expected completion time wins.
+ */
+public class SimScheduler {
+    /** Subscription id Flutter passes to let the scheduler pick a SIM. */
+    public static final int ANY_SIM = -1;
+
+    private static final long DEFAULT_LATENCY_MS = 5000;
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long FAILURE_HALF_LIFE_MS = 60 * 1000;
+    private static final double FAILURE_PENALTY = 0.5;
+
+    private static final class SimStats {
+        double latencyMs = DEFAULT_LATENCY_MS;
+        double failures;
+        long failuresUpdatedAt;
+        long completed;
+        long failed;
+    }
+
+    public interface OutstandingCounter {
+        int outstanding(int subscriptionId);
+    }
+
+    private final OutstandingCounter outstandingCounter;
+    private final Map<Integer, SimStats> stats = new HashMap<>();
+
+    public SimScheduler(OutstandingCounter outstandingCounter) {
+        this.outstandingCounter = outstandingCounter;
+    }
+
+    /**
+     * Picks the subscription with the lowest expected time to finish one more request.
+     * Returns {@link #ANY_SIM} when no subscription is active.
+     */
+    public int pick(int[] activeSubscriptionIds) {
+        long now = System.currentTimeMillis();
+        int best = ANY_SIM;
+        double bestScore = Double.MAX_VALUE;
+        for (int subscriptionId : activeSubscriptionIds) {
+            double score = score(subscriptionId, now);
+            if (score < bestScore) {
+                bestScore = score;
+                best = subscriptionId;
+            }
+        }
+        return best;
+    }
+
+    /** Records a finished USSD session so later picks reflect this SIM's health. */
+    public synchronized void recordResult(int subscriptionId, long latencyMs, boolean failed) {
+        SimStats s = statsFor(subscriptionId);
+        s.latencyMs += LATENCY_WEIGHT * (latencyMs - s.latencyMs);
+        if (failed) {
+            long now = System.currentTimeMillis();
+            s.failures = decayedFailures(s, now) + 1;
+            s.failuresUpdatedAt = now;
+            s.failed++;
+        } else {
+            s.completed++;
+        }
+    }
+
+    /** Per-SIM view for diagnostics: latency, decayed failures and lifetime counts. */
+    public synchronized Map<String, Object> snapshot(int subscriptionId) {
+        SimStats s = statsFor(subscriptionId);
+        Map<String, Object> map = new HashMap<>();
+        map.put("subscriptionId", subscriptionId);
+        map.put("latencyMs", Math.round(s.latencyMs));
+        map.put("recentFailures", decayedFailures(s, System.currentTimeMillis()));
+        map.put("completed", s.completed);
+        map.put("failed", s.failed);
+        map.put("outstanding", outstandingCounter.outstanding(subscriptionId));
+        return map;
+    }
+
+    private double score(int subscriptionId, long now) {
+        int outstanding = outstandingCounter.outstanding(subscriptionId);
+        double latency;
+        double failures;
+        synchronized (this) {
+            SimStats s = statsFor(subscriptionId);
+            latency = s.latencyMs;
+            failures = decayedFailures(s, now);
+        }
+        return (outstanding + 1) * latency * (1 + FAILURE_PENALTY * failures);
+    }
+
+    private static double decayedFailures(SimStats s, long now) {
+        if (s.failures == 0) return 0;
+        long age = now - s.failuresUpdatedAt;
+        return s.failures * Math.pow(0.5, (double) age / FAILURE_HALF_LIFE_MS);
+    }
+
+    private SimStats statsFor(int subscriptionId) {
+        SimStats s = stats.get(subscriptionId);
+        if (s == null) {
+            s = new SimStats();
+            stats.put(subscriptionId, s);
+        }
+        return s;
+    }
+}
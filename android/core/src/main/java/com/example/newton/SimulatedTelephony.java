@@ -0,0 +1,214 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM stand-in for the carrier, so the pipeline can be load-tested without a phone.
+ *
+ * Each simulated SIM answers USSD after a random latency with a success, "already" or declined
+ * reply, fails outright, answers a success only after a long extra delay, or never answers at all,
+ * at the configured rates. Like a real SIM it runs one session at a time:
+ * a request sent while another is open fails at once. Each SMS part reports sent, and then delivered,
+ * after its own latency. Callbacks run on a small pool of daemon threads.
+ */
+public final class SimulatedTelephony implements UssdGateway, SmsGateway, SimDirectory {
+    public static final String SUCCESS_RESPONSE = "You have successfully purchased your bundle. Thank you.";
+    public static final String ALREADY_RESPONSE = "Sorry, this number has already been recommended a bundle today.";
+    public static final String DECLINED_RESPONSE = "Request failed due to insufficient balance. Please try again.";
+
+    private static final int GSM_SINGLE = 160;
+    private static final int GSM_MULTI = 153;
+
+    private final List<Sim> sims;
+    private final Random random;
+    private final ScheduledExecutorService executor;
+    private final Set<Integer> openSessions = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private volatile ReportListener reportListener;
+
+    private volatile long ussdMinMs = 1500;
+    private volatile long ussdMaxMs = 4000;
+    private volatile double ussdFailureRate;
+    private volatile double alreadyRate;
+    private volatile double declineRate;
+    private volatile double silenceRate;
+    private volatile double lateRate;
+    private volatile long lateDelayMs;
+    private volatile long smsMinMs = 300;
+    private volatile long smsMaxMs = 1500;
+    private volatile double smsFailureRate;
+
+    private final AtomicLong ussdRequests = new AtomicLong();
+    private final AtomicLong busyRejections = new AtomicLong();
+    private final AtomicLong silentSessions = new AtomicLong();
+    private final AtomicLong lateReplies = new AtomicLong();
+    private final AtomicLong smsParts = new AtomicLong();
+    private final AtomicLong smsFailures = new AtomicLong();
+
+    /** {@code simCount} SIMs with subscription ids 1..simCount; {@code seed} fixes the outcomes. */
+    public SimulatedTelephony(int simCount, long seed) {
+        List<Sim> list = new ArrayList<>(simCount);
+        for (int slot = 0; slot < simCount; slot++) {
+            list.add(new Sim(slot + 1, slot, "Simulated SIM " + (slot + 1)));
+        }
+        this.sims = Collections.unmodifiableList(list);
+        this.random = new Random(seed);
+        this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "SimulatedTelephony");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Time from a USSD request to its reply, uniform in [minMs, maxMs]. */
+    public SimulatedTelephony ussdLatency(long minMs, long maxMs) {
+        this.ussdMinMs = minMs;
+        this.ussdMaxMs = Math.max(minMs, maxMs);
+        return this;
+    }
+
+    /** Shares of sessions that fail outright, answer "already" and answer with a decline; the rest succeed. */
+    public SimulatedTelephony ussdOutcomes(double failureRate, double alreadyRate, double declineRate) {
+        this.ussdFailureRate = failureRate;
+        this.alreadyRate = alreadyRate;
+        this.declineRate = declineRate;
+        return this;
+    }
+
+    /** Share of sessions the carrier never answers; the SIM is free again after the usual latency. */
+    public SimulatedTelephony ussdSilence(double rate) {
+        this.silenceRate = rate;
+        return this;
+    }
+
+    /**
+     * Share of sessions that succeed, but only {@code delayMs} after the usual latency; the SIM stays
+     * busy until then. Set the delay past the pipeline's USSD timeout to exercise late replies.
+     */
+    public SimulatedTelephony ussdLateReplies(double rate, long delayMs) {
+        this.lateRate = rate;
+        this.lateDelayMs = delayMs;
+        return this;
+    }
+
+    /** Time from handing an SMS part to the radio to its sent report, uniform in [minMs, maxMs]. */
+    public SimulatedTelephony smsLatency(long minMs, long maxMs) {
+        this.smsMinMs = minMs;
+        this.smsMaxMs = Math.max(minMs, maxMs);
+        return this;
+    }
+
+    /** Share of SMS parts whose sent report is a generic failure. */
+    public SimulatedTelephony smsFailureRate(double rate) {
+        this.smsFailureRate = rate;
+        return this;
+    }
+
+    @Override
+    public List<Sim> activeSims() {
+        return sims;
+    }
+
+    @Override
+    public void sendUssdRequest(int subscriptionId, String ussdCode, UssdGateway.Callback callback) {
+        if (subscriptionId < 1 || subscriptionId > sims.size()) {
+            throw new IllegalStateException("no simulated SIM " + subscriptionId);
+        }
+        ussdRequests.incrementAndGet();
+        if (!openSessions.add(subscriptionId)) {
+            busyRejections.incrementAndGet();
+            executor.execute(() -> callback.onFailure(USSD_RETURN_FAILURE));
+            return;
+        }
+        double roll = random.nextDouble();
+        executor.schedule(() -> {
+            double p = ussdFailureRate;
+            if (roll >= p + silenceRate && roll < p + silenceRate + lateRate) {
+                // Still open until the reply finally comes
+                lateReplies.incrementAndGet();
+                executor.schedule(() -> {
+                    openSessions.remove(subscriptionId);
+                    callback.onResponse(SUCCESS_RESPONSE);
+                }, lateDelayMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+            openSessions.remove(subscriptionId);
+            if (roll < p) {
+                callback.onFailure(USSD_RETURN_FAILURE);
+            } else if (roll < (p += silenceRate)) {
+                silentSessions.incrementAndGet();
+            } else if (roll < (p += lateRate + alreadyRate)) {
+                callback.onResponse(ALREADY_RESPONSE);
+            } else if (roll < p + declineRate) {
+                callback.onResponse(DECLINED_RESPONSE);
+            } else {
+                callback.onResponse(SUCCESS_RESPONSE);
+            }
+        }, between(ussdMinMs, ussdMaxMs), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setReportListener(ReportListener listener) {
+        this.reportListener = listener;
+    }
+
+    /** Splits at GSM-7 part sizes; good enough for the ASCII templates used in load tests. */
+    @Override
+    public List<String> divideMessage(int subscriptionId, String text) {
+        if (text.length() <= GSM_SINGLE) return Collections.singletonList(text);
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += GSM_MULTI) {
+            parts.add(text.substring(i, Math.min(text.length(), i + GSM_MULTI)));
+        }
+        return parts;
+    }
+
+    @Override
+    public void send(int subscriptionId, String recipient, List<String> parts, long messageId, int attempt) {
+        for (int i = 0; i < parts.size(); i++) {
+            smsParts.incrementAndGet();
+            boolean fails = random.nextDouble() < smsFailureRate;
+            long sentAfter = between(smsMinMs, smsMaxMs);
+            executor.schedule(() -> {
+                ReportListener listener = reportListener;
+                if (fails) smsFailures.incrementAndGet();
+                if (listener == null) return;
+                listener.onSent(messageId, attempt, fails ? RESULT_ERROR_GENERIC_FAILURE : RESULT_OK);
+                if (!fails) listener.onDelivered(messageId, attempt, DELIVERY_OK);
+            }, sentAfter, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * USSD requests, those rejected because the SIM was busy, never answered or answered late, and SMS
+     * parts sent and failed.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ussdRequests", ussdRequests.get());
+        stats.put("busyRejections", busyRejections.get());
+        stats.put("silentSessions", silentSessions.get());
+        stats.put("lateReplies", lateReplies.get());
+        stats.put("smsParts", smsParts.get());
+        stats.put("smsFailures", smsFailures.get());
+        return stats;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private long between(long min, long max) {
+        return min + (long) (random.nextDouble() * (max - min));
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.newton;
+
+import java.util.List;
+
+/**
+ * The radio side of outbound SMS: {@code SmsManager} with sent and delivered broadcasts on a device,
+ * {@link SimulatedTelephony} in load tests.
+ */
+public interface SmsGateway {
+    /** Same values as {@code Activity.RESULT_OK} and {@code SmsManager.RESULT_ERROR_*}. */
+    int RESULT_OK = -1;
+    int RESULT_ERROR_GENERIC_FAILURE = 1;
+    int RESULT_ERROR_RADIO_OFF = 2;
+    int RESULT_ERROR_NULL_PDU = 3;
+    int RESULT_ERROR_NO_SERVICE = 4;
+
+    /** Delivery report outcomes: the recipient has the part, the network is still trying, or it gave up. */
+    int DELIVERY_OK = 0;
+    int DELIVERY_PENDING = 1;
+    int DELIVERY_FAILED = 2;
+
+    /** Per-part reports, tagged with the message id and attempt they were sent with. */
+    interface ReportListener {
+        void onSent(long messageId, int attempt, int resultCode);
+
+        /** {@code status} is one of the {@code DELIVERY_*} outcomes. */
+        void onDelivered(long messageId, int attempt, int status);
+    }
+
+    void setReportListener(ReportListener listener);
+
+    /** Splits {@code text} into the parts {@link #send} will transmit; never empty. */
+    List<String> divideMessage(int subscriptionId, String text);
+
+    /**
+     * Hands one attempt to the radio. Each part later yields one sent report and, where the network
+     * supports it, one delivery report. Throws if the message could not be handed over.
+     */
+    void send(int subscriptionId, String recipient, List<String> parts, long messageId, int attempt);
+}
@@ -0,0 +1,252 @@
+package com.example.newton;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound SMS queue drained by its own {@link Worker}.
+ *
+ * Messages are sent through the {@link SmsGateway} from the SIM they belong to, split into parts
+ * when they do not fit one SMS, and tracked through its sent/delivered reports. Radio errors are retried
+ * with exponential backoff; every status change is reported to the {@link StatusListener}.
+ */
+public class SmsOutbox {
+    private static final String TAG = "SmsOutbox";
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long DELIVERY_REPORT_WAIT_MS = 10 * 60 * 1000;
+    private static final long SEND_RESULT_WAIT_MS = 60 * 1000;
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_SENT = "sent";
+    public static final String STATUS_DELIVERED = "delivered";
+    /** Sent, but the network reported it could not deliver. */
+    public static final String STATUS_UNDELIVERED = "undelivered";
+    public static final String STATUS_RETRYING = "retrying";
+    public static final String STATUS_FAILED = "failed";
+
+    public interface StatusListener {
+        /** Called on the outbox worker thread. */
+        void onSmsStatus(OutboundSms sms, String status, int resultCode);
+    }
+
+    public static final class OutboundSms extends DeadlineWheel.Entry {
+        public final long id;
+        public final String recipient;
+        public final String body;
+        /** SIM to send from, or {@link SimScheduler#ANY_SIM} for the default SMS subscription. */
+        public final int subscriptionId;
+        /** Transaction this confirmation belongs to; may be null. */
+        public final Map<String, Object> transaction;
+        int attempts;
+        int partsPending;
+        int partsDelivered;
+        int partCount;
+        boolean failedThisAttempt;
+        int lastResultCode;
+        final long queuedAt = System.currentTimeMillis();
+
+        OutboundSms(long id, String recipient, String body, int subscriptionId, Map<String, Object> transaction) {
+            this.id = id;
+            this.recipient = recipient;
+            this.body = body;
+            this.subscriptionId = subscriptionId;
+            this.transaction = transaction;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public Map<String, Object> toMap(String status, int resultCode) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", id);
+            map.put("recipient", recipient);
+            map.put("simSubscriptionId", subscriptionId);
+            map.put("status", status);
+            map.put("resultCode", resultCode);
+            map.put("attempts", attempts);
+            map.put("parts", partCount);
+            map.put("transaction", transaction);
+            return map;
+        }
+    }
+
+    private final Worker worker;
+    private final SmsGateway gateway;
+    // Ids from an earlier process are smaller, so its late reports match nothing
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+    private final Map<Long, OutboundSms> inFlight = new ConcurrentHashMap<>();
+    private final DeadlineWheel deadlines;
+    private final CarrierPacer rateLimits;
+    // Wheel thread -> worker; a missing sent report is a failed attempt, a missing delivery report is not
+    private final DeadlineWheel.Expiry onDeadline;
+    private volatile StatusListener listener;
+
+    /** Reports are handled on {@code worker}; a gateway that already delivers them there saves the hop. */
+    public SmsOutbox(Worker worker, SmsGateway gateway, DeadlineWheel deadlines, CarrierPacer rateLimits) {
+        this.worker = worker;
+        this.gateway = gateway;
+        this.deadlines = deadlines;
+        this.rateLimits = rateLimits;
+        onDeadline = entry -> worker.post(() -> onDeadline((OutboundSms) entry));
+        gateway.setReportListener(new SmsGateway.ReportListener() {
+            @Override
+            public void onSent(long messageId, int attempt, int resultCode) {
+                worker.run(() -> onSendResult(messageId, attempt, false, resultCode));
+            }
+
+            @Override
+            public void onDelivered(long messageId, int attempt, int status) {
+                worker.run(() -> onSendResult(messageId, attempt, true, status));
+            }
+        });
+    }
+
+    public void setStatusListener(StatusListener listener) {
+        this.listener = listener;
+    }
+
+    /** Queues a message and returns immediately; the send happens on the outbox worker. */
+    public OutboundSms enqueue(String recipient, String body, int subscriptionId, Map<String, Object> transaction) {
+        OutboundSms sms = new OutboundSms(nextId.getAndIncrement(), recipient, body, subscriptionId, transaction);
+        worker.post(() -> {
+            inFlight.put(sms.id, sms);
+            report(sms, STATUS_QUEUED, 0);
+            attempt(sms);
+        });
+        return sms;
+    }
+
+    /** Messages still queued, being sent or awaiting delivery reports. */
+    public int pendingCount() {
+        return inFlight.size();
+    }
+
+    // Worker thread from here on
+
+    private void attempt(OutboundSms sms) {
+        sms.attempts++;
+        sms.failedThisAttempt = false;
+        List<String> parts;
+        try {
+            parts = gateway.divideMessage(sms.subscriptionId, sms.body);
+        } catch (Exception e) {
+            PipelineLog.e(TAG, "Failed to split SMS " + sms.id + ": " + e.getMessage());
+            sms.partsPending = 0;
+            retryOrFail(sms, SmsGateway.RESULT_ERROR_GENERIC_FAILURE);
+            return;
+        }
+        // Each part spends one of the SIM's SMS allowance; over the limit the send waits its turn
+        long waitMs = rateLimits.reserveSms(sms.subscriptionId, parts.size());
+        if (waitMs > 0) {
+            PipelineLog.d(TAG, "SMS " + sms.id + " held " + waitMs + " ms by the SIM's send rate limit");
+            worker.postDelayed(() -> send(sms, parts), waitMs);
+        } else {
+            send(sms, parts);
+        }
+    }
+
+    private void send(OutboundSms sms, List<String> parts) {
+        try {
+            sms.partCount = parts.size();
+            sms.partsPending = parts.size();
+            sms.partsDelivered = 0;
+            gateway.send(sms.subscriptionId, sms.recipient, parts, sms.id, sms.attempts);
+            PipelineLog.d(TAG, "SMS " + sms.id + " to " + sms.recipient + " handed to radio (" + parts.size()
+                    + " part(s), attempt " + sms.attempts + ")");
+            deadlines.schedule(sms, SEND_RESULT_WAIT_MS, onDeadline);
+        } catch (Exception e) {
+            PipelineLog.e(TAG, "Failed to send SMS " + sms.id + ": " + e.getMessage());
+            sms.partsPending = 0;
+            retryOrFail(sms, SmsGateway.RESULT_ERROR_GENERIC_FAILURE);
+        }
+    }
+
+    private void onSendResult(long id, int attempt, boolean delivered, int resultCode) {
+        OutboundSms sms = inFlight.get(id);
+        if (sms == null || attempt != sms.attempts) return;
+
+        if (delivered) {
+            // resultCode is a SmsGateway.DELIVERY_* outcome here; a pending part gets another report
+            if (resultCode == SmsGateway.DELIVERY_PENDING) return;
+            if (resultCode == SmsGateway.DELIVERY_FAILED) {
+                deadlines.cancel(sms);
+                inFlight.remove(sms.id);
+                report(sms, STATUS_UNDELIVERED, resultCode);
+            } else if (++sms.partsDelivered == sms.partCount) {
+                deadlines.cancel(sms);
+                inFlight.remove(sms.id);
+                report(sms, STATUS_DELIVERED, resultCode);
+            }
+            return;
+        }
+
+        if (sms.partsPending <= 0) return;
+        if (resultCode != SmsGateway.RESULT_OK) {
+            sms.failedThisAttempt = true;
+            sms.lastResultCode = resultCode;
+        }
+        if (--sms.partsPending > 0) return;
+
+        if (sms.failedThisAttempt) {
+            deadlines.cancel(sms);
+            if (sms.lastResultCode == SmsGateway.RESULT_ERROR_GENERIC_FAILURE) rateLimits.onSmsRejected(sms.subscriptionId);
+            retryOrFail(sms, sms.lastResultCode);
+        } else {
+            report(sms, STATUS_SENT, resultCode);
+            PipelineMetrics metrics = PipelineMetrics.get();
+            metrics.increment(PipelineMetrics.CONFIRMATIONS_SENT);
+            metrics.recordMillis(PipelineMetrics.CONFIRMATION_SEND, System.currentTimeMillis() - sms.queuedAt);
+            metrics.recordSince(PipelineMetrics.END_TO_END, sms.transaction);
+            // Not every network returns delivery reports; stop waiting after a while
+            deadlines.schedule(sms, DELIVERY_REPORT_WAIT_MS, onDeadline);
+        }
+    }
+
+    private void onDeadline(OutboundSms sms) {
+        if (inFlight.get(sms.id) != sms || sms.isScheduled()) return; // finished or rescheduled meanwhile
+        if (sms.partsPending > 0) {
+            // The radio never reported this attempt; late reports carry its attempt number and are ignored
+            PipelineLog.w(TAG, "SMS " + sms.id + " got no sent report within " + SEND_RESULT_WAIT_MS + " ms");
+            sms.partsPending = 0;
+            retryOrFail(sms, SmsGateway.RESULT_ERROR_GENERIC_FAILURE);
+        } else {
+            inFlight.remove(sms.id);
+        }
+    }
+
+    private void retryOrFail(OutboundSms sms, int resultCode) {
+        if (isTransient(resultCode) && sms.attempts < MAX_ATTEMPTS) {
+            long delay = BASE_BACKOFF_MS << (sms.attempts - 1);
+            report(sms, STATUS_RETRYING, resultCode);
+            worker.postDelayed(() -> attempt(sms), delay);
+        } else {
+            inFlight.remove(sms.id);
+            report(sms, STATUS_FAILED, resultCode);
+            PipelineMetrics.get().increment(PipelineMetrics.CONFIRMATIONS_FAILED);
+        }
+    }
+
+    private static boolean isTransient(int resultCode) {
+        return resultCode == SmsGateway.RESULT_ERROR_GENERIC_FAILURE
+                || resultCode == SmsGateway.RESULT_ERROR_RADIO_OFF
+                || resultCode == SmsGateway.RESULT_ERROR_NO_SERVICE
+                || resultCode == SmsGateway.RESULT_ERROR_NULL_PDU;
+    }
+
+    private void report(OutboundSms sms, String status, int resultCode) {
+        PipelineLog.d(TAG, "SMS " + sms.id + " " + status + " (code " + resultCode + ")");
+        StatusListener l = listener;
+        if (l != null) {
+            try {
+                l.onSmsStatus(sms, status, resultCode);
+            } catch (Exception e) {
+                PipelineLog.e(TAG, "Status listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.newton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A confirmation SMS template split once into literal and placeholder segments.
+ *
+ * Supported placeholders are {@code [first_name] [second_name] [last_name] [name] [amount] [phone] [offer]},
+ * filled from a transaction map ({@code extractedName}, {@code extractedAmount},
+ * {@code extractedPhoneNumber}, {@code purchasedOffer}). A placeholder whose value is missing is
+ * left in the text as written, as the old string-replace code did.
+ */
+public final class SmsTemplate {
+    private static final String[] PLACEHOLDERS = {
+            "[first_name]", "[second_name]", "[last_name]", "[name]", "[amount]", "[phone]", "[offer]"
+    };
+    private static final int FIRST_NAME = 0;
+    private static final int SECOND_NAME = 1;
+    private static final int LAST_NAME = 2;
+    private static final int NAME = 3;
+    private static final int AMOUNT = 4;
+    private static final int PHONE = 5;
+    private static final int OFFER = 6;
+    private static final int LITERAL = -1;
+
+    private static final int GSM_SINGLE = 160;
+    private static final int GSM_MULTI = 153;
+    private static final int UCS2_SINGLE = 70;
+    private static final int UCS2_MULTI = 67;
+    private static final String GSM_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM_EXTENSION = "^{}\\[~]|€\f";
+
+    /** Rendered text with its size on the air. */
+    public static final class Rendered {
+        public final String text;
+        public final int templateSegments;
+        public final boolean unicode;
+        /** Length in GSM-7 septets, or UTF-16 units when {@link #unicode}. */
+        public final int encodedLength;
+        public final int smsParts;
+
+        Rendered(String text, int templateSegments) {
+            this.text = text;
+            this.templateSegments = templateSegments;
+            int septets = gsmLength(text);
+            this.unicode = septets < 0;
+            this.encodedLength = unicode ? text.length() : septets;
+            this.smsParts = unicode
+                    ? parts(encodedLength, UCS2_SINGLE, UCS2_MULTI)
+                    : parts(encodedLength, GSM_SINGLE, GSM_MULTI);
+        }
+
+        public boolean exceedsOnePart() {
+            return smsParts > 1;
+        }
+    }
+
+    private final String source;
+    private final String[] literals;
+    private final int[] kinds;
+    private final int estimatedLength;
+
+    private SmsTemplate(String source, String[] literals, int[] kinds) {
+        this.source = source;
+        this.literals = literals;
+        this.kinds = kinds;
+        this.estimatedLength = source.length() + 32;
+    }
+
+    public static SmsTemplate compile(String source) {
+        if (source == null) source = "";
+        List<String> literals = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < source.length()) {
+            int placeholder = source.charAt(i) == '[' ? placeholderAt(source, i) : LITERAL;
+            if (placeholder == LITERAL) {
+                i++;
+                continue;
+            }
+            if (i > literalStart) {
+                literals.add(source.substring(literalStart, i));
+                kinds.add(LITERAL);
+            }
+            literals.add(PLACEHOLDERS[placeholder]);
+            kinds.add(placeholder);
+            i += PLACEHOLDERS[placeholder].length();
+            literalStart = i;
+        }
+        if (literalStart < source.length()) {
+            literals.add(source.substring(literalStart));
+            kinds.add(LITERAL);
+        }
+        int[] kindArray = new int[kinds.size()];
+        for (int k = 0; k < kindArray.length; k++) kindArray[k] = kinds.get(k);
+        return new SmsTemplate(source, literals.toArray(new String[0]), kindArray);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public int segmentCount() {
+        return kinds.length;
+    }
+
+    /** Renders in one pass over the segments. */
+    public Rendered render(Map<String, Object> transaction) {
+        String name = transaction != null ? (String) transaction.get("extractedName") : null;
+        String formattedName = null;
+        int firstEnd = 0;
+        int lastStart = 0;
+        int secondEnd = -1;
+        if (name != null) {
+            formattedName = MpesaSmsParser.formatName(name, 0, name.length());
+            firstEnd = formattedName.indexOf(' ');
+            if (firstEnd < 0) {
+                firstEnd = formattedName.length();
+                lastStart = -1;
+            } else {
+                lastStart = formattedName.lastIndexOf(' ') + 1;
+                if (lastStart - 1 > firstEnd) {
+                    secondEnd = formattedName.indexOf(' ', firstEnd + 1);
+                }
+            }
+        }
+
+        StringBuilder out = new StringBuilder(estimatedLength);
+        for (int s = 0; s < kinds.length; s++) {
+            switch (kinds[s]) {
+                case FIRST_NAME:
+                    if (formattedName == null) out.append(literals[s]);
+                    else out.append(formattedName, 0, firstEnd);
+                    break;
+                case SECOND_NAME:
+                    if (formattedName == null) out.append(literals[s]);
+                    else if (secondEnd > 0) out.append(formattedName, firstEnd + 1, secondEnd);
+                    break;
+                case LAST_NAME:
+                    if (formattedName == null) out.append(literals[s]);
+                    else if (lastStart > 0) out.append(formattedName, lastStart, formattedName.length());
+                    break;
+                case NAME:
+                    out.append(formattedName != null ? formattedName : literals[s]);
+                    break;
+                case AMOUNT:
+                    appendAmount(out, transaction != null ? transaction.get("extractedAmount") : null, literals[s]);
+                    break;
+                case PHONE:
+                    appendOr(out, transaction != null ? transaction.get("extractedPhoneNumber") : null, literals[s]);
+                    break;
+                case OFFER:
+                    appendOr(out, transaction != null ? transaction.get("purchasedOffer") : null, literals[s]);
+                    break;
+                default:
+                    out.append(literals[s]);
+            }
+        }
+        return new Rendered(out.toString(), kinds.length);
+    }
+
+    private static void appendOr(StringBuilder out, Object value, String fallback) {
+        out.append(value != null ? value.toString() : fallback);
+    }
+
+    /** Doubles render as "Ksh 1234.00", matching the old String.format("Ksh %.2f"). */
+    private static void appendAmount(StringBuilder out, Object amount, String fallback) {
+        if (amount == null) {
+            out.append(fallback);
+        } else if (amount instanceof Double) {
+            long cents = Math.round((Double) amount * 100);
+            if (cents < 0) {
+                out.append("Ksh -");
+                cents = -cents;
+            } else {
+                out.append("Ksh ");
+            }
+            out.append(cents / 100).append('.');
+            long fraction = cents % 100;
+            if (fraction < 10) out.append('0');
+            out.append(fraction);
+        } else {
+            out.append(amount.toString());
+        }
+    }
+
+    private static int placeholderAt(String source, int i) {
+        for (int p = 0; p < PLACEHOLDERS.length; p++) {
+            if (source.startsWith(PLACEHOLDERS[p], i)) return p;
+        }
+        return LITERAL;
+    }
+
+    /** GSM-7 length in septets, or -1 if the text needs UCS-2. */
+    static int gsmLength(CharSequence text) {
+        int septets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (GSM_BASIC.indexOf(c) >= 0) {
+                septets++;
+            } else if (GSM_EXTENSION.indexOf(c) >= 0) {
+                septets += 2;
+            } else {
+                return -1;
+            }
+        }
+        return septets;
+    }
+
+    private static int parts(int length, int single, int multi) {
+        if (length <= single) return 1;
+        return (length + multi - 1) / multi;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.newton;
+
+/**
+ * Which confirmation template a USSD outcome uses, and the text it has until the operator edits it.
+ *
+ * Result types ("USSD_SUCCESS", "NO_OFFER", ...) map to SharedPreferences keys; reading the
+ * operator's edits from those keys is left to the app's SmsTemplateEngine.
+ */
+public final class SmsTemplateCatalog {
+    // Default template messages
+    public static final String DEFAULT_SUCCESS_TEMPLATE = "Thank you [first_name] for choosing and entrusting Nexora Bingwa Sokoni and purchasing [offer] for [amount]. Have a nice time.";
+    public static final String DEFAULT_FAILURE_TEMPLATE = "Dear [first_name], there was a delay while processing your purchase of [offer] for [amount]. Please wait a little bit for it to be loaded.";
+    public static final String DEFAULT_NO_OFFER_TEMPLATE = "Sorry [first_name], the amount [amount] sent does not match any of our offers.\nWhatsapp 0115332870 to get list of our offers.";
+    public static final String DEFAULT_ALREADY_TEMPLATE = "Hey [first_name], Your number [phone] has already been recommended bingwa bundles today\nReply with\n1. Recommend tomorrow\n2. Recommend to this \"number\" (new)";
+    public static final String UNKNOWN_TYPE_MESSAGE = "USSD operation completed: Unknown type";
+
+    private SmsTemplateCatalog() {}
+
+    /** Preference key holding the template for {@code type}, or null for an unknown type. */
+    public static String preferenceKey(String type) {
+        switch (type) {
+            case "USSD_SUCCESS":
+                return "sms_success";
+            case "USSD_FAILURE":
+            case "USSD_ERROR":
+                return "sms_failure";
+            case "USSD_ALREADY":
+                return "sms_already";
+            case "NO_OFFER":
+                return "sms_no_offer";
+            default:
+                return null;
+        }
+    }
+
+    public static String defaultTemplate(String key) {
+        switch (key) {
+            case "sms_success":
+                return DEFAULT_SUCCESS_TEMPLATE;
+            case "sms_failure":
+                return DEFAULT_FAILURE_TEMPLATE;
+            case "sms_already":
+                return DEFAULT_ALREADY_TEMPLATE;
+            default:
+                return DEFAULT_NO_OFFER_TEMPLATE;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.newton;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-SIM queue for USSD requests.
+ *
+ * Android only runs one USSD session per subscription at a time, so requests for the same
+ * SIM are dispatched one after another. Every request carries its own transaction map, which
+ * lets the response callback resolve the customer it belongs to instead of reading a shared field.
+ */
+public class UssdDispatchQueue {
+
+    /** Sends a request to the radio. Must eventually lead to {@link #complete(UssdRequest)}. */
+    public interface Dispatcher {
+        void dispatch(UssdRequest request);
+    }
+
+    public static final class UssdRequest extends DeadlineWheel.Entry {
+        public final long id;
+        public final int subscriptionId;
+        public final String ussdCode;
+        public final Map<String, Object> transaction;
+        /** How many more SIMs to try if the carrier explicitly fails this session. */
+        public final int retriesLeft;
+        final long enqueuedAt;
+        long dispatchedAt;
+        /** Wall-clock time the deadline passed, or 0. */
+        long timedOutAt;
+        private boolean timedOut;
+        private boolean resolved;
+
+        UssdRequest(long id, int subscriptionId, String ussdCode, Map<String, Object> transaction, int retriesLeft) {
+            this.id = id;
+            this.subscriptionId = subscriptionId;
+            this.ussdCode = ussdCode;
+            this.transaction = transaction;
+            this.retriesLeft = retriesLeft;
+            this.enqueuedAt = System.currentTimeMillis();
+        }
+
+        public long getDispatchedAt() {
+            return dispatchedAt;
+        }
+
+        /**
+         * Claims the single carrier outcome of this request. The response and failure paths call it;
+         * only the first gets true, so a duplicate callback cannot resolve it twice. A timeout does not
+         * resolve the request: the carrier's reply may still come and is the real outcome.
+         */
+        public synchronized boolean resolve() {
+            if (resolved) return false;
+            resolved = true;
+            return true;
+        }
+
+        /** Marks the deadline as passed; false once the request is resolved or already timed out. */
+        public synchronized boolean timeOut() {
+            if (resolved || timedOut) return false;
+            timedOut = true;
+            return true;
+        }
+
+        public synchronized boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "UssdRequest{id=" + id + ", sim=" + subscriptionId + ", code=" + ussdCode + "}";
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final Map<Integer, ArrayDeque<UssdRequest>> pending = new HashMap<>();
+    private final Map<Integer, UssdRequest> inFlight = new HashMap<>();
+    private long nextId = 1;
+
+    public UssdDispatchQueue(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Queues a request for the given SIM. It is dispatched right away when the SIM is idle.
+     */
+    public UssdRequest enqueue(int subscriptionId, String ussdCode, Map<String, Object> transaction) {
+        return enqueue(subscriptionId, ussdCode, transaction, 0);
+    }
+
+    /** As {@link #enqueue(int, String, Map)}, allowing {@code retries} other SIMs after a carrier failure. */
+    public UssdRequest enqueue(int subscriptionId, String ussdCode, Map<String, Object> transaction, int retries) {
+        UssdRequest request;
+        boolean dispatchNow;
+        synchronized (this) {
+            request = new UssdRequest(nextId++, subscriptionId, ussdCode, transaction, retries);
+            dispatchNow = !inFlight.containsKey(subscriptionId);
+            if (dispatchNow) {
+                markInFlight(request);
+            } else {
+                queueFor(subscriptionId).addLast(request);
+            }
+        }
+        if (dispatchNow) {
+            dispatcher.dispatch(request);
+        }
+        return request;
+    }
+
+    /**
+     * Releases the SIM held by {@code request} and dispatches the next queued request, if any.
+     * Completing a request that is no longer in flight is ignored.
+     */
+    public void complete(UssdRequest request) {
+        UssdRequest next;
+        synchronized (this) {
+            if (inFlight.get(request.subscriptionId) != request) {
+                return;
+            }
+            inFlight.remove(request.subscriptionId);
+            ArrayDeque<UssdRequest> queue = pending.get(request.subscriptionId);
+            next = queue != null ? queue.pollFirst() : null;
+            if (next != null) {
+                markInFlight(next);
+            }
+        }
+        if (next != null) {
+            dispatcher.dispatch(next);
+        }
+    }
+
+    /** Number of requests waiting or in flight on a SIM. */
+    public synchronized int outstanding(int subscriptionId) {
+        ArrayDeque<UssdRequest> queue = pending.get(subscriptionId);
+        return (queue != null ? queue.size() : 0) + (inFlight.containsKey(subscriptionId) ? 1 : 0);
+    }
+
+    public synchronized int totalOutstanding() {
+        int total = inFlight.size();
+        for (ArrayDeque<UssdRequest> queue : pending.values()) {
+            total += queue.size();
+        }
+        return total;
+    }
+
+    private void markInFlight(UssdRequest request) {
+        request.dispatchedAt = System.currentTimeMillis();
+        inFlight.put(request.subscriptionId, request);
+    }
+
+    private ArrayDeque<UssdRequest> queueFor(int subscriptionId) {
+        ArrayDeque<UssdRequest> queue = pending.get(subscriptionId);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            pending.put(subscriptionId, queue);
+        }
+        return queue;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.newton;
+
+/**
+ * The carrier's USSD service: {@code TelephonyManager.sendUssdRequest} on a device,
+ * {@link SimulatedTelephony} in load tests.
+ */
+public interface UssdGateway {
+    /** Same values as {@code TelephonyManager.USSD_RETURN_FAILURE} and {@code USSD_ERROR_SERVICE_UNAVAIL}. */
+    int USSD_RETURN_FAILURE = -1;
+    int USSD_ERROR_SERVICE_UNAVAIL = -2;
+
+    interface Callback {
+        void onResponse(CharSequence response);
+
+        void onFailure(int failureCode);
+    }
+
+    /**
+     * Starts a session on {@code subscriptionId}. At most one callback follows, on a thread of the
+     * gateway's choosing. Throws if the SIM cannot take the request at all.
+     */
+    void sendUssdRequest(int subscriptionId, String ussdCode, Callback callback);
+}
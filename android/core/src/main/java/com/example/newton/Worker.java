@@ -0,0 +1,29 @@
+package com.example.newton;
+
+/**
+ * A single thread that runs posted tasks in order: a {@code Handler} on its own looper on a device,
+ * {@link ExecutorWorker} in load tests, a stepped clock in unit tests.
+ *
+ * Delays are measured on {@link #uptimeMillis()}, the monotonic clock the worker schedules by.
+ */
+public interface Worker {
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMs);
+
+    /** Drops every pending post of {@code task}. */
+    void remove(Runnable task);
+
+    boolean isCurrentThread();
+
+    long uptimeMillis();
+
+    /** Runs {@code task} on the worker, inline when already on it. */
+    default void run(Runnable task) {
+        if (isCurrentThread()) {
+            task.run();
+        } else {
+            post(task);
+        }
+    }
+}
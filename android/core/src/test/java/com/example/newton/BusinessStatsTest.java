@@ -0,0 +1,115 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class BusinessStatsTest {
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    // 2024-06-12T10:15 local
+    private static final long NOW = 19886 * DAY_MS + 10 * HOUR_MS + 15 * 60 * 1000L;
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> snapshot, String name) {
+        return (Map<String, Object>) snapshot.get(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> list(Map<String, Object> snapshot, String name) {
+        return (List<Map<String, Object>>) snapshot.get(name);
+    }
+
+    @Test
+    public void totalsRatesAndRevenue() {
+        BusinessStats stats = new BusinessStats(ByteBuffer.allocate(BusinessStats.BUFFER_SIZE));
+        stats.record(BusinessStats.SUCCESS, 1, 2000, NOW);
+        stats.record(BusinessStats.SUCCESS, 1, 5000, NOW);
+        stats.record(BusinessStats.FAILURE, 2, 2000, NOW);
+        stats.record(BusinessStats.ALREADY, 2, -1, NOW);
+
+        Map<String, Object> snapshot = stats.snapshot(NOW);
+        Map<String, Object> totals = section(snapshot, "totals");
+        assertEquals(4L, totals.get("attempts"));
+        assertEquals(2L, totals.get("success"));
+        assertEquals(0.5, (Double) totals.get("successRate"), 1e-9);
+        assertEquals(0.25, (Double) totals.get("alreadyRate"), 1e-9);
+        assertEquals(70.0, (Double) totals.get("revenue"), 1e-9);
+        assertEquals("2024-06-12", snapshot.get("since"));
+        assertEquals(4L, section(snapshot, "today").get("attempts"));
+
+        // The unknown amount is left out of the offers
+        List<Map<String, Object>> offers = list(snapshot, "offers");
+        assertEquals(2, offers.size());
+        assertEquals(2, list(snapshot, "sims").size());
+        assertEquals("2024-06-12T10", list(snapshot, "hours").get(0).get("hour"));
+    }
+
+    @Test
+    public void daysRollOverAtLocalMidnight() {
+        BusinessStats stats = new BusinessStats(ByteBuffer.allocate(BusinessStats.BUFFER_SIZE));
+        stats.record(BusinessStats.SUCCESS, 1, 2000, NOW);
+        stats.record(BusinessStats.SUCCESS, 1, 2000, NOW + DAY_MS);
+        // A day that has fallen off the ring is reused by the newest one
+        stats.record(BusinessStats.FAILURE, 1, 2000, NOW + BusinessStats.DAYS * DAY_MS);
+
+        Map<String, Object> snapshot = stats.snapshot(NOW + BusinessStats.DAYS * DAY_MS);
+        List<Map<String, Object>> days = list(snapshot, "days");
+        assertEquals(2, days.size());
+        assertEquals(1L, days.get(0).get("failure"));
+        assertEquals(0L, days.get(0).get("success"));
+        assertEquals(3L, section(snapshot, "totals").get("attempts"));
+    }
+
+    @Test
+    public void survivesReopeningTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(BusinessStats.BUFFER_SIZE);
+        new BusinessStats(buffer).record(BusinessStats.ERROR, 3, 1000, NOW);
+
+        BusinessStats reopened = new BusinessStats(buffer);
+        assertEquals(1L, section(reopened.snapshot(NOW), "totals").get("error"));
+
+        reopened.clear();
+        Map<String, Object> cleared = reopened.snapshot(NOW);
+        assertEquals(0L, section(cleared, "totals").get("attempts"));
+        assertNull(cleared.get("since"));
+    }
+
+    @Test
+    public void reviseMovesALateSuccess() {
+        BusinessStats stats = new BusinessStats(ByteBuffer.allocate(BusinessStats.BUFFER_SIZE));
+        stats.record(BusinessStats.ERROR, 1, 2000, NOW);
+        stats.revise(BusinessStats.ERROR, BusinessStats.SUCCESS, 1, 2000, NOW);
+
+        Map<String, Object> snapshot = stats.snapshot(NOW + HOUR_MS);
+        for (String section : new String[] {"totals", "today"}) {
+            Map<String, Object> bucket = section(snapshot, section);
+            assertEquals(0L, bucket.get("error"));
+            assertEquals(1L, bucket.get("success"));
+            assertEquals(20.0, (Double) bucket.get("revenue"), 1e-9);
+        }
+        assertEquals(1L, list(snapshot, "sims").get(0).get("success"));
+        assertEquals(1L, list(snapshot, "offers").get(0).get("success"));
+        assertEquals(1L, list(snapshot, "hours").get(0).get("success"));
+    }
+
+    @Test
+    public void reviseNeverGoesBelowZero() {
+        BusinessStats stats = new BusinessStats(ByteBuffer.allocate(BusinessStats.BUFFER_SIZE));
+        stats.record(BusinessStats.ERROR, 1, 2000, NOW - 2 * DAY_MS);
+        // The error was counted two days ago, so today's bucket has nothing to move
+        stats.record(BusinessStats.FAILURE, 1, 2000, NOW);
+        stats.revise(BusinessStats.ERROR, BusinessStats.SUCCESS, 1, 2000, NOW);
+        stats.revise(BusinessStats.ERROR, BusinessStats.SUCCESS, 1, 2000, NOW);
+
+        Map<String, Object> totals = section(stats.snapshot(NOW), "totals");
+        assertEquals(0L, totals.get("error"));
+        assertEquals(1L, totals.get("success"));
+        assertEquals(2L, totals.get("attempts"));
+        assertEquals(0L, section(stats.snapshot(NOW), "today").get("success"));
+    }
+}
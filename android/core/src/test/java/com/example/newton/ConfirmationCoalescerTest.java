@@ -0,0 +1,102 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ConfirmationCoalescerTest {
+    private static final String CUSTOMER = "254712345678";
+
+    private static Map<String, Object> transaction(String offer, Object amount) {
+        Map<String, Object> transaction = new HashMap<>();
+        transaction.put("extractedName", "JOHN KAMAU");
+        transaction.put("extractedPhoneNumber", CUSTOMER);
+        transaction.put("purchasedOffer", offer);
+        transaction.put("extractedAmount", amount);
+        return transaction;
+    }
+
+    @Test
+    public void groupIsDueAWindowAfterItsLatestResult() {
+        ConfirmationCoalescer coalescer = new ConfirmationCoalescer(1000, 5000);
+
+        assertNull(coalescer.add("USSD_SUCCESS", CUSTOMER, 1, transaction("1GB", 20.0), 0));
+        assertNull(coalescer.add("USSD_SUCCESS", CUSTOMER, 2, transaction("2GB", 50.0), 800));
+        assertEquals(1800, coalescer.nextDueAt());
+        assertEquals(2, coalescer.pending());
+        assertTrue(coalescer.takeDue(1799).isEmpty());
+
+        List<ConfirmationCoalescer.Batch> due = coalescer.takeDue(1800);
+        assertEquals(1, due.size());
+        assertEquals(1, due.get(0).subscriptionId);
+        assertEquals(2, due.get(0).transactions.size());
+        assertEquals(0, coalescer.pending());
+        assertEquals(Long.MAX_VALUE, coalescer.nextDueAt());
+    }
+
+    @Test
+    public void maxDelayCapsAStreamOfResults() {
+        ConfirmationCoalescer coalescer = new ConfirmationCoalescer(1000, 2500);
+        for (long now = 0; now <= 2000; now += 500) {
+            coalescer.add("USSD_SUCCESS", CUSTOMER, 1, transaction("1GB", 20.0), now);
+        }
+        assertEquals(2500, coalescer.nextDueAt());
+    }
+
+    @Test
+    public void groupsByRecipientAndTemplate() {
+        ConfirmationCoalescer coalescer = new ConfirmationCoalescer(1000, 5000);
+        coalescer.add("USSD_SUCCESS", CUSTOMER, 1, transaction("1GB", 20.0), 0);
+        coalescer.add("USSD_SUCCESS", "254700000000", 1, transaction("1GB", 20.0), 0);
+        // Errors share the failure template, so they join failures
+        coalescer.add("USSD_FAILURE", CUSTOMER, 1, transaction("1GB", 20.0), 0);
+        coalescer.add("USSD_ERROR", CUSTOMER, 1, transaction("2GB", 50.0), 0);
+
+        List<ConfirmationCoalescer.Batch> all = coalescer.takeAll();
+        assertEquals(3, all.size());
+        assertEquals("USSD_FAILURE", all.get(2).type);
+        assertEquals(2, all.get(2).transactions.size());
+    }
+
+    @Test
+    public void offModeAndUnknownTypesGoOutAtOnce() {
+        ConfirmationCoalescer coalescer = new ConfirmationCoalescer(0, 5000);
+        Map<String, Object> single = transaction("1GB", 20.0);
+        ConfirmationCoalescer.Batch batch = coalescer.add("USSD_SUCCESS", CUSTOMER, 1, single, 0);
+        assertNotNull(batch);
+        assertSame(single, batch.transaction());
+
+        coalescer.configure(1000, 5000);
+        assertNotNull(coalescer.add("SOMETHING_ELSE", CUSTOMER, 1, single, 0));
+        assertEquals(0, coalescer.pending());
+    }
+
+    @Test
+    public void maxDelayIsClamped() {
+        ConfirmationCoalescer coalescer = new ConfirmationCoalescer(Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(ConfirmationCoalescer.MAX_DELAY_LIMIT_MS, coalescer.maxDelayMs());
+        assertEquals(ConfirmationCoalescer.MAX_DELAY_LIMIT_MS, coalescer.windowMs());
+    }
+
+    @Test
+    public void mergeListsEachOfferAndTotalsTheAmounts() {
+        Map<String, Object> merged = ConfirmationCoalescer.merge(Arrays.asList(
+                transaction("1GB", 20.0), transaction("2GB", 50), transaction("Minutes", null)));
+
+        assertEquals("1GB (Ksh 20.00), 2GB (Ksh 50.00) and Minutes", merged.get("purchasedOffer"));
+        assertEquals(70.0, (Double) merged.get("extractedAmount"), 1e-9);
+        assertEquals("JOHN KAMAU", merged.get("extractedName"));
+        assertEquals(3, ((List<?>) merged.get("transactions")).size());
+
+        String text = SmsTemplate.compile(SmsTemplateCatalog.DEFAULT_SUCCESS_TEMPLATE).render(merged).text;
+        assertTrue(text, text.contains("purchasing 1GB (Ksh 20.00), 2GB (Ksh 50.00) and Minutes for Ksh 70.00."));
+    }
+}
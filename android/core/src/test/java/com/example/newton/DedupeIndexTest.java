@@ -0,0 +1,121 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class DedupeIndexTest {
+    private static DedupeIndex index(ByteBuffer buffer, int capacity) {
+        return new DedupeIndex(buffer, capacity);
+    }
+
+    @Test
+    public void secondClaimIsADuplicate() {
+        DedupeIndex index = index(ByteBuffer.allocate(DedupeIndex.bufferSize(8)), 8);
+
+        assertTrue(index.claim(42));
+        assertFalse(index.claim(42));
+        assertTrue(index.contains(42));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void zeroIsAnOrdinaryKey() {
+        DedupeIndex index = index(ByteBuffer.allocate(DedupeIndex.bufferSize(8)), 8);
+
+        assertTrue(index.claim(0));
+        assertFalse(index.claim(0));
+        assertTrue(index.contains(0));
+    }
+
+    @Test
+    public void forgetsTheOldestKeyOnceFull() {
+        DedupeIndex index = index(ByteBuffer.allocate(DedupeIndex.bufferSize(4)), 4);
+        for (long key = 1; key <= 5; key++) assertTrue(index.claim(key));
+
+        assertEquals(4, index.size());
+        assertFalse(index.contains(1));
+        for (long key = 2; key <= 5; key++) assertTrue(index.contains(key));
+        // The evicted key may be claimed again, evicting the next oldest
+        assertTrue(index.claim(1));
+        assertFalse(index.contains(2));
+    }
+
+    @Test
+    public void keysSurviveReopeningTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(DedupeIndex.bufferSize(4));
+        DedupeIndex first = index(buffer, 4);
+        for (long key = 1; key <= 6; key++) first.claim(key);
+
+        DedupeIndex reopened = index(buffer, 4);
+        assertEquals(4, reopened.size());
+        assertFalse(reopened.contains(2));
+        for (long key = 3; key <= 6; key++) assertFalse(reopened.claim(key));
+        // Eviction order carries over too
+        assertTrue(reopened.claim(7));
+        assertFalse(reopened.contains(3));
+        assertTrue(reopened.contains(4));
+    }
+
+    @Test
+    public void releaseLetsTheKeyBeClaimedAgain() {
+        ByteBuffer buffer = ByteBuffer.allocate(DedupeIndex.bufferSize(8));
+        DedupeIndex index = index(buffer, 8);
+        index.claim(10);
+        index.claim(11);
+
+        assertTrue(index.release(10));
+        assertFalse(index.release(10));
+        assertFalse(index.release(99));
+        assertFalse(index.contains(10));
+        assertEquals(1, index.size());
+        // Released on disk as well
+        assertFalse(index(buffer, 8).contains(10));
+        assertTrue(index.claim(10));
+    }
+
+    @Test
+    public void matchesARingOfSlotsUnderRandomUse() {
+        int capacity = 64;
+        DedupeIndex index = index(ByteBuffer.allocate(DedupeIndex.bufferSize(capacity)), capacity);
+        // Reference model: claims overwrite the slot at head, releases empty their slot in place
+        Long[] ring = new Long[capacity];
+        int head = 0;
+        Set<Long> present = new HashSet<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            // A small key space forces collisions, duplicates and backward-shift deletes
+            long key = random.nextInt(200) * 0x9E3779B97F4A7C15L;
+            if (random.nextInt(5) == 0) {
+                assertEquals("release " + key + " at " + i, present.remove(key), index.release(key));
+                for (int s = 0; s < capacity; s++) {
+                    if (ring[s] != null && ring[s] == key) ring[s] = null;
+                }
+                continue;
+            }
+            boolean expected = !present.contains(key);
+            assertEquals("claim " + key + " at " + i, expected, index.claim(key));
+            if (expected) {
+                if (ring[head] != null) present.remove(ring[head]);
+                ring[head] = key;
+                head = (head + 1) % capacity;
+                present.add(key);
+            }
+            assertEquals(present.size(), index.size());
+        }
+        for (Long key : present) assertTrue(index.contains(key));
+    }
+
+    @Test
+    public void hashSeparatesParts() {
+        assertEquals(DedupeIndex.hash("ab", "c"), DedupeIndex.hash("ab", "c"));
+        assertNotEquals(DedupeIndex.hash("ab", "c"), DedupeIndex.hash("a", "bc"));
+    }
+}
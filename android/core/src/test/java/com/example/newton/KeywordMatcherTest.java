@@ -0,0 +1,119 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class KeywordMatcherTest {
+    private static final List<String> SUCCESS = Arrays.asList("successfully", "Confirmed", "", null);
+    private static final List<String> FAILURE = Arrays.asList("failed", "insufficient", "not allowed");
+
+    // MainActivity.checkKeywords before the matcher replaced it
+    private static boolean checkKeywords(String response, List<String> keywords) {
+        if (response == null || keywords == null) return false;
+        response = response.toLowerCase();
+        for (String keyword : keywords) {
+            if (keyword != null && !keyword.isEmpty() && response.contains(keyword.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void classifiesEachCategory() {
+        KeywordMatcher matcher = KeywordMatcher.compile(SUCCESS, FAILURE, null);
+
+        KeywordMatcher.Match success = matcher.classify("You have SUCCESSFULLY bought 1GB");
+        assertTrue(success.isSuccess());
+        assertFalse(success.isFailure());
+        assertFalse(success.isAlready());
+        assertEquals("successfully", success.keyword(KeywordMatcher.SUCCESS));
+
+        KeywordMatcher.Match failure = matcher.classify("Request failed: insufficient balance");
+        assertFalse(failure.isSuccess());
+        assertTrue(failure.isFailure());
+        assertEquals("failed", failure.decidingKeyword());
+
+        KeywordMatcher.Match neither = matcher.classify("Dear customer, try later");
+        assertFalse(neither.isSuccess() || neither.isFailure() || neither.isAlready());
+        assertNull(neither.decidingKeyword());
+        assertNull(matcher.classify(null).decidingKeyword());
+    }
+
+    @Test
+    public void alreadyBeatsSuccessBeatsFailure() {
+        KeywordMatcher matcher = KeywordMatcher.compile(SUCCESS, FAILURE, null);
+
+        KeywordMatcher.Match all = matcher.classify("Confirmed. Offer already active, purchase failed");
+        assertTrue(all.isSuccess() && all.isFailure() && all.isAlready());
+        assertEquals("already", all.decidingKeyword());
+
+        KeywordMatcher.Match both = matcher.classify("Confirmed, but the top-up failed");
+        assertEquals("Confirmed", both.decidingKeyword());
+    }
+
+    @Test
+    public void customAlreadyKeywordsReplaceTheDefault() {
+        KeywordMatcher matcher = KeywordMatcher.compile(SUCCESS, FAILURE, Collections.singletonList("exists"));
+
+        assertTrue(matcher.classify("Bundle exists on this line").isAlready());
+        assertFalse(matcher.classify("You already have this bundle").isAlready());
+    }
+
+    @Test
+    public void overlappingKeywordsAreAllFound() {
+        // "he" inside "she" inside "ushers": only fail links find the shorter ones
+        KeywordMatcher matcher = KeywordMatcher.compile(
+                Arrays.asList("she", "hers"), Collections.singletonList("he"), Collections.singletonList("ushe"));
+        KeywordMatcher.Match match = matcher.classify("USHERS");
+
+        assertEquals("she", match.keyword(KeywordMatcher.SUCCESS));
+        assertEquals("he", match.keyword(KeywordMatcher.FAILURE));
+        assertEquals("ushe", match.keyword(KeywordMatcher.ALREADY));
+    }
+
+    @Test
+    public void agreesWithCheckKeywordsOnRandomInput() {
+        Random random = new Random(11);
+        String alphabet = "abAB c";
+        for (int round = 0; round < 500; round++) {
+            List<String> success = randomWords(random, alphabet);
+            List<String> failure = randomWords(random, alphabet);
+            KeywordMatcher matcher = KeywordMatcher.compile(success, failure, null);
+            for (int i = 0; i < 20; i++) {
+                String response = randomWord(random, alphabet + "lready", 40);
+                KeywordMatcher.Match match = matcher.classify(response);
+                String context = response + " " + success + " " + failure;
+                assertEquals(context, checkKeywords(response, success), match.isSuccess());
+                assertEquals(context, checkKeywords(response, failure), match.isFailure());
+                // The old check was case-sensitive; the matcher deliberately is not
+                assertEquals(context, response.toLowerCase().contains("already"), match.isAlready());
+            }
+        }
+    }
+
+    private static List<String> randomWords(Random random, String alphabet) {
+        List<String> words = new ArrayList<>();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            words.add(randomWord(random, alphabet, 4));
+        }
+        return words;
+    }
+
+    private static String randomWord(Random random, String alphabet, int maxLength) {
+        StringBuilder word = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.newton;
+
+import java.util.PriorityQueue;
+
+/**
+ * {@link Worker} on the test thread with a clock that only moves when told to, so deadlines and
+ * delays can be stepped through without sleeping. Every caller counts as on the worker.
+ */
+final class ManualWorker implements Worker {
+    private static final class Task implements Comparable<Task> {
+        final Runnable runnable;
+        final long runAt;
+        final long sequence;
+
+        Task(Runnable runnable, long runAt, long sequence) {
+            this.runnable = runnable;
+            this.runAt = runAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (runAt != other.runAt) return Long.compare(runAt, other.runAt);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now = 1000;
+    private long sequence;
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        tasks.add(new Task(task, now + Math.max(0, delayMs), sequence++));
+    }
+
+    @Override
+    public void remove(Runnable task) {
+        tasks.removeIf(t -> t.runnable == task);
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return true;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    /** Runs everything due now, including what those tasks post for now. */
+    void runPending() {
+        advance(0);
+    }
+
+    /** Moves the clock forward by {@code ms}, running each task at its own time on the way. */
+    void advance(long ms) {
+        long until = now + ms;
+        while (!tasks.isEmpty() && tasks.peek().runAt <= until) {
+            Task task = tasks.poll();
+            now = Math.max(now, task.runAt);
+            task.runnable.run();
+        }
+        now = until;
+    }
+}
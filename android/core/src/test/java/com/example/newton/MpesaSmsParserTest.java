@@ -0,0 +1,166 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class MpesaSmsParserTest {
+    private static final String SENDER = "MPESA";
+
+    // Dart's MessageProcessor.processMessage, regex for regex; Dart's "$" is Java's "\z" here
+    private static final class DartMessageProcessor {
+        static final Pattern AMOUNT = Pattern.compile(
+                "Ksh(\\d{1,3}(?:,\\d{3})*\\.\\d{2})\\s*received from", Pattern.CASE_INSENSITIVE);
+        static final Pattern PHONE = Pattern.compile("received from\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+        static final Pattern NAME = Pattern.compile(
+                "received from\\s*\\d+\\s*([A-Za-z\\s.]+?)(?=\\.\\s*New Account balance|\\z)", Pattern.CASE_INSENSITIVE);
+
+        final Double amount;
+        final String phoneNumber;
+        final String name;
+
+        DartMessageProcessor(String body) {
+            Matcher m = AMOUNT.matcher(body);
+            amount = m.find() ? Double.valueOf(m.group(1).replace(",", "")) : null;
+
+            m = PHONE.matcher(body);
+            String phone = m.find() ? m.group(1) : null;
+            if (phone != null && phone.startsWith("0") && phone.length() == 10) {
+                phone = "254" + phone.substring(1);
+            }
+            phoneNumber = phone;
+
+            m = NAME.matcher(body);
+            String extracted = null;
+            if (m.find()) {
+                extracted = m.group(1).trim().replaceAll("^\\.|\\.$", "").trim();
+                extracted = formatName(extracted);
+            }
+            name = extracted;
+        }
+
+        boolean isPayment() {
+            return amount != null && phoneNumber != null;
+        }
+
+        static String formatName(String name) {
+            if (name.isEmpty()) return name;
+            StringBuilder out = new StringBuilder();
+            for (String word : name.trim().split("\\s+")) {
+                if (word.isEmpty()) continue;
+                if (out.length() > 0) out.append(' ');
+                out.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1).toLowerCase());
+            }
+            return out.toString();
+        }
+    }
+
+    private static String payment(String code, String amount, String phone, String name) {
+        return code + " Confirmed.on 12/6/24 at 3:45 PM Ksh" + amount + " received from " + phone + " " + name
+                + ". New Account balance is Ksh12,345.67. Transaction cost, Ksh0.00.";
+    }
+
+    @Test
+    public void parsesTypicalPayment() {
+        MpesaPayment payment = MpesaSmsParser.parse(SENDER,
+                payment("SFT4ABC123", "1,020.00", "0712345678", "JOHN KAMAU MWANGI"));
+
+        assertNotNull(payment);
+        assertEquals("SFT4ABC123", payment.transactionCode);
+        assertEquals(102000, payment.amountCents);
+        assertEquals("254712345678", payment.phoneNumber);
+        assertEquals("John Kamau Mwangi", payment.name);
+    }
+
+    @Test
+    public void rejectsOtherSendersAndMissingKeyword() {
+        String body = payment("SFT4ABC123", "50.00", "0712345678", "MARY WANJIKU");
+        assertNull(MpesaSmsParser.parse("Safaricom", body));
+        assertNull(MpesaSmsParser.parse(SENDER, body.replace("Confirmed.on", "Confirmed on")));
+        assertNull(MpesaSmsParser.parse(null, body));
+        assertNull(MpesaSmsParser.parse(SENDER, null));
+    }
+
+    @Test
+    public void transactionCodeNeedsTenUpperCaseCharacters() {
+        assertEquals("SFT4ABC123", MpesaSmsParser.parseTransactionCode("SFT4ABC123 Confirmed."));
+        assertNull(MpesaSmsParser.parseTransactionCode("sft4abc123 Confirmed."));
+        assertNull(MpesaSmsParser.parseTransactionCode("SFT4ABC1234 Confirmed."));
+        assertNull(MpesaSmsParser.parseTransactionCode("SFT4ABC"));
+    }
+
+    @Test
+    public void relevantSenders() {
+        assertTrue(MpesaSmsParser.isRelevantSender("MPESA"));
+        assertTrue(MpesaSmsParser.isRelevantSender("MPesa"));
+        assertTrue(MpesaSmsParser.isRelevantSender("Safaricom"));
+        assertFalse(MpesaSmsParser.isRelevantSender("+254712345678"));
+        assertFalse(MpesaSmsParser.isRelevantSender(null));
+    }
+
+    @Test
+    public void matchesDartOnHandPickedBodies() {
+        String[] bodies = {
+                payment("SFT4ABC123", "20.00", "0712345678", "PETER OTIENO"),
+                payment("SFT4ABC123", "1,234,567.89", "254712345678", "grace achieng odhiambo"),
+                payment("SFT4ABC123", "99.00", "0712345678", "J. K. ROWLING"),
+                payment("SFT4ABC123", "99.00", "0712345678", ".FAITH  MUTHONI"),
+                // No name, digits run into the balance sentence
+                "SFT4ABC123 Confirmed.on 1/1/24 Ksh50.00 received from 0712345678. New Account balance is Ksh1.00.",
+                // Name with characters Dart's pattern does not allow
+                payment("SFT4ABC123", "50.00", "0712345678", "O'BRIEN KAMAU"),
+                // Amount without cents, or with a broken thousands group
+                payment("SFT4ABC123", "50", "0712345678", "JAMES KIPRONO"),
+                payment("SFT4ABC123", "1,02.00", "0712345678", "JAMES KIPRONO"),
+                payment("SFT4ABC123", "1020.00", "0712345678", "JAMES KIPRONO"),
+                // Extra whitespace and case differences around the markers
+                "SFT4ABC123 Confirmed.on 1/1/24 KSH250.00   RECEIVED FROM   0712345678   ANN  NJERI. new account balance",
+                // A first "received from" without digits
+                "SFT4ABC123 Confirmed.on Ksh10.00 received from you. Ksh20.00 received from 0722000000 TOM",
+                // Body ending in the name
+                "SFT4ABC123 Confirmed.on Ksh10.00 received from 0722000000 TOM MBOYA",
+                // Foreign number left as is
+                payment("SFT4ABC123", "10.00", "256712345678", "ALICE"),
+        };
+        for (String body : bodies) {
+            assertMatchesDart(body);
+        }
+    }
+
+    @Test
+    public void matchesDartOnGeneratedBodies() {
+        Random random = new Random(7);
+        String[] names = {"JOHN KAMAU", "mary", "A. B. C", "  PETER   OTIENO ", "X.", "JANE W. DOE", ""};
+        String[] amounts = {"1.00", "20.00", "1,000.00", "12,345.67", "999.99", "1,000,000.00", "5.5", "1,0000.00"};
+        String[] phones = {"0712345678", "254712345678", "712345678", "07123456789", "0100000000"};
+        String[] separators = {" ", "", "  ", "\n"};
+        for (int i = 0; i < 2000; i++) {
+            String sep = separators[random.nextInt(separators.length)];
+            String body = "QWE" + (1000000 + random.nextInt(9000000)) + " Confirmed.on 3/4/25 at 9:00 AM "
+                    + "Ksh" + amounts[random.nextInt(amounts.length)] + sep + "received from" + sep
+                    + phones[random.nextInt(phones.length)] + sep + names[random.nextInt(names.length)]
+                    + (random.nextBoolean() ? ". New Account balance is Ksh1.00." : "");
+            assertMatchesDart(body);
+        }
+    }
+
+    private static void assertMatchesDart(String body) {
+        DartMessageProcessor dart = new DartMessageProcessor(body);
+        MpesaPayment payment = MpesaSmsParser.parse(SENDER, body);
+        if (!dart.isPayment()) {
+            assertNull(body, payment);
+            return;
+        }
+        assertNotNull(body, payment);
+        assertEquals(body, dart.amount, payment.amount(), 0.0);
+        assertEquals(body, dart.phoneNumber, payment.phoneNumber);
+        assertEquals(body, dart.name == null || dart.name.isEmpty() ? null : dart.name, payment.name);
+    }
+}
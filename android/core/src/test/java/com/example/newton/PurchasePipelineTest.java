@@ -0,0 +1,322 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PurchasePipelineTest {
+    private static final String CODE = "*180*5*2*0712345678*5*1#";
+    private static final String CUSTOMER = "254712345678";
+
+    private static final class Session {
+        final int subscriptionId;
+        final UssdGateway.Callback callback;
+
+        Session(int subscriptionId, UssdGateway.Callback callback) {
+            this.subscriptionId = subscriptionId;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Outcome {
+        final int outcome;
+        final int subscriptionId;
+        final Map<String, Object> report;
+        final long timedOutAt;
+
+        Outcome(int outcome, int subscriptionId, Map<String, Object> report, long timedOutAt) {
+            this.outcome = outcome;
+            this.subscriptionId = subscriptionId;
+            this.report = report;
+            this.timedOutAt = timedOutAt;
+        }
+    }
+
+    private final ManualWorker worker = new ManualWorker();
+    private final List<Session> sessions = new ArrayList<>();
+    private final List<String> smsSent = new ArrayList<>();
+    private final List<Integer> ussdRejected = new ArrayList<>();
+    private final Set<String> claims = new HashSet<>();
+    private final Set<String> served = new HashSet<>();
+    private final List<Outcome> outcomes = new ArrayList<>();
+    private final List<Outcome> lateOutcomes = new ArrayList<>();
+    private PurchasePipeline pipeline;
+
+    @Before
+    public void setUp() {
+        UssdGateway ussd = (subscriptionId, ussdCode, callback) -> sessions.add(new Session(subscriptionId, callback));
+        SimDirectory sims = () -> Arrays.asList(new SimDirectory.Sim(1, 0, "Safaricom"), new SimDirectory.Sim(2, 1, "Safaricom"));
+        SmsGateway sms = new SmsGateway() {
+            private ReportListener listener;
+
+            @Override
+            public void setReportListener(ReportListener listener) {
+                this.listener = listener;
+            }
+
+            @Override
+            public List<String> divideMessage(int subscriptionId, String text) {
+                return Collections.singletonList(text);
+            }
+
+            @Override
+            public void send(int subscriptionId, String recipient, List<String> parts, long messageId, int attempt) {
+                smsSent.add(recipient + ": " + parts.get(0));
+                worker.post(() -> listener.onSent(messageId, attempt, RESULT_OK));
+            }
+        };
+        CarrierPacer pacer = new CarrierPacer() {
+            @Override
+            public long reserveUssd(int subscriptionId) {
+                return 0;
+            }
+
+            @Override
+            public long reserveSms(int subscriptionId, int parts) {
+                return 0;
+            }
+
+            @Override
+            public void onUssdRejected(int subscriptionId) {
+                ussdRejected.add(subscriptionId);
+            }
+
+            @Override
+            public void onSmsRejected(int subscriptionId) {
+            }
+        };
+        DeadlineWheel deadlines = new DeadlineWheel(worker);
+        SmsOutbox outbox = new SmsOutbox(worker, sms, deadlines, pacer);
+        pipeline = new PurchasePipeline(worker, ussd, sims, outbox, deadlines, pacer, new RecordingHost());
+        pipeline.setKeywords(Collections.singletonList("successfully"), Collections.singletonList("failed"), null);
+        pipeline.setUssdTimeout(5000);
+    }
+
+    private final class RecordingHost implements PurchasePipeline.Host {
+        @Override
+        public boolean claimPayment(Map<String, Object> transaction) {
+            return claims.add((String) transaction.get("transactionCode"));
+        }
+
+        @Override
+        public void releasePayment(Map<String, Object> transaction) {
+            claims.remove((String) transaction.get("transactionCode"));
+        }
+
+        @Override
+        public boolean isServed(String phoneNumber) {
+            return served.contains(phoneNumber);
+        }
+
+        @Override
+        public void markServed(String phoneNumber) {
+            served.add(phoneNumber);
+        }
+
+        @Override
+        public boolean canDial() {
+            return true;
+        }
+
+        @Override
+        public SmsTemplate.Rendered render(String type, Map<String, Object> transaction) {
+            String template = SmsTemplateCatalog.defaultTemplate(SmsTemplateCatalog.preferenceKey(type));
+            return SmsTemplate.compile(template).render(transaction);
+        }
+
+        @Override
+        public void onOutcome(int outcome, Map<String, Object> transaction, int subscriptionId,
+                              Map<String, Object> report) {
+            outcomes.add(new Outcome(outcome, subscriptionId, report, 0));
+        }
+
+        @Override
+        public void onLateOutcome(int outcome, Map<String, Object> transaction, int subscriptionId,
+                                  Map<String, Object> report, long timedOutAt) {
+            lateOutcomes.add(new Outcome(outcome, subscriptionId, report, timedOutAt));
+        }
+    }
+
+    private static Map<String, Object> transaction(String code, String phoneNumber) {
+        Map<String, Object> transaction = new HashMap<>();
+        transaction.put("transactionCode", code);
+        transaction.put("extractedName", "JOHN KAMAU");
+        transaction.put("extractedAmount", 20.0);
+        transaction.put("extractedPhoneNumber", phoneNumber);
+        transaction.put("purchasedOffer", "1GB 1hr");
+        return transaction;
+    }
+
+    private static long count(String counter) {
+        return PipelineMetrics.get().count(counter);
+    }
+
+    private void reply(Session session, String response) {
+        session.callback.onResponse(response);
+        worker.runPending();
+    }
+
+    private void fail(Session session) {
+        session.callback.onFailure(UssdGateway.USSD_RETURN_FAILURE);
+        worker.runPending();
+    }
+
+    @Test
+    public void successConfirmsAndReports() {
+        long successes = count(PipelineMetrics.USSD_SUCCESS);
+        assertEquals(PurchasePipeline.QUEUED,
+                pipeline.purchase(CODE, SimScheduler.ANY_SIM, transaction("SFT4ABC123", CUSTOMER), 0));
+        worker.runPending();
+        assertEquals(1, sessions.size());
+        assertEquals(1, pipeline.outstanding());
+
+        reply(sessions.get(0), "You have SUCCESSFULLY purchased 1GB");
+
+        assertEquals(1, outcomes.size());
+        assertEquals(BusinessStats.SUCCESS, outcomes.get(0).outcome);
+        assertEquals(sessions.get(0).subscriptionId, outcomes.get(0).subscriptionId);
+        assertEquals("successfully", outcomes.get(0).report.get("matchedKeyword"));
+        assertEquals(Collections.singletonList(CUSTOMER + ": Thank you John for choosing and entrusting Nexora Bingwa"
+                + " Sokoni and purchasing 1GB 1hr for Ksh 20.00. Have a nice time."), smsSent);
+        assertTrue(served.contains(CUSTOMER));
+        assertTrue(claims.contains("SFT4ABC123"));
+        assertEquals(0, pipeline.outstanding());
+        assertEquals(successes + 1, count(PipelineMetrics.USSD_SUCCESS));
+    }
+
+    @Test
+    public void samePaymentIsDialedOnce() {
+        Map<String, Object> transaction = transaction("SFT4ABC123", CUSTOMER);
+        assertEquals(PurchasePipeline.QUEUED, pipeline.purchase(CODE, 1, transaction, 0));
+        assertEquals(PurchasePipeline.DUPLICATE, pipeline.purchase(CODE, 1, transaction, 0));
+        worker.runPending();
+
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    public void servedNumberIsAnsweredWithoutDialing() {
+        served.add(CUSTOMER);
+        assertEquals(PurchasePipeline.ALREADY_SERVED,
+                pipeline.purchase(CODE, SimScheduler.ANY_SIM, transaction("SFT4ABC123", CUSTOMER), 0));
+        worker.runPending();
+
+        assertTrue(sessions.isEmpty());
+        assertEquals(1, outcomes.size());
+        assertEquals(BusinessStats.ALREADY, outcomes.get(0).outcome);
+        assertEquals(true, outcomes.get(0).report.get("skippedDial"));
+        assertEquals(1, smsSent.size());
+        assertTrue(smsSent.get(0), smsSent.get(0).startsWith(CUSTOMER + ": Hey John, Your number " + CUSTOMER));
+        // The payment is claimed all the same
+        assertEquals(PurchasePipeline.DUPLICATE,
+                pipeline.purchase(CODE, SimScheduler.ANY_SIM, transaction("SFT4ABC123", CUSTOMER), 0));
+    }
+
+    @Test
+    public void failureReplyReleasesTheClaim() {
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 0);
+        worker.runPending();
+        reply(sessions.get(0), "Request failed, try again later");
+
+        assertEquals(BusinessStats.FAILURE, outcomes.get(0).outcome);
+        assertFalse(claims.contains("SFT4ABC123"));
+        assertFalse(served.contains(CUSTOMER));
+        assertTrue(smsSent.get(0), smsSent.get(0).startsWith(CUSTOMER + ": Dear John, there was a delay"));
+    }
+
+    @Test
+    public void timeoutKeepsTheClaimAndALateReplyCorrectsIt() {
+        long timeouts = count(PipelineMetrics.USSD_TIMEOUT);
+        long late = count(PipelineMetrics.USSD_LATE);
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 0);
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC456", "254722000000"), 0);
+        worker.runPending();
+        // The second purchase waits for the SIM
+        assertEquals(1, sessions.size());
+
+        worker.advance(6000);
+        assertEquals(1, outcomes.size());
+        Outcome error = outcomes.get(0);
+        assertEquals(BusinessStats.ERROR, error.outcome);
+        assertEquals(true, error.report.get("timedOut"));
+        assertTrue(claims.contains("SFT4ABC123"));
+        assertEquals(timeouts + 1, count(PipelineMetrics.USSD_TIMEOUT));
+        // The SIM is free for the next purchase
+        assertEquals(2, sessions.size());
+
+        reply(sessions.get(0), "You have successfully purchased 1GB");
+        assertEquals(1, outcomes.size());
+        assertEquals(1, lateOutcomes.size());
+        assertEquals(BusinessStats.SUCCESS, lateOutcomes.get(0).outcome);
+        assertEquals(error.report.get("timedOutAt"), lateOutcomes.get(0).timedOutAt);
+        assertEquals(true, lateOutcomes.get(0).report.get("late"));
+        assertTrue(served.contains(CUSTOMER));
+        assertEquals(late + 1, count(PipelineMetrics.USSD_LATE));
+        // The error message went out at the deadline and the confirmation after the reply
+        assertEquals(2, smsSent.size());
+        assertTrue(smsSent.get(1), smsSent.get(1).startsWith(CUSTOMER + ": Thank you John"));
+
+        // A second reply to the same session changes nothing
+        reply(sessions.get(0), "You have successfully purchased 1GB");
+        assertEquals(1, lateOutcomes.size());
+    }
+
+    @Test
+    public void failureAfterTimeoutOnlyReleasesTheClaim() {
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 1);
+        worker.runPending();
+        worker.advance(6000);
+        fail(sessions.get(0));
+
+        assertEquals(1, outcomes.size());
+        assertTrue(lateOutcomes.isEmpty());
+        assertFalse(claims.contains("SFT4ABC123"));
+        // No retry for a session already reported
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    public void carrierFailureRetriesOnAnotherSim() {
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 1);
+        worker.runPending();
+        fail(sessions.get(0));
+
+        assertTrue(outcomes.isEmpty());
+        assertEquals(Collections.singletonList(1), ussdRejected);
+        assertEquals(2, sessions.size());
+        assertEquals(2, sessions.get(1).subscriptionId);
+        assertTrue(claims.contains("SFT4ABC123"));
+
+        reply(sessions.get(1), "You have successfully purchased 1GB");
+        assertEquals(1, outcomes.size());
+        assertEquals(BusinessStats.SUCCESS, outcomes.get(0).outcome);
+        assertEquals(2, outcomes.get(0).subscriptionId);
+    }
+
+    @Test
+    public void carrierFailureWithoutRetriesReleasesTheClaim() {
+        long errors = count(PipelineMetrics.USSD_ERROR);
+        pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 0);
+        worker.runPending();
+        fail(sessions.get(0));
+
+        assertEquals(1, outcomes.size());
+        assertEquals(BusinessStats.ERROR, outcomes.get(0).outcome);
+        assertEquals(false, outcomes.get(0).report.get("timedOut"));
+        assertFalse(claims.contains("SFT4ABC123"));
+        assertEquals(errors + 1, count(PipelineMetrics.USSD_ERROR));
+        // The payment may be dialed again
+        assertEquals(PurchasePipeline.QUEUED, pipeline.purchase(CODE, 1, transaction("SFT4ABC123", CUSTOMER), 0));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class RateLimiterTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void burstGoesNowThenQueuesAtTheRate() {
+        // 6 per minute: one permit every 10 s
+        RateLimiter limiter = new RateLimiter(6, 2);
+
+        assertEquals(0, limiter.reserve(1, 1, 0));
+        assertEquals(0, limiter.reserve(1, 1, 0));
+        assertEquals(10 * SECOND, limiter.reserve(1, 1, 0));
+        assertEquals(20 * SECOND, limiter.reserve(1, 1, 0));
+        // Other SIMs have their own bucket
+        assertEquals(0, limiter.reserve(2, 1, 0));
+    }
+
+    @Test
+    public void refillsOverTimeUpToTheBurst() {
+        RateLimiter limiter = new RateLimiter(6, 2);
+        limiter.reserve(1, 2, 0);
+
+        assertEquals(5 * SECOND, limiter.waitNanos(1, 5 * SECOND));
+        assertEquals(0, limiter.reserve(1, 1, 10 * SECOND));
+        // A long idle spell only refills to the burst size
+        assertEquals(0, limiter.reserve(1, 2, 1000 * SECOND));
+        assertEquals(10 * SECOND, limiter.reserve(1, 1, 1000 * SECOND));
+    }
+
+    @Test
+    public void permitsAreCappedAtTheBurst() {
+        RateLimiter limiter = new RateLimiter(6, 2);
+
+        // A five-part SMS costs no more than a full bucket
+        assertEquals(0, limiter.reserve(1, 5, 0));
+        assertEquals(10 * SECOND, limiter.reserve(1, 1, 0));
+    }
+
+    @Test
+    public void backOffEmptiesTheBucket() {
+        RateLimiter limiter = new RateLimiter(6, 3);
+        limiter.backOff(1, 0);
+
+        assertEquals(10 * SECOND, limiter.waitNanos(1, 0));
+        List<Map<String, Object>> snapshot = limiter.snapshot(0);
+        assertEquals(1, snapshot.size());
+        assertEquals(0, snapshot.get(0).get("allowance"));
+        assertEquals(10000L, snapshot.get(0).get("waitMs"));
+
+        limiter.reserve(1, 2, 0);
+        assertEquals(2, limiter.snapshot(0).get(0).get("queued"));
+    }
+
+    @Test
+    public void zeroRateTurnsLimitingOff() {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        for (int i = 0; i < 100; i++) assertEquals(0, limiter.reserve(1, 1, 0));
+        limiter.backOff(1, 0);
+        assertEquals(0, limiter.waitNanos(1, 0));
+
+        limiter.configure(60, 1);
+        assertEquals(0, limiter.reserve(1, 1, 0));
+        assertEquals(SECOND, limiter.reserve(1, 1, 0));
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.newton;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class SmsTemplateTest {
+    private static final String[] TEMPLATES = {
+            SmsTemplateCatalog.DEFAULT_SUCCESS_TEMPLATE,
+            SmsTemplateCatalog.DEFAULT_FAILURE_TEMPLATE,
+            SmsTemplateCatalog.DEFAULT_NO_OFFER_TEMPLATE,
+            SmsTemplateCatalog.DEFAULT_ALREADY_TEMPLATE,
+            "[name]|[first_name]|[second_name]|[last_name]|[amount]|[phone]|[offer]",
+            "[first_name][first_name] [amount][amount]",
+            "[unknown] [first_name [name]] [[offer]]",
+            "No placeholders at all",
+            "",
+    };
+    private static final String[] NAMES = {
+            null, "", "   ", "john", "JOHN KAMAU", "  john   kamau  mwangi ", "a b c d", "mary\tWANJIKU"
+    };
+    private static final Object[] AMOUNTS = {null, 20.0, 1234.5, 0.005, 99.999, 150, "Ksh 20"};
+
+    // MainActivity.formatName before templates were precompiled
+    private static String formatName(String name) {
+        if (name == null || name.isEmpty()) return name;
+        String[] words = name.trim().split("\\s+");
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (!word.isEmpty()) {
+                formatted.append(word.substring(0, 1).toUpperCase()).append(word.substring(1).toLowerCase());
+                if (i < words.length - 1) formatted.append(" ");
+            }
+        }
+        return formatted.toString();
+    }
+
+    // MainActivity.replacePlaceholders before templates were precompiled
+    private static String replacePlaceholders(String message, Map<String, Object> transaction) {
+        String name = (String) transaction.get("extractedName");
+        if (name != null) {
+            String formattedName = formatName(name);
+            String[] nameParts = formattedName.trim().split("\\s+");
+            String firstName = nameParts.length > 0 ? nameParts[0] : "";
+            String lastName = nameParts.length > 1 ? nameParts[nameParts.length - 1] : "";
+            String secondName = nameParts.length > 2 ? nameParts[1] : "";
+            message = message.replace("[first_name]", firstName);
+            message = message.replace("[second_name]", secondName);
+            message = message.replace("[last_name]", lastName);
+            message = message.replace("[name]", formattedName);
+        }
+        if (message.contains("[amount]")) {
+            Object amountObj = transaction.get("extractedAmount");
+            if (amountObj != null) {
+                String amount = amountObj.toString();
+                if (amountObj instanceof Double) {
+                    amount = String.format("Ksh %.2f", (Double) amountObj);
+                }
+                message = message.replace("[amount]", amount);
+            }
+        }
+        if (message.contains("[phone]")) {
+            String phone = (String) transaction.get("extractedPhoneNumber");
+            if (phone != null) message = message.replace("[phone]", phone);
+        }
+        if (message.contains("[offer]")) {
+            String offer = (String) transaction.get("purchasedOffer");
+            if (offer != null) message = message.replace("[offer]", offer);
+        }
+        return message;
+    }
+
+    private static Map<String, Object> transaction(String name, Object amount, String phone, String offer) {
+        Map<String, Object> transaction = new HashMap<>();
+        transaction.put("extractedName", name);
+        transaction.put("extractedAmount", amount);
+        transaction.put("extractedPhoneNumber", phone);
+        transaction.put("purchasedOffer", offer);
+        return transaction;
+    }
+
+    @Test
+    public void rendersTheDefaultSuccessMessage() {
+        SmsTemplate.Rendered rendered = SmsTemplate.compile(SmsTemplateCatalog.DEFAULT_SUCCESS_TEMPLATE)
+                .render(transaction("JOHN KAMAU", 20.0, "254712345678", "1GB 1hr"));
+
+        assertEquals("Thank you John for choosing and entrusting Nexora Bingwa Sokoni and purchasing 1GB 1hr"
+                + " for Ksh 20.00. Have a nice time.", rendered.text);
+        assertFalse(rendered.unicode);
+        assertEquals(1, rendered.smsParts);
+    }
+
+    @Test
+    public void matchesReplacePlaceholders() {
+        String[] phones = {null, "254712345678"};
+        String[] offers = {null, "1.5GB 3hrs"};
+        for (String source : TEMPLATES) {
+            SmsTemplate template = SmsTemplate.compile(source);
+            for (String name : NAMES) {
+                for (Object amount : AMOUNTS) {
+                    for (String phone : phones) {
+                        for (String offer : offers) {
+                            Map<String, Object> tx = transaction(name, amount, phone, offer);
+                            assertEquals(source + " " + tx, replacePlaceholders(source, tx), template.render(tx).text);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void missingTransactionLeavesPlaceholders() {
+        assertEquals("Hi [first_name], [amount]", SmsTemplate.compile("Hi [first_name], [amount]").render(null).text);
+    }
+
+    @Test
+    public void countsGsmAndUnicodeParts() {
+        SmsTemplate.Rendered gsm = render(repeat('a', 160));
+        assertFalse(gsm.unicode);
+        assertEquals(160, gsm.encodedLength);
+        assertEquals(1, gsm.smsParts);
+        assertEquals(2, render(repeat('a', 161)).smsParts);
+        assertEquals(3, render(repeat('a', 307)).smsParts);
+
+        // Extension characters take two septets
+        assertEquals(4, SmsTemplate.gsmLength("{}"));
+        assertEquals(2, render(repeat('a', 159) + "€").smsParts);
+
+        SmsTemplate.Rendered unicode = render(repeat('a', 69) + "⏳");
+        assertTrue(unicode.unicode);
+        assertEquals(70, unicode.encodedLength);
+        assertEquals(1, unicode.smsParts);
+        assertTrue(render(repeat('a', 70) + "⏳").exceedsOnePart());
+        assertEquals(-1, SmsTemplate.gsmLength("Asante 🙏"));
+    }
+
+    private static SmsTemplate.Rendered render(String text) {
+        return SmsTemplate.compile(text).render(new HashMap<String, Object>());
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder out = new StringBuilder(count);
+        for (int i = 0; i < count; i++) out.append(c);
+        return out.toString();
+    }
+}
@@ -23,3 +23,6 @@ plugins {
 }
 
 include(":app")
+
+// Platform-independent logic and its JMH benchmarks; a plain JVM build of its own
+includeBuild("core")
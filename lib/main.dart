@@ -12,6 +12,36 @@ import 'dart:convert';
 
 void main() async {
   WidgetsFlutterBinding.ensureInitialized();
+  await _startUi();
+}
+
+/// Entrypoint of the engine shared with the native background service.
+///
+/// Only the SMS handlers are set up until an activity attaches and asks for
+/// the UI, which then runs in this same isolate.
+@pragma('vm:entry-point')
+void backgroundMain() {
+  WidgetsFlutterBinding.ensureInitialized();
+  PlatformChannels.backgroundSmsHandler();
+
+  _engineChannel.setMethodCallHandler((call) async {
+    if (call.method == 'attachUi') {
+      await _startUi();
+      return true;
+    }
+    return false;
+  });
+}
+
+const MethodChannel _engineChannel = MethodChannel(
+  'com.example.newton/engine',
+);
+
+bool _uiStarted = false;
+
+Future<void> _startUi() async {
+  if (_uiStarted) return;
+  _uiStarted = true;
 
   // Initialize app components
   await _initializeApp();
@@ -68,6 +98,65 @@ Future<void> stopBackgroundService() async {
   }
 }
 
+/// Latency percentiles per pipeline stage, outcome counters and rates from
+/// the native side; see PipelineMetrics.java for the keys.
+Future<Map<String, dynamic>> getPipelineMetrics() async {
+  try {
+    final metrics = await _backgroundServiceChannel.invokeMethod('getMetrics');
+    return Map<String, dynamic>.from(metrics as Map);
+  } catch (e) {
+    debugPrint('Failed to get pipeline metrics: $e');
+    return {};
+  }
+}
+
+/// Rolling purchase totals kept natively as each USSD result is classified:
+/// totals and rates, per-day, per-hour, per-offer and per-SIM buckets; see
+/// BusinessStats.java for the keys. Costs the same however long the history.
+Future<Map<String, dynamic>> getBusinessStats() async {
+  try {
+    final stats = await _backgroundServiceChannel.invokeMethod('getStats');
+    return Map<String, dynamic>.from(stats as Map);
+  } catch (e) {
+    debugPrint('Failed to get business stats: $e');
+    return {};
+  }
+}
+
+/// Per-SIM USSD and SMS rate limits with each SIM's current allowance,
+/// queued permits and wait; see CarrierRateLimits.java.
+Future<Map<String, dynamic>> getRateLimits() async {
+  try {
+    final limits = await _backgroundServiceChannel.invokeMethod('getRateLimits');
+    return Map<String, dynamic>.from(limits as Map);
+  } catch (e) {
+    debugPrint('Failed to get rate limits: $e');
+    return {};
+  }
+}
+
+/// Sets per-SIM limits; omitted values keep their current setting and a rate
+/// of 0 turns that limiter off. Returns the same map as [getRateLimits].
+Future<Map<String, dynamic>> setRateLimits({
+  double? ussdPerMinute,
+  int? ussdBurst,
+  double? smsPerMinute,
+  int? smsBurst,
+}) async {
+  try {
+    final limits = await _backgroundServiceChannel.invokeMethod('setRateLimits', {
+      if (ussdPerMinute != null) 'ussdPerMinute': ussdPerMinute,
+      if (ussdBurst != null) 'ussdBurst': ussdBurst,
+      if (smsPerMinute != null) 'smsPerMinute': smsPerMinute,
+      if (smsBurst != null) 'smsBurst': smsBurst,
+    });
+    return Map<String, dynamic>.from(limits as Map);
+  } catch (e) {
+    debugPrint('Failed to set rate limits: $e');
+    return {};
+  }
+}
+
 enum RegistrationStatus { pending, completed, failed }
 
 // Enhanced User Management Class
@@ -313,14 +313,7 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
     bool isSuccess,
     bool isFailure,
   ) async {
-    final transaction = _currentAutoBuyMpesaTransaction!;
-
-    await _storeTransaction(
-      transaction['extractedName']!,
-      transaction['extractedAmount']!,
-      transaction['extractedPhoneNumber']!,
-      isSuccess,
-    );
+    // The outcome is recorded natively by the TransactionLedger
     _currentAutoBuyMpesaTransaction = null;
     await _loadTransactions();
   }
@@ -361,6 +354,7 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
 
   Future<void> _loadDataPlans() async {
     _dataPlans = await _dbHelper.getUssdDataPlans();
+    PlatformChannels.syncOffers(_dataPlans);
   }
 
   Future<void> _loadKeywords() async {
@@ -430,6 +424,14 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
         return;
       }
 
+      // With several SIMs the operator can leave the choice to the native scheduler
+      if (simCards.length > 1) {
+        simCards.insert(0, {
+          'subscriptionId': PlatformChannels.anySimSubscriptionId,
+          'displayName': 'Any SIM',
+        });
+      }
+
       await showDialog(
         context: context,
         barrierDismissible: false,
@@ -616,7 +618,11 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
                                                     ),
                                                     const SizedBox(height: 2),
                                                     Text(
-                                                      'Slot ${(sim['simSlotIndex'] ?? 0) + 1}',
+                                                      sim['subscriptionId'] ==
+                                                              PlatformChannels
+                                                                  .anySimSubscriptionId
+                                                          ? 'Least busy SIM per purchase'
+                                                          : 'Slot ${(sim['simSlotIndex'] ?? 0) + 1}',
                                                       style:
                                                           GoogleFonts.poppins(
                                                             fontSize: 14,
@@ -838,13 +844,7 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
           final String body = messageData['body'] as String;
           final int timestamp = messageData['timestamp'] as int;
 
-          await _dbHelper.insertMessage({
-            'sender': sender,
-            'body': body,
-            'timestamp': timestamp,
-          });
-
-          await _loadFilteredTransactions();
+          // Every SMS is stored natively; onLedgerCommitted reloads the list
 
           if (_isCheckingBalance &&
               sender.toLowerCase().contains('safaricom')) {
@@ -893,9 +893,11 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
                       'purchasedOffer': matchingPlan.planName,
                     };
 
+                    // Unpinned purchases go to whichever SIM the scheduler picks
                     await _triggerUssdAndNotify(
                       finalUssdCode,
-                      _selectedSimSubscriptionId,
+                      _selectedSimSubscriptionId ??
+                          PlatformChannels.anySimSubscriptionId,
                       planName: matchingPlan.planName,
                       targetNumber: phoneNumber,
                     );
@@ -1090,24 +1092,6 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
     }
   }
 
-  // In _storeTransaction method
-  Future<void> _storeTransaction(
-    String name,
-    double amount,
-    String phoneNumber,
-    bool isSuccess,
-  ) async {
-    final transaction = Transactions(
-      name: name,
-      amount: amount,
-      phoneNumber: phoneNumber,
-      timestamp: DateTime.now(),
-      isSuccess: isSuccess,
-    );
-
-    await _dbHelper.insertTransaction(transaction);
-  }
-
   Future<void> _triggerUssdAndNotify(
     String ussdCode,
     int? simSubscriptionId, {
@@ -1176,6 +1160,12 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
         isError: false,
       );
     } on PlatformException catch (e) {
+      if (e.code == 'DUPLICATE_TRANSACTION') {
+        // The native auto-buy already dialed this payment; its outcome still arrives here
+        _showSnackbar('Purchase already in progress ⏳', isError: false);
+        _currentAutoBuyMpesaTransaction = null;
+        return;
+      }
       setState(() {
         if (_isCheckingBalance) {
           _airtimeBalance = 'Check Failed';
@@ -1245,12 +1235,20 @@ class _HomeContentState extends State<HomeContent> with TickerProviderStateMixin
             isError: true,
           );
         }
+      } else if (call.method == 'onLedgerCommitted') {
+        // The native ledger wrote new messages or transactions
+        if (mounted) {
+          await _loadTransactions();
+          await _loadFilteredTransactions();
+        }
       }
     });
   }
 
   Future<void> _checkAirtimeBalance() async {
-    if (_selectedSimSubscriptionId == null) {
+    // A balance belongs to one SIM, so "Any SIM" cannot be checked
+    if (_selectedSimSubscriptionId == null ||
+        _selectedSimSubscriptionId == PlatformChannels.anySimSubscriptionId) {
       _showSnackbar(
         'Please select a SIM card first to check balance.',
         isError: true,
@@ -3,6 +3,7 @@
 import 'package:flutter/material.dart';
 import 'package:newton/models/ussd_data_plan.dart';
 import 'package:newton/services/database_helper.dart';
+import 'package:newton/platform_channels.dart';
 import 'package:google_fonts/google_fonts.dart';
 import 'package:android_intent_plus/android_intent.dart';
 import 'package:android_intent_plus/flag.dart';
@@ -107,6 +108,7 @@ class _UssdConfigPageState extends State<UssdConfigPage>
 
   Future<void> _loadDataPlans() async {
     final plans = await _dbHelper.getUssdDataPlans();
+    PlatformChannels.syncOffers(plans);
     setState(() {
       _dataPlans = plans;
     });
@@ -7,6 +7,7 @@ import 'package:newton/services/database_helper.dart';
 import 'package:newton/services/message_processor.dart';
 import 'package:newton/models/ussd_data_plan.dart';
 import 'package:newton/services/shared_preferences_helper.dart';
+import 'package:newton/services/sms_batch_codec.dart';
 
 class PlatformChannels {
   static const EventChannel smsEventChannel = EventChannel(
@@ -32,10 +33,19 @@ class PlatformChannels {
   static const MethodChannel backgroundSmsChannel = MethodChannel(
     'com.example.newton/backgroundSms',
   );
+  /// Journal backlog pushed by the service in batches, see [SmsBatchCodec].
+  static const BasicMessageChannel<ByteData?> smsBatchChannel =
+      BasicMessageChannel<ByteData?>(
+    'com.example.newton/sms_batch',
+    BinaryCodec(),
+  );
   static const MethodChannel _ussdChannel = MethodChannel(
     'com.example.newton/ussd',
   );
 
+  /// Pass as `simSubscriptionId` to let the native scheduler pick the SIM.
+  static const int anySimSubscriptionId = -1;
+
   static final _ussdResponseController = StreamController<String>.broadcast();
   static final _ussdErrorController = StreamController<String>.broadcast();
 
@@ -83,13 +93,19 @@ class PlatformChannels {
     });
   }
 
-  /// Triggers a USSD code.
+  /// Triggers a USSD code; a null [simSubscriptionId] means any SIM.
   static Future<void> triggerUssd(
     String ussdCode,
     int? simSubscriptionId,
     Map<String, dynamic>? transaction,
   ) async {
-    try {} on PlatformException catch (e) {
+    try {
+      await ussdChannel.invokeMethod('triggerUssd', {
+        'ussdCode': ussdCode,
+        'simSubscriptionId': simSubscriptionId ?? anySimSubscriptionId,
+        'transaction': transaction,
+      });
+    } on PlatformException catch (e) {
       throw PlatformException(
         code: e.code,
         message: "USSD request failed: ${e.message}",
@@ -130,6 +146,30 @@ class PlatformChannels {
     }
   }
 
+  /// Sends confirmations to the same customer within [windowMs] as one SMS,
+  /// held at most [maxDelayMs] after the first; a window of 0 turns it off.
+  static Future<void> setSmsCoalescing({
+    required int windowMs,
+    int? maxDelayMs,
+  }) async {
+    try {
+      await smsSenderChannel.invokeMethod('setSmsCoalescing', {
+        'windowMs': windowMs,
+        if (maxDelayMs != null) 'maxDelayMs': maxDelayMs,
+      });
+    } on PlatformException {}
+  }
+
+  /// Pushes the data plans to the native offer table, so payments can be
+  /// matched and dialed without waiting for Dart.
+  static Future<void> syncOffers(List<UssdDataPlan> plans) async {
+    try {
+      await serviceControlChannel.invokeMethod('updateOffers', {
+        'plans': plans.map((plan) => plan.toMap()).toList(),
+      });
+    } on PlatformException {}
+  }
+
   static Future<void> startSmsService() async {
     try {
       await serviceControlChannel.invokeMethod('startService');
@@ -158,85 +198,99 @@ class PlatformChannels {
         final Map<String, dynamic> smsData = Map<String, dynamic>.from(
           call.arguments as Map,
         );
+        await _processBackgroundSms(smsData, dbHelper, prefsHelper);
+        return true;
+      }
+      return false;
+    });
 
-        final String sender = smsData['sender'] as String;
-        final String body = smsData['body'] as String;
-        final int timestamp = smsData['timestamp'] as int;
-
-        await dbHelper.insertMessage({
-          'sender': sender,
-          'body': body,
-          'timestamp': timestamp,
-        });
-
-        final String mpesaSender = 'MPESA';
-        final String requiredKeyword = 'Confirmed.on';
-
-        // Load data plans from database for background processing
-        final List<UssdDataPlan> dataPlans = await dbHelper.getUssdDataPlans();
-
-        if (sender.toUpperCase().contains(mpesaSender) &&
-            body.contains(requiredKeyword)) {
-          final extracted = MessageProcessor.processMessage(body, dataPlans);
-
-          if (extracted != null) {
-            final amount = extracted['amount'] as double?;
-            final phone = extracted['phoneNumber'] as String?;
-            final name = extracted['name'] as String?;
-
-            if (amount != null && phone != null) {
-              UssdDataPlan? matchingPlan;
-              for (final plan in dataPlans) {
-                if (plan.amount == amount) {
-                  matchingPlan = plan;
-                  break;
-                }
-              }
-              if (matchingPlan != null) {
-                final code = MessageProcessor.prepareUssdCode(
-                  matchingPlan,
-                  phone,
-                );
-                if (code != null) {
-                  final simId = await prefsHelper.getSelectedSimId();
-                  if (simId != null) {
-                    try {
-                      // Attempt to trigger USSD
-                      await PlatformChannels.triggerUssd(code, simId, {
-                        'extractedPhoneNumber': phone,
-                        'extractedAmount': amount,
-                        'extractedName': name,
-                        'purchasedOffer': matchingPlan.planName,
-                      });
-                    } catch (_) {
-                      _sendAutoSms(phone, _getSmsMessage(false, amount, name));
-                    }
-                  } else {
-                    _sendAutoSms(phone, _getSmsMessage(false, amount, name));
-                  }
-                } else {
-                  _sendAutoSms(phone, _getSmsMessage(false, amount, name));
-                }
-              } else {
+    // Backlog replay arrives as one binary batch; a non-null reply acknowledges it.
+    // A failing message is skipped rather than thrown, since a throw replies null
+    // and the native side would replay the messages already handled.
+    smsBatchChannel.setMessageHandler((ByteData? data) async {
+      for (final smsData in SmsBatchCodec.decode(data)) {
+        try {
+          await _processBackgroundSms(smsData, dbHelper, prefsHelper);
+        } catch (_) {}
+      }
+      return ByteData(1);
+    });
+  }
+
+  static Future<void> _processBackgroundSms(
+    Map<String, dynamic> smsData,
+    DatabaseHelper dbHelper,
+    SharedPreferencesHelper prefsHelper,
+  ) async {
+    final String sender = smsData['sender'] as String;
+    final String body = smsData['body'] as String;
+    // Already stored in messages by the native TransactionLedger
+
+    final String mpesaSender = 'MPESA';
+    final String requiredKeyword = 'Confirmed.on';
+
+    // Load data plans from database for background processing
+    final List<UssdDataPlan> dataPlans = await dbHelper.getUssdDataPlans();
+
+    if (sender.toUpperCase().contains(mpesaSender) &&
+        body.contains(requiredKeyword)) {
+      final extracted = MessageProcessor.processMessage(body, dataPlans);
+
+      if (extracted != null) {
+        final amount = extracted['amount'] as double?;
+        final phone = extracted['phoneNumber'] as String?;
+        final name = extracted['name'] as String?;
+
+        if (amount != null && phone != null) {
+          UssdDataPlan? matchingPlan;
+          for (final plan in dataPlans) {
+            if (plan.amount == amount) {
+              matchingPlan = plan;
+              break;
+            }
+          }
+          if (matchingPlan != null) {
+            final code = MessageProcessor.prepareUssdCode(
+              matchingPlan,
+              phone,
+            );
+            if (code != null) {
+              // No pinned SIM: the native scheduler balances across SIMs
+              final simId =
+                  await prefsHelper.getSelectedSimId() ?? anySimSubscriptionId;
+              try {
+                // Attempt to trigger USSD
+                // The body keys the native dial dedupe, so the UI cannot buy it again
+                await PlatformChannels.triggerUssd(code, simId, {
+                  'sender': sender,
+                  'body': body,
+                  'extractedPhoneNumber': phone,
+                  'extractedAmount': amount,
+                  'extractedName': name,
+                  'purchasedOffer': matchingPlan.planName,
+                });
+              } catch (_) {
                 _sendAutoSms(phone, _getSmsMessage(false, amount, name));
               }
+            } else {
+              _sendAutoSms(phone, _getSmsMessage(false, amount, name));
             }
-          }
-        } else if (body.toLowerCase().contains("Recommendation failed")) {
-          // Failure detected, send failure SMS
-          final extracted = MessageProcessor.processMessage(body, []);
-          final amount = extracted?['amount'] as double?;
-          final phone = extracted?['phoneNumber'] as String?;
-          final name = extracted?['name'] as String?;
-
-          if (phone != null) {
+          } else {
             _sendAutoSms(phone, _getSmsMessage(false, amount, name));
           }
         }
-        return true;
       }
-      return false;
-    });
+    } else if (body.toLowerCase().contains("Recommendation failed")) {
+      // Failure detected, send failure SMS
+      final extracted = MessageProcessor.processMessage(body, []);
+      final amount = extracted?['amount'] as double?;
+      final phone = extracted?['phoneNumber'] as String?;
+      final name = extracted?['name'] as String?;
+
+      if (phone != null) {
+        _sendAutoSms(phone, _getSmsMessage(false, amount, name));
+      }
+    }
   }
 }
 
@@ -23,6 +23,7 @@ class DatabaseHelper {
     return await openDatabase(
       path,
       version: 5, // Incremented version
+      onConfigure: _onConfigure,
       onCreate: _onCreate,
       onUpgrade: _onUpgrade,
     );
@@ -34,10 +35,15 @@ class DatabaseHelper {
     await db.delete('transactions');
   }
 
+  // The native TransactionLedger writes to the same file; WAL lets it commit while Dart reads
+  Future<void> _onConfigure(Database db) async {
+    await db.rawQuery('PRAGMA journal_mode=WAL');
+  }
+
   Future<void> _onCreate(Database db, int version) async {
-    // Create all tables
+    // Create all tables; the native ledger may already have created messages and transactions
     await db.execute('''
-      CREATE TABLE messages(
+      CREATE TABLE IF NOT EXISTS messages(
         id INTEGER PRIMARY KEY AUTOINCREMENT,
         sender TEXT,
         body TEXT,
@@ -51,7 +57,7 @@ class DatabaseHelper {
     ''');
 
     await db.execute('''
-      CREATE TABLE ussd_data_plans(
+      CREATE TABLE IF NOT EXISTS ussd_data_plans(
         id INTEGER PRIMARY KEY AUTOINCREMENT,
         planName TEXT,
         ussdCodeTemplate TEXT,
@@ -61,7 +67,7 @@ class DatabaseHelper {
     ''');
 
     await db.execute('''
-      CREATE TABLE transactions(
+      CREATE TABLE IF NOT EXISTS transactions(
         id INTEGER PRIMARY KEY AUTOINCREMENT,
         name TEXT,
         amount REAL,
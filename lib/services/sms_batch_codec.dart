@@ -0,0 +1,72 @@
+import 'dart:convert';
+import 'dart:typed_data';
+
+/// Decodes the binary SMS batches sent by the native side (SmsBatchCodec.java).
+///
+/// Layout: int32 version, int32 count, then per message int64 timestamp,
+/// int64 amountCents (-1 when not a payment) and the strings sender, body,
+/// phoneNumber, name, transactionCode. A string is an int32 byte length
+/// (-1 for null) followed by UTF-8 bytes. All integers are big-endian.
+class SmsBatchCodec {
+  static const int version = 1;
+
+  static List<Map<String, dynamic>> decode(ByteData? data) {
+    if (data == null || data.lengthInBytes < 8) return [];
+    int offset = 0;
+
+    int readInt32() {
+      final value = data.getInt32(offset);
+      offset += 4;
+      return value;
+    }
+
+    int readInt64() {
+      final value = data.getInt64(offset);
+      offset += 8;
+      return value;
+    }
+
+    String? readString() {
+      final length = readInt32();
+      if (length < 0) return null;
+      final bytes = data.buffer.asUint8List(
+        data.offsetInBytes + offset,
+        length,
+      );
+      offset += length;
+      return utf8.decode(bytes);
+    }
+
+    final batchVersion = readInt32();
+    if (batchVersion != version) {
+      throw FormatException('Unsupported SMS batch version $batchVersion');
+    }
+    final count = readInt32();
+    final messages = <Map<String, dynamic>>[];
+    for (int i = 0; i < count; i++) {
+      final timestamp = readInt64();
+      final amountCents = readInt64();
+      final sender = readString();
+      final body = readString();
+      final phone = readString();
+      final name = readString();
+      final transactionCode = readString();
+
+      final message = <String, dynamic>{
+        'sender': sender,
+        'body': body,
+        'timestamp': timestamp,
+      };
+      if (amountCents >= 0) {
+        message['isPayment'] = true;
+        message['transactionCode'] = transactionCode;
+        message['amountCents'] = amountCents;
+        message['extractedAmount'] = amountCents / 100.0;
+        message['extractedPhoneNumber'] = phone;
+        message['extractedName'] = name;
+      }
+      messages.add(message);
+    }
+    return messages;
+  }
+}